@@ -21,15 +21,19 @@ import com.couchbase.client.java.document.json.JsonObject;
 import static com.couchbase.graph.views.ViewManager.*;
 import com.couchbase.client.java.view.ViewResult;
 import com.couchbase.client.java.view.ViewRow;
+import com.couchbase.graph.cfg.CouchbaseConfig.ViewConsistency;
+import com.couchbase.graph.error.CASConflictException;
 import com.couchbase.graph.error.DocNotFoundException;
 import com.couchbase.graph.helper.ZipHelper;
+import com.couchbase.graph.query.QueryBackendFactory;
 import com.couchbase.graph.views.ViewManager;
+import com.tinkerpop.blueprints.Compare;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Graph;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.PropertyFilteredIterable;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -160,6 +164,26 @@ public final class CBEdge extends CBElement implements Edge {
         this.refresh();
     }
 
+    /**
+     * To construct an edge by it's key value and an already fetched
+     * document content, so without accessing the database
+     * 
+     * @param eKey
+     * @param content
+     * @param graph 
+     */
+    public CBEdge(String eKey, JsonObject content, Graph graph)
+    {
+        super(parseEdgeKey(eKey)[0], graph);
+        
+        this.cbKey = eKey;
+        this.innerObj = content;
+        this.innerProps = content.getObject(CBModel.PROP_PROPS);
+        this.innerFrom = content.getString(CBModel.PROP_FROM);
+        this.innerTo = content.getString(CBModel.PROP_TO);
+        this.innerLabel = content.getString(CBModel.PROP_LABEL);
+    }
+
     @Override
     public Vertex getVertex(Direction drctn) throws IllegalArgumentException {
         
@@ -172,10 +196,10 @@ public final class CBEdge extends CBElement implements Edge {
             if (drctn.equals(Direction.IN) || drctn.equals(Direction.OUT))
             {
                 if (drctn.equals(Direction.IN))
-                    return new CBVertex(innerTo, graph);
+                    return CBVertex.fromKey(innerTo, graph);
             
                 if (drctn.equals(Direction.OUT))
-                    return new CBVertex(innerFrom, graph);
+                    return CBVertex.fromKey(innerFrom, graph);
             }
             else
             {
@@ -214,13 +238,14 @@ public final class CBEdge extends CBElement implements Edge {
      * To refresh the edge attributes by accessing the database
      * 
      * 
+     * @param force
      * @throws com.couchbase.graph.error.DocNotFoundException
      * @return 
      */
     @Override
-    public boolean refresh() throws DocNotFoundException {
+    protected boolean refresh(boolean force) throws DocNotFoundException {
         
-        if (super.refresh())
+        if (super.refresh(force))
         {   
             innerFrom = innerObj.get(CBModel.PROP_FROM).toString();
             innerTo = innerObj.get(CBModel.PROP_TO).toString();
@@ -251,7 +276,7 @@ public final class CBEdge extends CBElement implements Edge {
                 vTarget.removeEdgeFromAdjacencyList(this.innerLabel, cbKey, Direction.IN);
                 super.remove();
                 
-            } catch (ZipHelper.CompressionException ex) {
+            } catch (ZipHelper.CompressionException | CASConflictException ex) {
                 
                 LOG.severe(ex.toString());
             }
@@ -332,23 +357,15 @@ public final class CBEdge extends CBElement implements Edge {
     
     /**
      * Queries all edge labels
+     * 
+     * This scans all edge labels, use the LabelCatalog in order
+     * to access the cached labels.
+     * 
      * @return 
      */
     public static Set<String> queryAllEdgeLabels()
     {
-        Set<String> result = new HashSet<>();
-        
-        ViewResult queryResult = ViewManager.query(DESIGN_DOC, getAllEdgeLabelsViewDef().name(), null, null);
-        
-        for (ViewRow viewRow : queryResult) {
-                
-            String label = viewRow.key().toString();
-            
-            result.add(label);
-            
-        }
-        
-        return result;
+        return QueryBackendFactory.getBackend().queryEdgeLabels(ViewManager.CONSISTENCY);
     }
     
     
@@ -377,24 +394,26 @@ public final class CBEdge extends CBElement implements Edge {
      /**
      * Queries all edges
      * 
+     * The edges are fetched lazily page by page while iterating.
+     * 
      * @param graph
      * @return 
-     * @throws com.couchbase.graph.error.DocNotFoundException 
      */
-    public static List<Edge> queryAllEdges(Graph graph) throws DocNotFoundException
+    public static Iterable<Edge> queryAllEdges(Graph graph)
     {
-       
-        List<Edge> result = new ArrayList<>();
-         
-        ViewResult viewResult = ViewManager.query(DESIGN_DOC, getAllEdgesViewDef().name(), null, null);
-        
-        
-        for (ViewRow viewRow : viewResult) {
-            
-            result.add(new CBEdge(viewRow.id(), graph));
-        }
-        
-        return result;
+        return queryAllEdges(graph, ViewManager.CONSISTENCY);
+    }
+    
+    /**
+     * Queries all edges with the given view consistency
+     * 
+     * @param graph
+     * @param consistency
+     * @return 
+     */
+    public static Iterable<Edge> queryAllEdges(Graph graph, ViewConsistency consistency)
+    {
+        return QueryBackendFactory.getBackend().queryAll(CBModel.VAL_TYPE_EDGE, doc -> (Edge) new CBEdge(doc.id(), doc.content(), graph), consistency);
     }
     
     /**
@@ -404,15 +423,33 @@ public final class CBEdge extends CBElement implements Edge {
      * @param value
      * @return 
      */
-    public static List<Edge> queryByEdgeProp(String key, String value, Graph graph) throws DocNotFoundException
+    public static Iterable<Edge> queryByEdgeProp(String key, String value, Graph graph) throws DocNotFoundException
     { 
-        List<Edge> result = new ArrayList<>();
+        return queryByEdgeProp(key, value, graph, ViewManager.CONSISTENCY);
+    }
+    
+    /**
+     * Queries all edge properties with the given view consistency
+     * 
+     * @param key
+     * @param value
+     * @param graph
+     * @param consistency
+     * @return
+     * @throws DocNotFoundException 
+     */
+    public static Iterable<Edge> queryByEdgeProp(String key, Object value, Graph graph, ViewConsistency consistency) throws DocNotFoundException
+    {
+        Set<String> ids = QueryBackendFactory.getBackend().queryIds(CBModel.VAL_TYPE_EDGE, key, Compare.EQUAL, value, Integer.MAX_VALUE, consistency);
         
-        ViewResult viewResult = ViewManager.query(DESIGN_DOC, getAllEdgePropsViewDef().name(), genCompKey(key, value), genCompKey(key, value));
+        //The property is not indexed, so scan all edges
+        if (ids == null) return new PropertyFilteredIterable<>(key, value, queryAllEdges(graph, consistency));
         
-        for (ViewRow viewRow : viewResult) {
+        List<Edge> result = new ArrayList<>();
+        
+        for (String id : ids) {
             
-            result.add(new CBEdge(viewRow.id(), graph));
+            result.add(new CBEdge(id, graph));
         }
         
         return result;
@@ -16,20 +16,35 @@
 
 package com.couchbase.graph;
 
+import com.couchbase.client.core.message.kv.subdoc.multi.Mutation;
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.document.JsonDocument;
 import com.couchbase.client.java.document.json.JsonArray;
 import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.CASMismatchException;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.error.subdoc.PathNotFoundException;
+import com.couchbase.client.java.subdoc.DocumentFragment;
+import com.couchbase.client.java.subdoc.MutateInBuilder;
+import com.couchbase.graph.cache.DocumentCache;
 import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.GraphConfig;
 import com.couchbase.graph.conn.ConnectionFactory;
+import com.couchbase.graph.error.CASConflictException;
 import com.couchbase.graph.error.DocNotFoundException;
+import com.couchbase.graph.helper.BackoffHelper;
 import com.couchbase.graph.helper.JSONHelper;
+import com.couchbase.graph.query.QueryBackendFactory;
+import com.couchbase.graph.stats.CASStats;
+import com.couchbase.graph.views.ViewManager;
 import com.tinkerpop.blueprints.Element;
 import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 /**
@@ -81,6 +96,17 @@ public class CBElement implements Element {
      */
     protected JsonObject innerProps;
     
+    /**
+     * The CAS value of the document at the time when it was fetched or
+     * written by this element
+     */
+    protected long innerCas;
+    
+    /**
+     * If the element was buffered and not yet written to the database
+     */
+    protected volatile boolean pending;
+    
     
     /**
      * The constructor which takes the id as argument
@@ -140,18 +166,41 @@ public class CBElement implements Element {
      *     the database
      *  4a. If another user did change the same vertex or edge at t_1 then the CAS value changed. Then perform a refresh and do the change again
      *  4b. ... Then simply interupt the update by throwing an execption.
+     * 
+     * The CAS value is stored whenever the document is fetched, the adjacency
+     * list updates of vertices are following (4a).
      *  
      * @return 
      * @throws com.couchbase.graph.error.DocNotFoundException 
      */
     public boolean refresh() throws DocNotFoundException
     {   
+        return refresh(false);
+    }
+    
+    /**
+     * To refresh the inner object instance. A forced refresh fetches the
+     * document independent of the refresh mode.
+     * 
+     * @param force
+     * @return
+     * @throws DocNotFoundException 
+     */
+    protected boolean refresh(boolean force) throws DocNotFoundException
+    {   
+        //A buffered element doesn't exist yet
+        if (pending) return false;
+        
         try
         {
-            if (innerObj == null || refreshEnabled)
+            if (innerObj == null || refreshEnabled || force)
             {
-                innerObj = client.get(cbKey).content();
+                //A forced refresh bypasses the cache
+                JsonDocument doc = DocumentCache.fetch(cbKey, force);
+                
+                innerObj = doc.content();
                 innerProps = innerObj.getObject(CBModel.PROP_PROPS);
+                innerCas = doc.cas();
             
                 return true;
             }
@@ -226,13 +275,28 @@ public class CBElement implements Element {
     @Override
     public void setProperty(String key, Object value) {
        
+        //The property is written when the buffer is flushed
+        if (pending) {
+            
+            innerProps.put(key, value);
+            return;
+        }
+        
+        if (ConfigManager.getGraphConfig().isSubDocEnabled()) {
+            
+            mutateProperty(key, value, false);
+            return;
+        }
+        
         try {
-            refresh();
             
-            innerProps.put(key, value);  
-            client.replace(JsonDocument.create(cbKey, innerObj));
+            replaceProperties(() -> {
+                
+                innerProps.put(key, value);
+                return true;
+            });
            
-        } catch (DocNotFoundException e) {
+        } catch (DocNotFoundException | CASConflictException e) {
             
             LOG.severe(e.toString());
         }
@@ -248,26 +312,198 @@ public class CBElement implements Element {
     @Override
     public <T> T removeProperty(String key) {
 
-        try {
+        if (pending) {
             
-            refresh();
             Object toRemove = innerProps.get(key);
-            JsonObject removed = innerProps.removeKey(key);
+            innerProps.removeKey(key);
+            return (T) toRemove;
+        }
+        
+        if (ConfigManager.getGraphConfig().isSubDocEnabled()) {
             
-            if (removed != null)
-            {
-                client.replace(JsonDocument.create(cbKey, innerObj));
-                return (T) toRemove;
-            }
+            return (T) mutateProperty(key, null, true);
+        }
+        
+        Object[] toRemove = new Object[1];
+        
+        try {
             
+            boolean removed = replaceProperties(() -> {
+                
+                toRemove[0] = innerProps.get(key);
+                
+                if (toRemove[0] == null) return false;
+                
+                innerProps.removeKey(key);
+                return true;
+            });
             
-        } catch (DocNotFoundException e) {
+            if (removed) return (T) toRemove[0];
+            
+        } catch (DocNotFoundException | CASConflictException e) {
             
             LOG.severe(e.toString());
         }
      
        return null;
     }
+    
+    /**
+     * To modify the properties and to replace the whole document by using the
+     * CAS value of the fetched document. If the document was modified
+     * concurrently (e.g. an edge was added), then it is fetched again and the
+     * modification is applied again. The retries are bounded and are using
+     * an exponential backoff.
+     * 
+     * @param modification Returns false if the document doesn't need to be written
+     * @return If the document was written
+     * @throws DocNotFoundException
+     * @throws CASConflictException 
+     */
+    private boolean replaceProperties(Supplier<Boolean> modification) throws DocNotFoundException, CASConflictException {
+        
+        GraphConfig cfg = ConfigManager.getGraphConfig();
+        long backoff = cfg.getCASBackoff();
+        
+        boolean force = false;
+        
+        for (int attempt = 0; ; attempt++) {
+            
+            refresh(force);
+            
+            if (!modification.get()) return false;
+            
+            try {
+                
+                JsonDocument written = client.replace(JsonDocument.create(cbKey, innerObj, innerCas));
+                innerCas = written.cas();
+                DocumentCache.put(written);
+                ViewManager.markDirty();
+                
+                return true;
+                
+            } catch (CASMismatchException e) {
+                
+                CASStats.conflict();
+                
+                if (attempt >= cfg.getCASRetries()) {
+                    
+                    CASStats.failure();
+                    throw new CASConflictException(cbKey, attempt + 1, e);
+                }
+                
+                CASStats.retry();
+                
+                try {
+                    
+                    backoff = BackoffHelper.backoff(backoff, cfg.getCASMaxBackoff());
+                
+                } catch (InterruptedException ie) {
+                    
+                    Thread.currentThread().interrupt();
+                    throw new CASConflictException(cbKey, attempt + 1, ie);
+                }
+                
+                force = true;
+            }
+        }
+    }
+
+    /**
+     * To set or remove a property by using a sub-document operation on the
+     * path 'props.key', so only the property is sent instead of the whole
+     * document and concurrent updates of other parts of the document (e.g. the
+     * adjacency lists) are not overridden.
+     * 
+     * If the document was already fetched and is not refreshed on access, then
+     * the CAS value is used to keep the fetched document in sync. If the
+     * document was modified concurrently, the property is written without the
+     * CAS value and the document is fetched again on the next access.
+     * 
+     * @param key
+     * @param value
+     * @param remove
+     * @return The previous value if the property was removed
+     */
+    private Object mutateProperty(String key, Object value, boolean remove) {
+        
+        String path = genPropertyPath(key);
+        boolean inSync = innerObj != null && !refreshEnabled;
+        
+        Object result = null;
+        
+        try {
+            
+            if (remove) {
+                
+                result = inSync ? innerProps.get(key) : client.lookupIn(cbKey).get(path).execute().content(path);
+            }
+            
+            try {
+                
+                DocumentFragment<Mutation> written = propertyMutation(path, value, remove)
+                        .withCas(inSync ? innerCas : 0L)
+                        .execute();
+                
+                if (inSync) {
+                    
+                    if (remove) innerProps.removeKey(key);
+                    else innerProps.put(key, value);
+                    
+                    innerCas = written.cas();
+                }
+                
+            } catch (CASMismatchException e) {
+                
+                CASStats.conflict();
+                
+                propertyMutation(path, value, remove).execute();
+                innerObj = null;
+            }
+            
+            DocumentCache.invalidate(cbKey);
+            ViewManager.markDirty();
+            
+        } catch (PathNotFoundException e) {
+            
+            //The property to remove doesn't exist
+            return null;
+            
+        } catch (DocumentDoesNotExistException e) {
+            
+            LOG.severe(new DocNotFoundException(cbKey, e).toString());
+        }
+        
+        return result;
+    }
+    
+    /**
+     * To build the sub-document operation which sets or removes a property
+     * 
+     * @param path
+     * @param value
+     * @param remove
+     * @return 
+     */
+    private MutateInBuilder propertyMutation(String path, Object value, boolean remove) {
+        
+        MutateInBuilder builder = client.mutateIn(cbKey);
+        
+        return remove ? builder.remove(path) : builder.upsert(path, value, true);
+    }
+    
+    /**
+     * To generate the sub-document path of a property, e.g.
+     * 
+     * props.`name`
+     * 
+     * @param key
+     * @return 
+     */
+    public static String genPropertyPath(String key) {
+        
+        return CBModel.PROP_PROPS + ".`" + key.replace("`", "``") + "`";
+    }
 
     /**
      * Remove the element
@@ -277,6 +513,9 @@ public class CBElement implements Element {
     public void remove() {
         
         client.remove(cbKey);
+        DocumentCache.invalidate(cbKey);
+        QueryBackendFactory.getBackend().unregisterKey(this instanceof Vertex ? CBModel.VAL_TYPE_VERTEX : CBModel.VAL_TYPE_EDGE, cbKey);
+        ViewManager.markDirty();
     }
 
     /**
@@ -310,6 +549,18 @@ public class CBElement implements Element {
     @Override
     public String toString() {
                 
+        //Lazily created elements are fetched first
+        if (innerObj == null) {
+            
+            try {
+                
+                refresh();
+                
+            } catch (DocNotFoundException e) {
+                
+                LOG.severe(e.toString());
+            }
+        }
         
         return JSONHelper.sort(innerObj).toString();
 
@@ -43,13 +43,13 @@ public class CBFeatures extends Features {
         this.supportsVertexIteration = true;
         this.supportsVertexProperties = true;
         
-        //Indexing -- Disabled for now, but will be possible with N1QL
+        //Indexing -- Only key indices are supported
         this.supportsEdgeIndex = false;
-        this.supportsEdgeKeyIndex = false;
+        this.supportsEdgeKeyIndex = true;
         this.supportsIndices = false;
-        this.supportsKeyIndices = false;
+        this.supportsKeyIndices = true;
         this.supportsVertexIndex = false;
-        this.supportsVertexKeyIndex = false;
+        this.supportsVertexKeyIndex = true;
         
         //Transactions -- The Graph will be distributed, so Transactions are not the focus
         this.supportsThreadedTransactions = false;
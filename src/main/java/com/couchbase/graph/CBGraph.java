@@ -16,27 +16,46 @@
 
 package com.couchbase.graph;
 
-import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.core.CouchbaseException;
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.document.BinaryDocument;
+import com.couchbase.client.java.document.Document;
 import com.couchbase.client.java.document.JsonDocument;
 import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.graph.cache.DocumentCache;
+import com.couchbase.graph.cache.LabelCatalog;
 import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.CouchbaseConfig.ViewConsistency;
 import com.couchbase.graph.cfg.GraphConfig;
 import com.couchbase.graph.conn.ConnectionFactory;
+import com.couchbase.graph.error.CASConflictException;
 import com.couchbase.graph.error.DocNotFoundException;
 import com.couchbase.graph.error.IdGenException;
+import com.couchbase.graph.error.WriteBufferException;
 import com.couchbase.graph.helper.ZipHelper;
+import com.couchbase.graph.query.PartitionedScan;
+import com.couchbase.graph.query.QueryBackendFactory;
+import com.couchbase.graph.views.KeyIndexManager;
 import com.couchbase.graph.views.ViewManager;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
 import com.tinkerpop.blueprints.Features;
-import com.tinkerpop.blueprints.Graph;
 import com.tinkerpop.blueprints.GraphQuery;
+import com.tinkerpop.blueprints.KeyIndexableGraph;
+import com.tinkerpop.blueprints.Parameter;
 import com.tinkerpop.blueprints.Vertex;
-import com.tinkerpop.blueprints.util.DefaultGraphQuery;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import rx.Observable;
 
 /**
  * A Blueprints implementation for Couchbase Server
@@ -44,7 +63,7 @@ import java.util.logging.Logger;
  * 
  * @author David Maier <david.maier at couchbase.com>
  */
-public class CBGraph implements Graph {
+public class CBGraph implements KeyIndexableGraph {
 
     /**
      * The Logger
@@ -66,6 +85,21 @@ public class CBGraph implements Graph {
      * one connection so we don't close the underlying connection
      */
     private boolean closed;
+    
+    /**
+     * The consistency of the view queries of this graph
+     */
+    private ViewConsistency viewConsistency = ViewManager.CONSISTENCY;
+    
+    /**
+     * If the creation of vertices and edges is buffered
+     */
+    private volatile boolean buffered = ConfigManager.getGraphConfig().isWriteBufferEnabled();
+    
+    /**
+     * The write buffer per thread
+     */
+    private final ThreadLocal<WriteBuffer> buffers = ThreadLocal.withInitial(() -> new WriteBuffer(this));
 
     /**
      * The default connector
@@ -81,10 +115,73 @@ public class CBGraph implements Graph {
         //The Graph is per default open
         this.closed = false;
         
-        //Init the views
-        if (ConfigManager.getCbConfig().isViewAutoCreateEnabled() && !ViewManager.designDocExists()) ViewManager.createViews();
+        //Init the views or indexes
+        if (ConfigManager.getCbConfig().isViewAutoCreateEnabled()) QueryBackendFactory.getBackend().createIndexes();
+    }
+    
+    
+    /**
+     * To get the consistency of the view queries of this graph
+     * 
+     * @return 
+     */
+    public ViewConsistency getViewConsistency() {
+        
+        return viewConsistency;
+    }
+
+    /**
+     * To set the consistency of the view queries of this graph
+     * 
+     * @param viewConsistency 
+     */
+    public void setViewConsistency(ViewConsistency viewConsistency) {
+        
+        this.viewConsistency = viewConsistency;
+    }
+    
+    /**
+     * Checks if the creation of vertices and edges is buffered
+     * 
+     * @return 
+     */
+    public boolean isBuffered() {
+        
+        return buffered;
+    }
+    
+    /**
+     * To enable or disable the buffering of vertex and edge creations. The
+     * buffer of the current thread is flushed if the buffering is disabled.
+     * 
+     * @param buffered 
+     */
+    public void setBuffered(boolean buffered) {
+        
+        if (!buffered) commit();
+        
+        this.buffered = buffered;
     }
     
+    /**
+     * To write the buffered vertices and edges of the current thread
+     * 
+     * @throws WriteBufferException If some elements could not be written,
+     * they are kept in the buffer and the commit can be retried
+     */
+    public void commit() {
+        
+        buffers.get().flush();
+    }
+    
+    /**
+     * To discard the buffered vertices and edges of the current thread those
+     * were not yet written
+     */
+    public void rollback() {
+        
+        buffers.get().clear();
+    }
     
     /**
      * To get the features of this Graph implementation
@@ -129,14 +226,16 @@ public class CBGraph implements Graph {
 
             GraphConfig cfg = ConfigManager.getGraphConfig();
             
+            //The additional documents of a buffered vertex
+            List<Document<?>> alDocs = new ArrayList<>();
+            
             //If the compression is enabled
             if (cfg.isCompressionEnabled()) {
                 
-                byte[] comprEdges = ZipHelper.compress(edges.toString());
-                
                 //And if the compressed edges list should be stored as serialized string
                 if (!cfg.isCompressedAsBinary()) {
                     
+                    byte[] comprEdges = ZipHelper.compress(edges.toString());
                     String comprEdgesStr = ZipHelper.comprBytesToString(comprEdges);
                     v.put(CBModel.PROP_EDGES, comprEdgesStr);
                 
@@ -144,10 +243,18 @@ public class CBGraph implements Graph {
                     
                     //Create an extra document for the adjacency list
                     String alKey = CBVertex.genAdjacencyListKey(id);
-                    BinaryDocument al = BinaryDocument.create(alKey, Unpooled.copiedBuffer(comprEdges));
-                    client.insert(al);
+                    BinaryDocument al = BinaryDocument.create(alKey, CBVertex.encodeAdjacencyList(id, edges));
                     v.put(CBModel.PROP_EDGES, alKey);
                     
+                    if (buffered) {
+                        
+                        alDocs.add(al);
+                    
+                    } else {
+                        
+                        client.insert(al);
+                    }
+                    
                 }
                 
             } else {
@@ -156,8 +263,18 @@ public class CBGraph implements Graph {
             }
             
 
+            if (buffered) {
+                
+                CBVertex pending = CBVertex.pending(id, v, edges, this);
+                buffers.get().addVertex(pending, alDocs);
+                
+                return pending;
+            }
+            
             JsonDocument doc = JsonDocument.create(CBVertex.genVertexKey(id), v);
-            client.insert(doc);
+            DocumentCache.put(client.insert(doc));
+            QueryBackendFactory.getBackend().registerKey(CBModel.VAL_TYPE_VERTEX, doc.id());
+            ViewManager.markDirty();
             
             result = new CBVertex(id, this);
 
@@ -182,6 +299,13 @@ public class CBGraph implements Graph {
         
         Vertex result = null;
         
+        if (buffered) {
+            
+            result = buffers.get().getVertex(CBVertex.genVertexKey(id));
+            
+            if (result != null) return result;
+        }
+        
         try
         {
             result = new CBVertex(id, this);
@@ -213,16 +337,7 @@ public class CBGraph implements Graph {
     @Override
     public Iterable<Vertex> getVertices() {
         
-        try {
-            
-            return CBVertex.queryAllVertices(this);
-            
-        } catch (DocNotFoundException ex) {
-            
-            LOG.log(Level.SEVERE, "Could not get all vertices: {0}", ex.getMessage());
-        }
-        
-        return null;
+        return CBVertex.queryAllVertices(this, viewConsistency);
     }
 
     /**
@@ -234,9 +349,23 @@ public class CBGraph implements Graph {
     @Override
     public Iterable<Vertex> getVertices(String key, Object value) {
      
+        return getVertices(key, value, viewConsistency);
+    }
+    
+    /**
+     * To get all vertices those have a specific key-value property by using 
+     * the given view consistency
+     * 
+     * @param key
+     * @param value
+     * @param consistency
+     * @return 
+     */
+    public Iterable<Vertex> getVertices(String key, Object value, ViewConsistency consistency) {
+     
         try
         {
-           return CBVertex.queryByVertexProp(key, value.toString(), this);
+           return CBVertex.queryByVertexProp(key, value, this, consistency);
         }
         catch (DocNotFoundException ex)
         {
@@ -251,6 +380,10 @@ public class CBGraph implements Graph {
      * 
      * Our implementation ignores the id of the edge because it is derived from
      * the id-s of the vertices
+     * 
+     * If sub-document operations are enabled and the adjacency lists are not
+     * compressed, then the edge key is appended in place to the adjacency
+     * lists, otherwise the vertices are fetched, modified and replaced.
      *
      * @param id
      * @param v1
@@ -261,6 +394,76 @@ public class CBGraph implements Graph {
     @Override
     public Edge addEdge(Object id, Vertex v1, Vertex v2, String label) {
 
+        GraphConfig cfg = ConfigManager.getGraphConfig();
+        
+        Edge result;
+        
+        if (buffered) {
+            
+            return addEdgeBuffered(id, v1, v2, label);
+        }
+        
+        if (cfg.isSubDocEnabled() && !cfg.isCompressionEnabled()) {
+            
+            result = addEdgeByAppend(id, v1, v2, label);
+            
+        } else {
+        
+            result = addEdgeByReplace(id, v1, v2, label);
+        }
+        
+        if (result != null) {
+            
+            QueryBackendFactory.getBackend().registerKey(CBModel.VAL_TYPE_EDGE, ((CBEdge) result).getCbKey());
+            
+            //Keep the label catalog up to date if it was already loaded
+            LabelCatalog.add(label);
+        }
+        
+        ViewManager.markDirty();
+        
+        return result;
+    }
+    
+    /**
+     * To add an edge to the write buffer of the current thread. The edge and
+     * the adjacency list updates are written on the next flush.
+     * 
+     * @param id
+     * @param v1
+     * @param v2
+     * @param label
+     * @return 
+     */
+    private Edge addEdgeBuffered(Object id, Vertex v1, Vertex v2, String label) {
+        
+        if (v1 == null || v2 == null) throw new IllegalArgumentException("The vertices of an edge must not be null");
+        
+        CBVertex v1CB = (CBVertex) v1;
+        CBVertex v2CB = (CBVertex) v2;
+        
+        String eKey = genEdgeKey(id, v1CB, v2CB, label);
+        
+        CBEdge edge = new CBEdge(eKey, createEdgeObj(v1CB, v2CB, label), this);
+        edge.pending = true;
+        
+        buffers.get().addEdge(edge, v1CB.getCbKey(), v2CB.getCbKey(), label);
+        
+        return edge;
+    }
+    
+    /**
+     * To add an edge by fetching both vertices and by replacing their whole 
+     * documents with the modified adjacency lists
+     * 
+     * @param id
+     * @param v1
+     * @param v2
+     * @param label
+     * @return 
+     */
+    Edge addEdgeByReplace(Object id, Vertex v1, Vertex v2, String label) {
+        
         Edge result = null;
 
         try {
@@ -273,19 +476,9 @@ public class CBGraph implements Graph {
             v2CB.refresh();
 
             //Create a new edge document
-            JsonObject edge = JsonObject.empty();
-            edge.put(CBModel.PROP_PROPS, JsonObject.empty());
-            edge.put(CBModel.PROP_TYPE, CBModel.VAL_TYPE_EDGE);
-            edge.put(CBModel.PROP_FROM, v1CB.getCbKey());
-            edge.put(CBModel.PROP_TO, v2CB.getCbKey());
-            edge.put(CBModel.PROP_LABEL, label);
-            
-            String eKey;
-                    
-            if (id == null)
-             eKey = CBEdge.genEdgeKey(v1CB.getId(),label, v2CB.getId());
-            else
-             eKey = CBModel.EDGE_PREFIX + id; 
+            JsonObject edge = createEdgeObj(v1CB, v2CB, label);
+            
+            String eKey = genEdgeKey(id, v1CB, v2CB, label);
             
             //Add the edege object
             client.insert(JsonDocument.create(eKey, edge));
@@ -296,18 +489,166 @@ public class CBGraph implements Graph {
             //Add the edge to the incoming adjacency list of the other vertex
             v2CB.addEdgeToAdjacencyList(label, eKey, Direction.IN);
             
-            if (id == null)
-                result = new CBEdge(eKey, this);
-            else
-                result = new CBEdge(eKey, this);
+            result = new CBEdge(eKey, this);
 
-        } catch (DocNotFoundException |ZipHelper.CompressionException  e) {
+        } catch (DocNotFoundException | ZipHelper.CompressionException | CASConflictException e) {
 
             LOG.severe(e.toString());
         }
 
         return result;
     }
+    
+    /**
+     * To add an edge by appending the edge key in place to the adjacency lists
+     * of the vertices. The existence of both vertices is checked first. Then
+     * the edge document is inserted and both adjacency lists are appended
+     * concurrently. If an append fails, then the already written changes are
+     * undone and the error is rethrown, so no orphan edge is left behind.
+     * 
+     * @param id
+     * @param v1
+     * @param v2
+     * @param label
+     * @return 
+     */
+    Edge addEdgeByAppend(Object id, Vertex v1, Vertex v2, String label) {
+        
+        //The vertices as Couchbase vertices
+        CBVertex v1CB = (CBVertex) v1;
+        CBVertex v2CB = (CBVertex) v2;
+        
+        //A self loop touches only one vertex
+        boolean selfLoop = v1CB.getCbKey().equals(v2CB.getCbKey());
+        
+        checkExists(selfLoop ? Arrays.asList(v1CB.getCbKey()) : Arrays.asList(v1CB.getCbKey(), v2CB.getCbKey()));
+        
+        JsonObject edge = createEdgeObj(v1CB, v2CB, label);
+        String eKey = genEdgeKey(id, v1CB, v2CB, label);
+        
+        //Fails with a DocumentAlreadyExistsException before anything else is written
+        client.insert(JsonDocument.create(eKey, edge));
+        
+        AtomicBoolean outAppended = new AtomicBoolean();
+        AtomicBoolean inAppended = new AtomicBoolean();
+        
+        Observable<Boolean> appendEdges;
+        
+        if (selfLoop) {
+            
+            appendEdges = v1CB.appendEdgeToAdjacencyList(label, eKey, Direction.BOTH).doOnNext(outAppended::set);
+        }
+        else {
+            
+            appendEdges = Observable.mergeDelayError(
+                    v1CB.appendEdgeToAdjacencyList(label, eKey, Direction.OUT).doOnNext(outAppended::set),
+                    v2CB.appendEdgeToAdjacencyList(label, eKey, Direction.IN).doOnNext(inAppended::set));
+        }
+        
+        try {
+            
+            appendEdges.toBlocking().lastOrDefault(null);
+            
+        } catch (RuntimeException e) {
+            
+            LOG.log(Level.SEVERE, "Could not add the edge {0}, undoing the written changes: {1}", new Object[]{eKey, e.toString()});
+            
+            if (outAppended.get()) undoAppend(v1CB, label, eKey, selfLoop ? Direction.BOTH : Direction.OUT);
+            if (inAppended.get()) undoAppend(v2CB, label, eKey, Direction.IN);
+            
+            try {
+                
+                client.remove(eKey);
+                
+            } catch (CouchbaseException re) {
+                
+                LOG.log(Level.SEVERE, "Could not remove the edge document {0}: {1}", new Object[]{eKey, re.toString()});
+            }
+            
+            throw e;
+        }
+        
+        //Keep the already fetched adjacency lists in sync
+        v1CB.addEdgeToInnerAdjacencyList(label, eKey, Direction.OUT);
+        v2CB.addEdgeToInnerAdjacencyList(label, eKey, Direction.IN);
+        
+        return new CBEdge(eKey, edge, this);
+    }
+    
+    /**
+     * To check concurrently that the documents of the given vertices exist
+     * 
+     * @param vKeys
+     * @throws DocumentDoesNotExistException
+     */
+    private void checkExists(List<String> vKeys) {
+        
+        List<String> missing = Observable.from(vKeys)
+                .concatMapEager(vKey -> client.async().exists(vKey).filter(exists -> !exists).map(exists -> vKey))
+                .toList()
+                .toBlocking()
+                .single();
+        
+        if (!missing.isEmpty()) throw new DocumentDoesNotExistException("The vertices " + missing + " do not exist");
+    }
+    
+    /**
+     * To remove an edge key which was appended to an adjacency list
+     * 
+     * @param vertex
+     * @param label
+     * @param eKey
+     * @param drctn 
+     */
+    private void undoAppend(CBVertex vertex, String label, String eKey, Direction drctn) {
+        
+        try {
+            
+            vertex.removeEdgeFromAdjacencyList(label, eKey, drctn);
+            
+        } catch (ZipHelper.CompressionException | CASConflictException | CouchbaseException e) {
+            
+            LOG.log(Level.SEVERE, "Could not remove the edge {0} from the adjacency list of {1}: {2}", new Object[]{eKey, vertex.getCbKey(), e.toString()});
+        }
+    }
+    
+    /**
+     * To create the JSON object of a new edge
+     * 
+     * @param v1CB
+     * @param v2CB
+     * @param label
+     * @return 
+     */
+    private JsonObject createEdgeObj(CBVertex v1CB, CBVertex v2CB, String label) {
+        
+        JsonObject edge = JsonObject.empty();
+        edge.put(CBModel.PROP_PROPS, JsonObject.empty());
+        edge.put(CBModel.PROP_TYPE, CBModel.VAL_TYPE_EDGE);
+        edge.put(CBModel.PROP_FROM, v1CB.getCbKey());
+        edge.put(CBModel.PROP_TO, v2CB.getCbKey());
+        edge.put(CBModel.PROP_LABEL, label);
+        
+        return edge;
+    }
+    
+    /**
+     * To generate the key of a new edge, either by using the given id or by
+     * deriving it from the id-s of the vertices
+     * 
+     * @param id
+     * @param v1CB
+     * @param v2CB
+     * @param label
+     * @return 
+     */
+    private String genEdgeKey(Object id, CBVertex v1CB, CBVertex v2CB, String label) {
+        
+        if (id == null)
+            return CBEdge.genEdgeKey(v1CB.getId(), label, v2CB.getId());
+        else
+            return CBModel.EDGE_PREFIX + id;
+    }
 
     /**
      * To get an edge by it's id, otherwise return null
@@ -322,6 +663,13 @@ public class CBGraph implements Graph {
         //TODO: This may cause a null pointer exception and should be tested
         String eKey = CBModel.EDGE_PREFIX + id.toString();
        
+        if (buffered) {
+            
+            result = buffers.get().getEdge(eKey);
+            
+            if (result != null) return result;
+        }
+        
         try {
             
             result = new CBEdge(eKey, this);
@@ -354,16 +702,59 @@ public class CBGraph implements Graph {
     @Override
     public Iterable<Edge> getEdges() {
         
-        try
-        {
-            return CBEdge.queryAllEdges(this);
-        }
-        catch (DocNotFoundException ex)
-        {
-            LOG.log(Level.SEVERE, "Could not get the edges: {0}", ex.getMessage());
-        }
+        return CBEdge.queryAllEdges(this, viewConsistency);
+    }
+    
+    /**
+     * To pass all vertices to the callback by scanning the configured number
+     * of partitions in parallel
+     * 
+     * @param callback Is called concurrently
+     * @return The number of vertices
+     */
+    public long scanVertices(Consumer<? super Vertex> callback) {
         
-        return null;
+        return scanVertices(ConfigManager.getGraphConfig().getScanPartitions(), null, callback);
+    }
+    
+    /**
+     * To pass all vertices to the callback by scanning the partitions in
+     * parallel, see PartitionedScan
+     * 
+     * @param partitions
+     * @param executor The executor of the workers, or null to use one thread per partition
+     * @param callback Is called concurrently
+     * @return The number of vertices
+     */
+    public long scanVertices(int partitions, Executor executor, Consumer<? super Vertex> callback) {
+        
+        return PartitionedScan.scan(CBModel.VAL_TYPE_VERTEX, partitions, doc -> (Vertex) new CBVertex(doc, this), executor, callback, viewConsistency);
+    }
+    
+    /**
+     * To pass all edges to the callback by scanning the configured number
+     * of partitions in parallel
+     * 
+     * @param callback Is called concurrently
+     * @return The number of edges
+     */
+    public long scanEdges(Consumer<? super Edge> callback) {
+        
+        return scanEdges(ConfigManager.getGraphConfig().getScanPartitions(), null, callback);
+    }
+    
+    /**
+     * To pass all edges to the callback by scanning the partitions in
+     * parallel, see PartitionedScan
+     * 
+     * @param partitions
+     * @param executor The executor of the workers, or null to use one thread per partition
+     * @param callback Is called concurrently
+     * @return The number of edges
+     */
+    public long scanEdges(int partitions, Executor executor, Consumer<? super Edge> callback) {
+        
+        return PartitionedScan.scan(CBModel.VAL_TYPE_EDGE, partitions, doc -> (Edge) new CBEdge(doc.id(), doc.content(), this), executor, callback, viewConsistency);
     }
 
     /**
@@ -376,10 +767,23 @@ public class CBGraph implements Graph {
     @Override
     public Iterable<Edge> getEdges(String key, Object value) {
         
+        return getEdges(key, value, viewConsistency);
+    }
+    
+    /**
+     * To get all edges those have a specific key-value property by using 
+     * the given view consistency
+     * 
+     * @param key
+     * @param value
+     * @param consistency
+     * @return 
+     */
+    public Iterable<Edge> getEdges(String key, Object value, ViewConsistency consistency) {
         
         try {
             
-            return CBEdge.queryByEdgeProp(key, value.toString(), this);
+            return CBEdge.queryByEdgeProp(key, value, this, consistency);
          
         } catch (DocNotFoundException ex) {
             
@@ -390,14 +794,58 @@ public class CBGraph implements Graph {
     }
 
     /**
-     * Not yet implemented
+     * A graph query which uses the property views
      * 
      * @return 
      */
     @Override
     public GraphQuery query() {
         
-        return new DefaultGraphQuery(this);
+        return new CBGraphQuery(this);
+    }
+
+    /**
+     * To create a key index. A dedicated view is created for the key, so only
+     * the indexed keys can be looked up via an index if the property index
+     * mode is 'keys'.
+     * 
+     * The parameters are ignored.
+     * 
+     * @param <T>
+     * @param key
+     * @param elementClass
+     * @param indexParameters 
+     */
+    @Override
+    public <T extends Element> void createKeyIndex(String key, Class<T> elementClass, Parameter... indexParameters) {
+        
+        KeyIndexManager.createKeyIndex(key, elementClass);
+    }
+
+    /**
+     * To drop a key index
+     * 
+     * @param <T>
+     * @param key
+     * @param elementClass 
+     */
+    @Override
+    public <T extends Element> void dropKeyIndex(String key, Class<T> elementClass) {
+        
+        KeyIndexManager.dropKeyIndex(key, elementClass);
+    }
+
+    /**
+     * To get the keys those are indexed
+     * 
+     * @param <T>
+     * @param elementClass
+     * @return 
+     */
+    @Override
+    public <T extends Element> Set<String> getIndexedKeys(Class<T> elementClass) {
+        
+        return KeyIndexManager.getIndexedKeys(elementClass);
     }
 
     /**
@@ -406,6 +854,7 @@ public class CBGraph implements Graph {
     @Override
     public void shutdown() {
       
+        commit();
         this.closed = true;
     }
 
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph;
+
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.graph.cache.DocumentCache;
+import com.couchbase.graph.query.QueryBackend;
+import com.couchbase.graph.query.QueryBackendFactory;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.DefaultGraphQuery;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import rx.Observable;
+
+/**
+ * A graph query which uses the indices of the query backend
+ *
+ * Each has-condition with an indexed key is translated into a lookup via the
+ * query backend. The ids of multiple conditions are intersected. The remaining
+ * candidates are fetched and filtered by all conditions until the limit is
+ * reached.
+ *
+ * If no condition can use an index, then the whole graph is scanned.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CBGraphQuery extends DefaultGraphQuery {
+
+    /**
+     * The min. number of candidates those are fetched at once
+     */
+    private static final int MIN_BATCH_SIZE = 100;
+
+
+    /**
+     * The constructor
+     *
+     * @param graph
+     */
+    public CBGraphQuery(CBGraph graph) {
+
+        super(graph);
+    }
+
+    @Override
+    public Iterable<Vertex> vertices() {
+
+        Set<String> ids = lookup(CBModel.VAL_TYPE_VERTEX);
+
+        if (ids == null) return super.vertices();
+
+        return fetch(ids, doc -> (Vertex) new CBVertex(doc, graph));
+    }
+
+    @Override
+    public Iterable<Edge> edges() {
+
+        Set<String> ids = lookup(CBModel.VAL_TYPE_EDGE);
+
+        if (ids == null) return super.edges();
+
+        return fetch(ids, doc -> (Edge) new CBEdge(doc.id(), doc.content(), graph));
+    }
+
+    /**
+     * To look the candidates up via the indices of the query backend
+     *
+     * @param type
+     * @return The ids of the candidates, or null if no condition can use an index
+     */
+    private Set<String> lookup(String type) {
+
+        QueryBackend backend = QueryBackendFactory.getBackend();
+
+        //The limit can only be pushed down if there is no other condition
+        int indexLimit = hasContainers.size() == 1 ? limit : Integer.MAX_VALUE;
+
+        Set<String> result = null;
+
+        for (HasContainer hasContainer : hasContainers) {
+
+            Set<String> ids = backend.queryIds(type, hasContainer.key, hasContainer.predicate, hasContainer.value, indexLimit, ((CBGraph) graph).getViewConsistency());
+
+            if (ids == null) continue;
+
+            if (result == null) result = ids;
+            else result.retainAll(ids);
+        }
+
+        return result;
+    }
+
+    /**
+     * To fetch the candidates batch by batch and to filter them until the
+     * limit is reached
+     *
+     * @param <T>
+     * @param ids
+     * @param mapper
+     * @return
+     */
+    private <T extends Element> List<T> fetch(Set<String> ids, Function<JsonDocument, T> mapper) {
+
+        List<T> result = new ArrayList<>();
+        List<String> keys = new ArrayList<>(ids);
+
+        int from = 0;
+
+        while (from < keys.size() && result.size() < limit) {
+
+            int batchSize = Math.max(limit - result.size(), MIN_BATCH_SIZE);
+            int to = from + Math.min(batchSize, keys.size() - from);
+
+            List<JsonDocument> docs = Observable.from(keys.subList(from, to))
+                    .concatMapEager(key -> DocumentCache.getAsync(key))
+                    .toList()
+                    .toBlocking()
+                    .single();
+
+            for (JsonDocument doc : docs) {
+
+                T element = mapper.apply(doc);
+
+                if (result.size() < limit && isLegal(element)) result.add(element);
+            }
+
+            from = to;
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks if an element matches all has-conditions
+     *
+     * @param e
+     * @return
+     */
+    private boolean isLegal(Element e) {
+
+        for (HasContainer hasContainer : hasContainers) {
+
+            if (!hasContainer.isLegal(e)) return false;
+        }
+
+        return true;
+    }
+}
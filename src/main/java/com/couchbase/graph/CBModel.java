@@ -28,6 +28,9 @@ public interface CBModel {
     public static final String EDGE_PREFIX = "e_";
     public static final String AL_PREFIX = "al_";
     public static final String AL_KEY = AL_PREFIX + "{1}";
+    public static final String AL_LABEL_KEY = AL_PREFIX + "{1}_{2}_{3}";
+    public static final String AL_SHARD_KEY = AL_LABEL_KEY + "_{4}";
+    public static final String LOOKUP_KEY = "lookup_{1}_{2}";
     public static final String VERTEX_KEY = VERTEX_PREFIX + "{1}";
     public static final String EDGE_DELIM = "->";
     public static final String EDGE_LABEL_DELIM = "|";
@@ -44,12 +47,20 @@ public interface CBModel {
     public static final String PROP_EDGES_IN = "in";
     public static final String PROP_FROM = "from";
     public static final String PROP_TO = "to";
+    public static final String PROP_COUNT = "count";
+    public static final String PROP_KEYS = "keys";
     
     //Counters
     public static final String VERTEX_COUNTER_KEY = "vertex_counter";
     
+    //Registries
+    public static final String KEY_INDICES_KEY = "key_indices";
+    
     //Values
     public static final String VAL_TYPE_EDGE = "edge";
     public static final String VAL_TYPE_VERTEX = "vertex";
+    public static final String VAL_TYPE_ADJACENCY = "adjacency";
+    public static final String VAL_TYPE_KEY_INDICES = "key_indices";
+    public static final String VAL_TYPE_LOOKUP = "lookup";
     
 }
@@ -16,6 +16,7 @@
 
 package com.couchbase.graph;
 
+import com.couchbase.client.core.message.ResponseStatus;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
 import com.couchbase.client.deps.io.netty.buffer.Unpooled;
 import com.couchbase.client.java.document.BinaryDocument;
@@ -23,34 +24,50 @@ import static com.couchbase.graph.views.ViewManager.*;
 import com.couchbase.client.java.document.JsonDocument;
 import com.couchbase.client.java.document.json.JsonArray;
 import com.couchbase.client.java.document.json.JsonObject;
-import com.couchbase.client.java.view.ViewResult;
-import com.couchbase.client.java.view.ViewRow;
+import com.couchbase.client.java.error.CASMismatchException;
+import com.couchbase.client.java.error.subdoc.MultiMutationException;
+import com.couchbase.client.java.error.subdoc.PathExistsException;
+import com.couchbase.client.java.subdoc.AsyncMutateInBuilder;
+import com.couchbase.client.java.subdoc.MutateInBuilder;
+import com.couchbase.graph.cache.DocumentCache;
 import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.codec.AdjacencyLog;
+import com.couchbase.graph.codec.BinaryAdjacencyList;
+import com.couchbase.graph.cfg.CouchbaseConfig.ViewConsistency;
 import com.couchbase.graph.cfg.GraphConfig;
+import com.couchbase.graph.error.CASConflictException;
 import com.couchbase.graph.error.DocNotFoundException;
 import com.couchbase.graph.error.IdGenException;
-import com.couchbase.graph.helper.CollectionHelper;
+import com.couchbase.graph.helper.BackoffHelper;
+import com.couchbase.graph.id.IdAllocator;
 import com.couchbase.graph.helper.JSONHelper;
 import com.couchbase.graph.helper.ZipHelper;
+import com.couchbase.graph.stats.CASStats;
+import com.couchbase.graph.query.QueryBackendFactory;
 import com.couchbase.graph.views.ViewManager;
+import com.tinkerpop.blueprints.Compare;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Graph;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.PropertyFilteredIterable;
 import com.tinkerpop.blueprints.VertexQuery;
-import com.tinkerpop.blueprints.util.DefaultVertexQuery;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.event.ListSelectionEvent;
 import org.apache.commons.lang.time.StopWatch;
 import rx.Observable;
+import rx.schedulers.Schedulers;
 
 /**
  * The implementation of an Vertex
@@ -84,10 +101,38 @@ public final class CBVertex extends CBElement implements Vertex {
      */
     private JsonObject innerIncomingEdges;
     
-     /**
-     * The inner counter which is used for key generations
+    /**
+     * The CAS value of the externalized adjacency list
+     */
+    private long innerAlCas;
+    
+    /**
+     * Checks if the externalized adjacency list was framed, so that deltas
+     * can be appended
+     */
+    private boolean innerAlFramed;
+    
+    /**
+     * The number of deltas those were appended to the externalized adjacency
+     * list since the last compaction
+     */
+    private int innerAlDeltas;
+    
+    /**
+     * The sharded adjacency lists, only used if sharding is enabled
+     */
+    private final ShardedAdjacencyList shards = new ShardedAdjacencyList(this);
+    
+    /**
+     * The max. number of operations of a sub-document request
+     */
+    private static final int MAX_SUBDOC_SPECS = 16;
+    
+    /**
+     * The allocator of the generated vertex ids
      */
-    private static long innerIdCounter = -1;
+    private static final IdAllocator idAllocator = new IdAllocator(client, CBModel.VERTEX_COUNTER_KEY, 
+            ConfigManager.getGraphConfig().getIdBlockSize(), ConfigManager.getGraphConfig().getIdStripes());
     
     
     /**
@@ -116,6 +161,91 @@ public final class CBVertex extends CBElement implements Vertex {
         this.refresh();
     }
     
+    /**
+     * The constructor which does not fetch the vertex. The document is
+     * fetched on the first access to the properties or adjacency lists.
+     * 
+     * @param id
+     * @param key
+     * @param graph 
+     */
+    private CBVertex(Object id, String key, Graph graph)
+    {
+        super(id, graph);
+        this.cbKey = key;
+    }
+    
+    /**
+     * The constructor which takes an already fetched document, so without
+     * accessing the vertex document again
+     * 
+     * @param doc
+     * @param graph 
+     */
+    public CBVertex(JsonDocument doc, Graph graph)
+    {
+        super(parseVertexKey(doc.id()), graph);
+        this.cbKey = doc.id();
+        this.innerObj = doc.content();
+        this.innerProps = innerObj.getObject(CBModel.PROP_PROPS);
+        this.innerCas = doc.cas();
+        this.initEdges();
+    }
+    
+    /**
+     * To get a vertex by its key without fetching it. The document is
+     * fetched on the first access.
+     * 
+     * @param key
+     * @param graph
+     * @return 
+     */
+    static CBVertex lazy(String key, Graph graph)
+    {
+        return new CBVertex(parseVertexKey(key), key, graph);
+    }
+    
+    /**
+     * To create a vertex which was buffered and is not yet written to the
+     * database
+     * 
+     * @param id
+     * @param content
+     * @param edges The uncompressed adjacency lists
+     * @param graph
+     * @return 
+     */
+    static CBVertex pending(Object id, JsonObject content, JsonObject edges, Graph graph)
+    {
+        CBVertex result = new CBVertex(id, genVertexKey(id), graph);
+        
+        result.pending = true;
+        result.innerObj = content;
+        result.innerProps = content.getObject(CBModel.PROP_PROPS);
+        result.innerEdges = edges;
+        result.innerOutgoingEdges = edges.getObject(CBModel.PROP_EDGES_OUT);
+        result.innerIncomingEdges = edges.getObject(CBModel.PROP_EDGES_IN);
+        
+        return result;
+    }
+    
+    /**
+     * To get a vertex by its key. If the adjacency mode is 'label', then
+     * the vertex is returned without fetching it.
+     * 
+     * @param key
+     * @param graph
+     * @return
+     * @throws DocNotFoundException 
+     */
+    static CBVertex fromKey(String key, Graph graph) throws DocNotFoundException
+    {
+        if (ConfigManager.getGraphConfig().getAdjacencyMode() == GraphConfig.AdjacencyMode.LABEL)
+            return new CBVertex(parseVertexKey(key), key, graph);
+        
+        return new CBVertex(key, graph);
+    }
+    
     
     /**
      * The edges are nested in order to access them directly via the labels
@@ -143,67 +273,138 @@ public final class CBVertex extends CBElement implements Vertex {
         //The result as List        
         List<Edge> result = new ArrayList<>();
        
-        //If no label is given then get the edges for all labels
-        if (labels.length == 0) labels = CBEdge.queryAllEdgeLabels().toArray(new String[]{});
-        
         try
         { 
-            this.refresh();
-
-            for (String label : labels) {
+            result = edgesFromKeys(fetchEdgeKeys(drctn, labels));
+        }
+        catch (DocNotFoundException e)
+        {
+            LOG.severe(e.toString());
+        }
+        
+        return result;
+    }
+    
+    /**
+     * To get the keys of the edges with the given labels. If no label is given,
+     * then the keys of the edges of all labels of this vertex are returned.
+     * The vertex is fetched if required.
+     * 
+     * @param drctn
+     * @param labels
+     * @return
+     * @throws DocNotFoundException 
+     */
+    List<String> fetchEdgeKeys(Direction drctn, String... labels) throws DocNotFoundException
+    {
+        //If no label is given then get the edges for all labels of this vertex
+        if (labels.length == 0) {
 
-                if (drctn.equals(Direction.IN) || drctn.equals(Direction.BOTH)) {
-                    
-                    JsonArray labeledInEdges = innerIncomingEdges.getArray(label);
+            this.refresh();
 
-                    result.addAll(edgesFromJsonArr(result, labeledInEdges, graph));
-                }
+            return getAllEdgeKeys(drctn);
+        }
 
-                if (drctn.equals(Direction.OUT) || drctn.equals(Direction.BOTH)) {
-                    JsonArray labeledOutEdges = innerOutgoingEdges.getArray(label);
+        //The per label adjacency lists can be accessed without the vertex
+        if (!isPerLabel()) this.refresh();
+        
+        return getEdgeKeys(drctn, labels);
+    }
+    
+    /**
+     * To get the keys of the edges with the given labels. The vertex needs to
+     * be fetched before.
+     * 
+     * @param drctn
+     * @param labels
+     * @return 
+     */
+    List<String> getEdgeKeys(Direction drctn, String... labels)
+    {
+        if (isSharded()) return shards.getEdgeKeys(drctn, labels);
+        
+        List<String> result = new ArrayList<>();
+        
+        for (String label : labels) {
 
-                    result.addAll(edgesFromJsonArr(result, labeledOutEdges, graph));
-                }
+            if (drctn.equals(Direction.IN) || drctn.equals(Direction.BOTH)) {
 
+                addEdgeKeys(result, innerIncomingEdges.getArray(label));
             }
 
+            if (drctn.equals(Direction.OUT) || drctn.equals(Direction.BOTH)) {
+                
+                addEdgeKeys(result, innerOutgoingEdges.getArray(label));
+            }
         }
-        catch (DocNotFoundException e)
-        {
-            LOG.severe(e.toString());
+        
+        return result;
+    }
+    
+    /**
+     * To get the keys of the edges of all labels which are used by this
+     * vertex. The vertex needs to be fetched before, it is not refreshed.
+     * 
+     * @param drctn
+     * @return 
+     */
+    public List<String> getAllEdgeKeys(Direction drctn)
+    {
+        List<String> result = new ArrayList<>();
+        
+        if (drctn.equals(Direction.IN) || drctn.equals(Direction.BOTH)) {
+            
+            result.addAll(getEdgeKeys(Direction.IN, innerIncomingEdges.getNames().toArray(new String[]{})));
+        }
+        
+        if (drctn.equals(Direction.OUT) || drctn.equals(Direction.BOTH)) {
+            
+            result.addAll(getEdgeKeys(Direction.OUT, innerOutgoingEdges.getNames().toArray(new String[]{})));
         }
         
         return result;
     }
     
     /**
-     * Iterate over an edge array by returning a list of edges
+     * Adds the keys of an edge array to the result
+     * 
      * @param result
-     * @param edgeArr
-     * @param graph
+     * @param edgeArr 
+     */
+    private static void addEdgeKeys(List<String> result, JsonArray edgeArr)
+    {
+        if (edgeArr == null) return;
+        
+        for (Object key : edgeArr) {
+            
+            result.add(key.toString());
+        }
+    }
+    
+    /**
+     * Fetches the edges by their keys
+     * 
+     * @param edgeKeys
      * @return
-     * @throws DocNotFoundException 
      */
-    private List<Edge> edgesFromJsonArr(List<Edge> result, JsonArray edgeArr, Graph graph) throws DocNotFoundException
+    List<Edge> edgesFromKeys(List<String> edgeKeys)
     {
         StopWatch sw = new StopWatch();
         sw.start();
-                
-         if (edgeArr != null )
-         {
-             //Multi-get instead of multiple gets
-             Iterator<Edge>  it = Observable.from(edgeArr.toList())
-                    .flatMap(key -> client.async().get(key.toString()))
-                    .map(doc -> CBEdge.fromJson(doc.content(), graph)).toBlocking().getIterator();
-            
-             return CollectionHelper.copyIterator(it);
-         }
         
-         sw.stop();
+        //Multi-get instead of multiple gets
+        List<Edge> result = Observable.from(edgeKeys)
+                .flatMap(key -> DocumentCache.getAsync(key))
+                .map(doc -> (Edge) new CBEdge(doc.id(), doc.content(), graph))
+                .toList()
+                .toBlocking()
+                .single();
+        
+        sw.stop();
          
-         LOG.log(Level.FINEST, "Time to get edges: {0}", sw.getTime());
+        LOG.log(Level.FINEST, "Time to get edges: {0}", sw.getTime());
          
-         return result;
+        return result;
     }
     
     
@@ -214,212 +415,608 @@ public final class CBVertex extends CBElement implements Vertex {
         try {
             
             refresh();
+            
+            result = edgesFromKeys(getAllEdgeKeys(Direction.BOTH));
 
-            Set<String> labels = innerIncomingEdges.getNames();
+        } catch (DocNotFoundException ex) {
+            LOG.severe(ex.toString());
+        }
+        
+        return result;
+    }
+    
+    /**
+     * To get the already fetched adjacency list (or manifest if sharded) of
+     * one direction
+     * 
+     * @param drctn Either IN or OUT
+     * @return The adjacency list or null if the vertex was not yet fetched
+     */
+    JsonObject getInnerAdjacencyList(Direction drctn)
+    {
+        return drctn.equals(Direction.IN) ? innerIncomingEdges : innerOutgoingEdges;
+    }
+    
+    /**
+     * Checks if the adjacency lists are stored outside of the vertex, either
+     * sharded or per label
+     * 
+     * @return 
+     */
+    private boolean isSharded() {
+        
+        return cfg.getAdjacencyMode() != GraphConfig.AdjacencyMode.EMBEDDED;
+    }
+    
+    /**
+     * Checks if there is one adjacency list document per direction and label
+     * 
+     * @return 
+     */
+    private boolean isPerLabel() {
+        
+        return cfg.getAdjacencyMode() == GraphConfig.AdjacencyMode.LABEL;
+    }
+
+    /**
+     * Get the adjacent vertices of this vertex
+     * 
+     * The ids of the adjacent vertices are derived from the edge keys, so
+     * the edges are only fetched if they have a custom id. The vertices
+     * are then fetched via one multi-get.
+     * 
+     * @param drctn
+     * @param labels
+     * @return 
+     */
+    @Override
+    public Iterable<Vertex> getVertices(Direction drctn, String... labels) {
+        
+        List<Vertex> result = new ArrayList<>();
+        
+        try {
             
-            for (String label : labels) {
-             
-                JsonArray edgeArray = innerIncomingEdges.getArray(label);
+            result = verticesFromKeys(neighborKeysFromEdgeKeys(drctn, fetchEdgeKeys(drctn, labels)));
+            
+        } catch (DocNotFoundException e) {
+            LOG.severe(e.toString());
+        }
+        
+        return result;
+    }
+    
+    /**
+     * To get the keys of the adjacent vertices by the keys of the edges
+     * 
+     * @param drctn
+     * @param edgeKeys
+     * @return 
+     */
+    List<String> neighborKeysFromEdgeKeys(Direction drctn, List<String> edgeKeys)
+    {
+        return Observable.from(edgeKeys)
+                .flatMap(key -> {
+                    
+                    String[] parsed = CBEdge.parseEdgeKey(key);
+                    
+                    //Custom edge ids don't contain the vertex ids
+                    if (parsed[2] == null) {
+                        
+                        return DocumentCache.getAsync(key).map(doc -> neighborKey(drctn, 
+                                doc.content().getString(CBModel.PROP_FROM), 
+                                doc.content().getString(CBModel.PROP_TO)));
+                    }
+                    
+                    return Observable.just(neighborKey(drctn, genVertexKey(parsed[2]), genVertexKey(parsed[4])));
+                })
+                .toList()
+                .toBlocking()
+                .single();
+    }
+    
+    /**
+     * To determine the key of the adjacent vertex of an edge
+     * 
+     * Head = In
+     * Tail = OUT
+     * 
+     * @param drctn
+     * @param fromKey
+     * @param toKey
+     * @return 
+     */
+    private String neighborKey(Direction drctn, String fromKey, String toKey)
+    {
+        if (drctn.equals(Direction.OUT)) return toKey;
+        
+        if (drctn.equals(Direction.IN)) return fromKey;
+        
+        //All edges those are connected to this node, to determine the connected
+        //vertex, we have to ignore the original vertex with the exception
+        //that there is a self loop
+        return toKey.equals(cbKey) ? fromKey : toKey;
+    }
+    
+    /**
+     * Fetches the vertices by their keys. Each vertex is only fetched once, 
+     * and this vertex is not fetched at all.
+     * 
+     * @param vertexKeys
+     * @return 
+     * @throws DocNotFoundException 
+     */
+    List<Vertex> verticesFromKeys(List<String> vertexKeys) throws DocNotFoundException
+    {
+        List<Vertex> result = new ArrayList<>();
+        
+        StopWatch sw = new StopWatch();
+        sw.start();
+        
+        Map<String, Vertex> fetched = new HashMap<>();
+        
+        if (isPerLabel()) {
+            
+            for (String key : new HashSet<>(vertexKeys)) {
+                
+                fetched.put(key, fromKey(key, graph));
+            }
+            
+        } else {
+            
+            //Multi-get instead of multiple gets
+            fetched = Observable.from(new HashSet<>(vertexKeys))
+                .filter(key -> !key.equals(cbKey))
+                .flatMap(key -> DocumentCache.getAsync(key))
+                .toMap(doc -> doc.id(), doc -> (Vertex) new CBVertex(doc, graph))
+                .toBlocking()
+                .single();
+        }
+        
+        for (String key : vertexKeys) {
+            
+            Vertex v = key.equals(cbKey) ? this : fetched.get(key);
+            
+            if (v != null) result.add(v);
+        }
+        
+        sw.stop();
+        
+        LOG.log(Level.FINEST, "Time to get vertices: {0}", sw.getTime());
+        
+        return result;
+    }
+
+    public Direction invertDirection(Direction dir) {
+        
+        if (dir.equals(Direction.IN)) return Direction.OUT;
+        if (dir.equals(Direction.OUT)) return Direction.IN;
+        
+        return Direction.BOTH;
+    }
+    
+    
+    /**
+     * A vertex centric query which pushes the labels, the direction and the
+     * limit down to the adjacency list access
+     * 
+     * @return 
+     */
+    @Override
+    public VertexQuery query() {
+        
+        return new CBVertexQuery(this);
+    }
+
+    /**
+     * To add an edge to this vertex
+     * 
+     * @param label
+     * @param vertex
+     * @return 
+     */
+    @Override
+    public Edge addEdge(String label, Vertex vertex) {
+        
+        return graph.addEdge(null , this, vertex, label);
+    }
+        
+    /**
+     * To add an edge key to the vertex's adjacency list
+     * 
+     * @param label
+     * @param edgeKey
+     * @param drctn 
+     * @throws com.couchbase.graph.helper.ZipHelper.CompressionException 
+     * @throws com.couchbase.graph.error.CASConflictException 
+     */
+    public void addEdgeToAdjacencyList(String label, String edgeKey, Direction drctn) throws ZipHelper.CompressionException, CASConflictException
+    { 
+        if (isSharded()) {
+            
+            shards.append(label, edgeKey, drctn);
+            return;
+        }
+        
+        if (isAdjacencyLogEnabled()) {
+            
+            appendToAdjacencyLog(true, label, edgeKey, drctn);
+            return;
+        }
+        
+        updateAdjacencyList(() -> addEdgeToInnerAdjacencyList(label, edgeKey, drctn));
+    }
+    
+    /**
+     * To add multiple edge keys to the vertex's adjacency lists at once. The
+     * keys are sent with one sub-document request per 16 labeled adjacency
+     * lists if possible, otherwise the adjacency lists are replaced once.
+     * Sharded and log structured adjacency lists are appended key by key.
+     * 
+     * The written appends are removed from the list, so if an error is thrown
+     * the list only contains the appends those still need to be written.
+     * 
+     * @param appends
+     * @throws com.couchbase.graph.helper.ZipHelper.CompressionException
+     * @throws CASConflictException 
+     */
+    void addEdgesToAdjacencyList(List<WriteBuffer.Append> appends) throws ZipHelper.CompressionException, CASConflictException
+    {
+        if (isSharded() || isAdjacencyLogEnabled()) {
+            
+            for (Iterator<WriteBuffer.Append> it = appends.iterator(); it.hasNext();) {
                 
-                result = edgesFromJsonArr(result, edgeArray, graph);
+                WriteBuffer.Append a = it.next();
+                addEdgeToAdjacencyList(a.label, a.edgeKey, a.drctn);
+                it.remove();
+            }
+            
+            return;
+        }
+        
+        if (cfg.isSubDocEnabled() && !cfg.isCompressionEnabled()) {
+            
+            Map<String, List<String>> byPath = new LinkedHashMap<>();
+            
+            for (WriteBuffer.Append a : appends) {
                 
+                byPath.computeIfAbsent(genAdjacencyListPath(a.drctn, a.label), k -> new ArrayList<>()).add(a.edgeKey);
             }
             
+            List<String> paths = new ArrayList<>(byPath.keySet());
+            
+            try {
+                
+                for (int i = 0; i < paths.size(); i += MAX_SUBDOC_SPECS) {
+                    
+                    List<String> group = paths.subList(i, Math.min(i + MAX_SUBDOC_SPECS, paths.size()));
+                    
+                    MutateInBuilder builder = client.mutateIn(cbKey);
+                    
+                    for (String path : group) {
+                        
+                        builder = builder.arrayAppendAll(path, byPath.get(path), true);
+                    }
+                    
+                    builder.execute();
+                    
+                    //The group is written, so it must not be appended again
+                    for (Iterator<WriteBuffer.Append> it = appends.iterator(); it.hasNext();) {
+                        
+                        WriteBuffer.Append a = it.next();
+                        
+                        if (group.contains(genAdjacencyListPath(a.drctn, a.label))) {
+                            
+                            addEdgeToInnerAdjacencyList(a.label, a.edgeKey, a.drctn);
+                            it.remove();
+                        }
+                    }
+                }
+                
+            } finally {
+                
+                DocumentCache.invalidate(cbKey);
+            }
+            
+            return;
+        }
+        
+        updateAdjacencyList(() -> appends.forEach(a -> addEdgeToInnerAdjacencyList(a.label, a.edgeKey, a.drctn)));
+        appends.clear();
+    }
+
+    
+    /**
+     * To append an edge key in place to the vertex's adjacency list by using
+     * a sub-document operation. Only one request is sent for this vertex, also
+     * if the edge is a self loop (Direction.BOTH). The vertex document is
+     * neither fetched nor replaced.
+     * 
+     * This works only if the adjacency lists are stored uncompressed. Sharded
+     * adjacency lists are appended to the last shard.
+     * Appending an already existing edge key is not treated as an error.
+     * 
+     * @param label
+     * @param edgeKey
+     * @param drctn
+     * @return An observable which emits true if the edge key was appended
+     */
+    public Observable<Boolean> appendEdgeToAdjacencyList(String label, String edgeKey, Direction drctn)
+    {
+        if (isSharded()) {
+            
+            return Observable.defer(() -> Observable.just(shards.append(label, edgeKey, drctn))).subscribeOn(Schedulers.io());
+        }
+        
+        AsyncMutateInBuilder builder = client.async().mutateIn(cbKey);
+        
+        if (drctn.equals(Direction.OUT) || drctn.equals(Direction.BOTH)) {
+            
+            builder = builder.arrayAddUnique(genAdjacencyListPath(Direction.OUT, label), edgeKey, true);
+        }
+        
+        if (drctn.equals(Direction.IN) || drctn.equals(Direction.BOTH)) {
+            
+            builder = builder.arrayAddUnique(genAdjacencyListPath(Direction.IN, label), edgeKey, true);
+        }
+        
+        return builder.execute()
+                .map(frag -> true)
+                .onErrorResumeNext(e -> {
+
+                    //The edge key is already part of the adjacency list
+                    if (e instanceof PathExistsException
+                            || (e instanceof MultiMutationException
+                            && ((MultiMutationException) e).firstFailureStatus() == ResponseStatus.SUBDOC_PATH_EXISTS)) {
+
+                        return Observable.just(false);
+                    }
+
+                    return Observable.error(e);
+                })
+                .doOnTerminate(() -> DocumentCache.invalidate(cbKey));
+    }
+    
+    /**
+     * To add an edge key to the already fetched adjacency lists without
+     * writing them back to the database. This is used to keep the inner
+     * state in sync after the edge was appended in place.
+     * 
+     * @param label
+     * @param edgeKey
+     * @param drctn 
+     */
+    void addEdgeToInnerAdjacencyList(String label, String edgeKey, Direction drctn)
+    {
+        //The manifest of sharded adjacency lists is kept in sync on append
+        if (innerObj == null || isSharded()) return;
+        
+        if (drctn.equals(Direction.OUT) || drctn.equals(Direction.BOTH)) {
+            
+            addEdgeToInnerAdjacencyList(innerOutgoingEdges, label, edgeKey);
+        }
+
+        if (drctn.equals(Direction.IN) || drctn.equals(Direction.BOTH)) {
+            
+            addEdgeToInnerAdjacencyList(innerIncomingEdges, label, edgeKey);
+        }
+    }
+    
+    /**
+     * Adds the edge key to the labeled array of the given adjacency list
+     * 
+     * @param adjacencyList
+     * @param label
+     * @param edgeKey 
+     */
+    private static void addEdgeToInnerAdjacencyList(JsonObject adjacencyList, String label, String edgeKey)
+    {
+        JsonArray labeledEdges = adjacencyList.getArray(label);
+
+        if (labeledEdges == null) {
             
-            labels = innerOutgoingEdges.getNames();
+            labeledEdges = JsonArray.empty();
+            adjacencyList.put(label, labeledEdges);
+        }
+
+        if (!labeledEdges.toList().contains(edgeKey)) labeledEdges.add(edgeKey);
+    }
+    
+    /**
+     * To remove an edge from the vertexes adjacency list
+     * @param label
+     * @param edgeKey
+     * @param drctn 
+     * @throws com.couchbase.graph.helper.ZipHelper.CompressionException 
+     * @throws com.couchbase.graph.error.CASConflictException 
+     */
+    public void removeEdgeFromAdjacencyList(String label, String edgeKey, Direction drctn) throws ZipHelper.CompressionException, CASConflictException
+    {
+        if (isSharded()) {
             
-            for (String label : labels) {
-             
-                JsonArray edgeArray = innerOutgoingEdges.getArray(label);
-                
-                result = edgesFromJsonArr(result, edgeArray, graph);
-                
-            }
+            shards.remove(label, edgeKey, drctn);
+            return;
+        }
+        
+        if (isAdjacencyLogEnabled()) {
             
-
-        } catch (DocNotFoundException ex) {
-            LOG.severe(ex.toString());
+            appendToAdjacencyLog(false, label, edgeKey, drctn);
+            return;
         }
         
-        return result;
+        updateAdjacencyList(() -> removeEdgeFromInnerAdjacencyList(label, edgeKey, drctn));
     }
-
+    
     /**
-     * Get the adjacent vertices of this vertex
+     * To append a delta to the externalized adjacency list instead of
+     * rewriting it. The deltas are merged into the base segment (compaction)
+     * if their number reaches the configured threshold or if the adjacency
+     * list was not yet framed.
      * 
+     * @param add
+     * @param label
+     * @param edgeKey
      * @param drctn
-     * @param labels
-     * @return 
+     * @throws com.couchbase.graph.helper.ZipHelper.CompressionException
+     * @throws CASConflictException 
      */
-    @Override
-    public Iterable<Vertex> getVertices(Direction drctn, String... labels) {
-        
-        List<Vertex> result = new ArrayList<>();
+    private void appendToAdjacencyLog(boolean add, String label, String edgeKey, Direction drctn) throws ZipHelper.CompressionException, CASConflictException
+    {
+        Runnable modification = add ? () -> addEdgeToInnerAdjacencyList(label, edgeKey, drctn)
+                                    : () -> removeEdgeFromInnerAdjacencyList(label, edgeKey, drctn);
         
         try {
             
-            this.refresh();
-
-            //Head = In
-            //Tail = OUT
-            Iterable<Edge> edges = getEdges(drctn, labels);
+            refresh(false);
             
-            for (Edge e : edges) {
-                
-                if (drctn.equals(Direction.OUT) || drctn.equals(Direction.IN)) {
-                    
-                    result.add(e.getVertex(invertDirection(drctn)));
-                }
-
-                //All edges those are connected to this node, to determine the connected
-                //vertex, we have to ignore the original vertex with the exception
-                //that there is a self loop
-                if (drctn.equals(Direction.BOTH)) {
-                    Vertex v_in = e.getVertex(Direction.IN);
-                    Vertex v_out = e.getVertex(Direction.OUT);
-
-                    //Self loop
-                    if (v_in.getId().equals(this.id) && v_out.getId().equals(this.id)) {
-                        result.add(this);
-                    } else {
-                        
-                        //Incoming edge
-                        if (v_in.getId().equals(this.id)) {
-                            result.add(v_out);
-                        }
-
-                        //Outgoing edge
-                        if (v_out.getId().equals(this.id)) {
-                            result.add(v_in);
-                        }
-                    }
-                }                
-            }
         } catch (DocNotFoundException e) {
+            
             LOG.severe(e.toString());
+            return;
         }
         
-        return result;
-    }
-
-    public Direction invertDirection(Direction dir) {
+        if (!innerAlFramed || innerAlDeltas >= cfg.getAdjacencyLogThreshold()) {
+            
+            updateAdjacencyList(modification);
+            return;
+        }
         
-        if (dir.equals(Direction.IN)) return Direction.OUT;
-        if (dir.equals(Direction.OUT)) return Direction.IN;
+        BinaryDocument delta = BinaryDocument.create(genAdjacencyListKey(id), AdjacencyLog.delta(add, drctn, label, edgeKey));
+        innerAlCas = client.append(delta).cas();
+        innerAlDeltas++;
         
-        return Direction.BOTH;
+        modification.run();
     }
     
-    
     /**
-     * Not yet supported, because we ignore Indexing for now
+     * To remove an edge key from the already fetched adjacency lists without
+     * writing them back to the database
      * 
-     * @return 
+     * @param label
+     * @param edgeKey
+     * @param drctn 
      */
-    @Override
-    public VertexQuery query() {
-        
-        return new DefaultVertexQuery(this);
-    }
+    private void removeEdgeFromInnerAdjacencyList(String label, String edgeKey, Direction drctn)
+    {
+        if (drctn.equals(Direction.OUT) || drctn.equals(Direction.BOTH)) {
+            
+            removeEdgeFromInnerAdjacencyList(innerOutgoingEdges, label, edgeKey);
+        }
 
+        if (drctn.equals(Direction.IN) || drctn.equals(Direction.BOTH)) {
+            
+            removeEdgeFromInnerAdjacencyList(innerIncomingEdges, label, edgeKey);
+        }
+    }
+    
     /**
-     * To add an edge to this vertex
+     * Removes the edge key from the labeled array of the given adjacency list
      * 
+     * @param adjacencyList
      * @param label
-     * @param vertex
-     * @return 
+     * @param edgeKey 
      */
-    @Override
-    public Edge addEdge(String label, Vertex vertex) {
+    private static void removeEdgeFromInnerAdjacencyList(JsonObject adjacencyList, String label, String edgeKey)
+    {
+        JsonArray labeledEdges = adjacencyList.getArray(label);
         
-        return graph.addEdge(null , this, vertex, label);
-    }
+        if (labeledEdges == null) return;
         
+        labeledEdges = JSONHelper.remove(labeledEdges, edgeKey);
+
+        if (labeledEdges.size() != 0)
+            adjacencyList.put(label, labeledEdges);
+        else
+            adjacencyList.removeKey(label);
+    }
+    
     /**
-     * To add an edge key to the vertex's adjacency list
+     * To apply a modification to the adjacency lists and to write them back
+     * by using the CAS value of the fetched document. If the document was
+     * modified concurrently, then the adjacency lists are fetched again and
+     * the modification is applied again. The retries are bounded and are
+     * using an exponential backoff.
      * 
-     * @param label
-     * @param edgeKey
-     * @param drctn 
+     * @param modification
+     * @throws com.couchbase.graph.helper.ZipHelper.CompressionException
+     * @throws CASConflictException 
      */
-    public void addEdgeToAdjacencyList(String label, String edgeKey, Direction drctn) throws ZipHelper.CompressionException
-    { 
-        try {
-            refresh();
+    private void updateAdjacencyList(Runnable modification) throws ZipHelper.CompressionException, CASConflictException
+    {
+        int maxRetries = cfg.getCASRetries();
+        long backoff = cfg.getCASBackoff();
+        
+        boolean force = false;
+        
+        for (int attempt = 0; ; attempt++) {
+            
+            try {
+                
+                refresh(force);
+                
+                modification.run();
+                
+                JsonObject toReplace = compressEdges();
 
-            //TODO: This could be abit more beautiful, just a code duplication
-            if (drctn.equals(Direction.OUT) || drctn.equals(Direction.BOTH)) {
-                JsonArray labeldOutEdges = innerOutgoingEdges.getArray(label);
+                //The externalized adjacency list was already written
+                if (!isAdjacencyListExternalized()) {
+                    
+                    JsonDocument written = client.replace(JsonDocument.create(cbKey, toReplace, innerCas));
+                    innerCas = written.cas();
+                    DocumentCache.put(written);
+                }
+                
+                return;
+                
+            } catch (CASMismatchException e) {
                 
-                if (labeldOutEdges == null)
-                {
-                    labeldOutEdges = JsonArray.empty();
+                CASStats.conflict();
+                
+                if (attempt >= maxRetries) {
                     
-                    innerOutgoingEdges.put(label, labeldOutEdges);
+                    CASStats.failure();
+                    throw new CASConflictException(cbKey, attempt + 1, e);
                 }
                 
-                labeldOutEdges.add(edgeKey);
-            }
-
-            if (drctn.equals(Direction.IN) || drctn.equals(Direction.BOTH)) {
-                JsonArray labeledInEdges = innerIncomingEdges.getArray(label);
+                CASStats.retry();
                 
-                if (labeledInEdges  == null)
-                {
-                    labeledInEdges = JsonArray.empty();
+                try {
                     
-                    innerIncomingEdges.put(label, labeledInEdges);
+                    backoff = BackoffHelper.backoff(backoff, cfg.getCASMaxBackoff());
+                
+                } catch (InterruptedException ie) {
+                    
+                    Thread.currentThread().interrupt();
+                    throw new CASConflictException(cbKey, attempt + 1, ie);
                 }
                 
-                labeledInEdges.add(edgeKey);
+                force = true;
+                
+            } catch (DocNotFoundException e) {
+                
+                LOG.severe(e.toString());
+                return;
             }
-
-            JsonObject toReplace = compressEdges();
-            client.replace(JsonDocument.create(cbKey, toReplace));
-
-        } catch (DocNotFoundException e) {
-            
-            LOG.severe(e.toString());
         }
     }
     
     /**
-     * To remove an edge from the vertexes adjacency list
-     * @param label
-     * @param edgeKey
-     * @param drctn 
+     * Checks if the adjacency list is stored as a separated document
+     * 
+     * @return 
      */
-    public void removeEdgeFromAdjacencyList(String label, String edgeKey, Direction drctn) throws ZipHelper.CompressionException
-    {
-         try {
-            refresh();
-
-            if (drctn.equals(Direction.OUT) || drctn.equals(Direction.BOTH)) {
-                JsonArray labeldOutEdges = innerOutgoingEdges.getArray(label);
-                labeldOutEdges = JSONHelper.remove(labeldOutEdges, edgeKey);  
-                
-                if (labeldOutEdges.size() != 0)
-                    innerOutgoingEdges.put(label, labeldOutEdges);
-                else
-                    innerOutgoingEdges.removeKey(label);
-            }
-
-            if (drctn.equals(Direction.IN) || drctn.equals(Direction.BOTH)) {
-                JsonArray labeledInEdges = innerIncomingEdges.getArray(label);
-                labeledInEdges = JSONHelper.remove(labeledInEdges, edgeKey);
-                
-                if (labeledInEdges.size() != 0)
-                    innerIncomingEdges.put(label, labeledInEdges);
-                else
-                    innerIncomingEdges.removeKey(label);
-            }
-
-            JsonObject toReplace = compressEdges();
-            client.replace(JsonDocument.create(cbKey, toReplace));
-
-        } catch (DocNotFoundException e) {
-            LOG.severe(e.toString());
-        }
+    private boolean isAdjacencyListExternalized() {
+        
+        return cfg.isCompressionEnabled() && cfg.isCompressedAsBinary();
+    }
+    
+    /**
+     * Checks if deltas are appended to the externalized adjacency list
+     * 
+     * @return 
+     */
+    private boolean isAdjacencyLogEnabled() {
+        
+        return isAdjacencyListExternalized() && cfg.isAdjacencyLogEnabled();
     }
     
     /**
@@ -436,24 +1033,53 @@ public final class CBVertex extends CBElement implements Vertex {
 
         if (cfg.isCompressionEnabled()) {
 
-            byte[] compr = ZipHelper.compress(innerEdges.toString());
-            
             if (!cfg.isCompressedAsBinary()) {
                 
+                byte[] compr = ZipHelper.compress(innerEdges.toString());
                 String innerEdgesStr = ZipHelper.comprBytesToString(compr);
                 result.put(CBModel.PROP_EDGES, innerEdgesStr);
                
             } else {
              
                 String alKey = genAdjacencyListKey(id);
-                BinaryDocument al = BinaryDocument.create(alKey, Unpooled.copiedBuffer(compr));
-                client.upsert(al);
+                BinaryDocument al = BinaryDocument.create(alKey, encodeAdjacencyList(id, innerEdges), innerAlCas);
+                innerAlCas = client.replace(al).cas();
+                innerAlFramed = cfg.isAdjacencyLogEnabled();
+                innerAlDeltas = 0;
                 result.put(CBModel.PROP_EDGES, alKey);
             }
         }
 
         return result;
     }
+    
+    /**
+     * To encode the adjacency lists of a vertex as the content of the 
+     * externalized adjacency list document, either as compressed JSON or
+     * in the binary format
+     * 
+     * @param id
+     * @param edges
+     * @return
+     * @throws com.couchbase.graph.helper.ZipHelper.CompressionException 
+     */
+    public static ByteBuf encodeAdjacencyList(Object id, JsonObject edges) throws ZipHelper.CompressionException {
+        
+        GraphConfig cfg = ConfigManager.getGraphConfig();
+        
+        ByteBuf base;
+        
+        if (cfg.getAdjacencyFormat() == GraphConfig.AdjacencyFormat.BINARY) {
+            
+            base = BinaryAdjacencyList.encode(id, edges);
+        
+        } else {
+        
+            base = Unpooled.wrappedBuffer(ZipHelper.compress(edges.toString()));
+        }
+        
+        return cfg.isAdjacencyLogEnabled() ? AdjacencyLog.frame(base) : base;
+    }
 
     
     /**
@@ -472,34 +1098,48 @@ public final class CBVertex extends CBElement implements Vertex {
 
         if (cfg.isCompressionEnabled()) {
 
-            byte[] compr;
+            ByteBuf buffer;
             
             //The edge lists are then encoded as a string
             if (!cfg.isCompressedAsBinary()) {
             
                 String comprStr = (String) edgeLists;
-                compr = ZipHelper.comprStringToBytes(comprStr);
+                buffer = Unpooled.wrappedBuffer(ZipHelper.comprStringToBytes(comprStr));
 
             }
             else {
                 
                 BinaryDocument al = client.get((String) edgeLists,BinaryDocument.class);
-                ByteBuf buffer = al.content();
+                buffer = al.content();
+                innerAlCas = al.cas();
+            }
+            
+            //Decode directly from the buffer and release it afterwards
+            try {
+                
+                boolean framed = AdjacencyLog.isFramed(buffer);
+                
+                ByteBuf base = framed ? AdjacencyLog.readBase(buffer) : buffer;
                 
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                if (BinaryAdjacencyList.isEncoded(base)) {
                 
-                for (int i = 0; i < buffer.capacity(); i ++) {
-                    byte b = buffer.getByte(i);
-                    baos.write(b);
+                    result = BinaryAdjacencyList.decode(id, base);
+                
+                } else {
+                    
+                    result = ZipHelper.decompressJson(base);
                 }
                 
-                baos.close();
+                //The deltas are following the base segment
+                JsonObject edges = result;
+                
+                innerAlDeltas = framed ? AdjacencyLog.replay(buffer, (add, drctn, label, edgeKey) -> applyDelta(edges, add, drctn, label, edgeKey)) : 0;
+                innerAlFramed = framed;
+                
+            } finally {
                 
-                compr = baos.toByteArray();          
+                buffer.release();
             }
-            
-           String decompr = ZipHelper.decompress(compr);
-           result = JsonObject.fromJson(decompr);
 
         } else {
 
@@ -510,37 +1150,69 @@ public final class CBVertex extends CBElement implements Vertex {
     }
 
 
+    /**
+     * To apply a delta of the adjacency log to the given adjacency lists
+     * 
+     * @param edges
+     * @param add
+     * @param drctn
+     * @param label
+     * @param edgeKey 
+     */
+    private static void applyDelta(JsonObject edges, boolean add, Direction drctn, String label, String edgeKey)
+    {
+        for (Direction d : new Direction[] { Direction.OUT, Direction.IN }) {
+            
+            if (!drctn.equals(d) && !drctn.equals(Direction.BOTH)) continue;
+            
+            JsonObject adjacencyList = edges.getObject(d.equals(Direction.OUT) ? CBModel.PROP_EDGES_OUT : CBModel.PROP_EDGES_IN);
+            
+            if (add) addEdgeToInnerAdjacencyList(adjacencyList, label, edgeKey);
+            else removeEdgeFromInnerAdjacencyList(adjacencyList, label, edgeKey);
+        }
+    }
+
     /**
      * Overrides the refresh method by making sure that the inner JSON object
      * of the edges is taken into account
      * 
+     * @param force
      * @throws  com.couchbase.graph.error.DocNotFoundException
      * @return 
      */
     @Override
-    public boolean refresh() throws DocNotFoundException {
+    protected boolean refresh(boolean force) throws DocNotFoundException {
                 
-        if (super.refresh())
+        if (super.refresh(force))
         {
-
-            try {
-            
-                this.innerEdges =  decompressEdges();
-            
-            } catch (ZipHelper.DecompressionException | IOException ex) {
-                
-                LOG.severe(ex.toString());
-                return false;                
-            }
-            
-            this.innerOutgoingEdges = innerEdges.getObject(CBModel.PROP_EDGES_OUT);
-            this.innerIncomingEdges = innerEdges.getObject(CBModel.PROP_EDGES_IN);
-            
-            return true;
+            return initEdges();
         }
             
         return false;
     }
+    
+    /**
+     * To initialize the inner adjacency lists from the inner object
+     * 
+     * @return 
+     */
+    private boolean initEdges() {
+        
+        try {
+
+            this.innerEdges =  decompressEdges();
+
+        } catch (ZipHelper.DecompressionException | IOException ex) {
+
+            LOG.severe(ex.toString());
+            return false;                
+        }
+
+        this.innerOutgoingEdges = innerEdges.getObject(CBModel.PROP_EDGES_OUT);
+        this.innerIncomingEdges = innerEdges.getObject(CBModel.PROP_EDGES_IN);
+
+        return true;
+    }
 
     /**
      * If we remove a vertex we have also to remove the edges those are pointing to this vertex
@@ -569,6 +1241,8 @@ public final class CBVertex extends CBElement implements Vertex {
             edge.remove();
         }
         
+        if (isSharded()) shards.removeAll();
+
         
         super.remove(); 
     }  
@@ -581,8 +1255,7 @@ public final class CBVertex extends CBElement implements Vertex {
      */
     public static String genVertexKey() throws IdGenException
     {
-            genVertexId();
-            return CBModel.VERTEX_KEY.replace("{1}", String.valueOf(innerIdCounter));
+            return genVertexKey(genVertexId());
     }
     
     /**
@@ -593,28 +1266,18 @@ public final class CBVertex extends CBElement implements Vertex {
      */
     public static String genAdjacencyListKey() throws IdGenException
     {
-        genVertexId();
-        return CBModel.AL_KEY.replace("{1}", String.valueOf(innerIdCounter));
+        return genAdjacencyListKey(genVertexId());
     }
     
     /**
-     * To generate a vertex id
+     * To generate a vertex id, the ids are reserved block by block
      * 
      * @return
      * @throws IdGenException 
      */
     public static long genVertexId() throws IdGenException
     {
-        try 
-        {
-            innerIdCounter = client.counter(CBModel.VERTEX_COUNTER_KEY, 1).content();
-            return innerIdCounter;
-        }
-        catch(Exception e)
-        {
-            throw new IdGenException(e);
-        }
-               
+        return idAllocator.next();
     }
     
     
@@ -640,6 +1303,22 @@ public final class CBVertex extends CBElement implements Vertex {
         return CBModel.AL_KEY.replace("{1}", id.toString());
     }
     
+    /**
+     * To generate the sub-document path of a labeled adjacency list, e.g.
+     * 
+     * edges.out.`friend of`
+     * 
+     * @param drctn Either IN or OUT
+     * @param label
+     * @return 
+     */
+    public static String genAdjacencyListPath(Direction drctn, String label) {
+        
+        String dir = drctn.equals(Direction.IN) ? CBModel.PROP_EDGES_IN : CBModel.PROP_EDGES_OUT;
+        
+        return CBModel.PROP_EDGES + "." + dir + ".`" + label.replace("`", "``") + "`";
+    }
+    
     /**
      * Returns the id of the vertex by parsing the key
      *
@@ -655,23 +1334,26 @@ public final class CBVertex extends CBElement implements Vertex {
      /**
      * Queries all vertices
      * 
+     * The vertices are fetched lazily page by page while iterating.
+     * 
      * @param graph
      * @return 
-     * @throws com.couchbase.graph.error.DocNotFoundException 
      */
-    public static List<Vertex> queryAllVertices(Graph graph) throws DocNotFoundException
+    public static Iterable<Vertex> queryAllVertices(Graph graph)
     {
-        List<Vertex> result = new ArrayList<>();
-                
-        
-        ViewResult viewResult = ViewManager.query(DESIGN_DOC, getAllVerticesViewDef().name(), null, null);
-        
-        for (ViewRow viewRow : viewResult) {
-            
-            result.add(new CBVertex(viewRow.id(), graph));
-        }
-        
-        return result;
+        return queryAllVertices(graph, ViewManager.CONSISTENCY);
+    }
+    
+    /**
+     * Queries all vertices with the given view consistency
+     * 
+     * @param graph
+     * @param consistency
+     * @return 
+     */
+    public static Iterable<Vertex> queryAllVertices(Graph graph, ViewConsistency consistency)
+    {
+        return QueryBackendFactory.getBackend().queryAll(CBModel.VAL_TYPE_VERTEX, doc -> (Vertex) new CBVertex(doc, graph), consistency);
     }
     
     /**
@@ -682,15 +1364,33 @@ public final class CBVertex extends CBElement implements Vertex {
      * @return 
      * @throws com.couchbase.graph.error.DocNotFoundException 
      */
-    public static List<Vertex> queryByVertexProp(String key, String value, Graph graph) throws DocNotFoundException
+    public static Iterable<Vertex> queryByVertexProp(String key, String value, Graph graph) throws DocNotFoundException
     {
-        List<Vertex> result = new ArrayList<>();
+        return queryByVertexProp(key, value, graph, ViewManager.CONSISTENCY);
+    }
+    
+    /**
+     * Queries for a specific property with the given view consistency
+     * 
+     * @param key
+     * @param value
+     * @param graph
+     * @param consistency
+     * @return
+     * @throws DocNotFoundException 
+     */
+    public static Iterable<Vertex> queryByVertexProp(String key, Object value, Graph graph, ViewConsistency consistency) throws DocNotFoundException
+    {
+        Set<String> ids = QueryBackendFactory.getBackend().queryIds(CBModel.VAL_TYPE_VERTEX, key, Compare.EQUAL, value, Integer.MAX_VALUE, consistency);
         
-        ViewResult viewResult = ViewManager.query(DESIGN_DOC, getAllVertexPropsViewDef().name(),genCompKey(key, value), genCompKey(key, value));
+        //The property is not indexed, so scan all vertices
+        if (ids == null) return new PropertyFilteredIterable<>(key, value, queryAllVertices(graph, consistency));
+        
+        List<Vertex> result = new ArrayList<>();
         
-        for (ViewRow viewRow : viewResult) {
+        for (String id : ids) {
             
-            result.add(new CBVertex(viewRow.id(), graph));
+            result.add(new CBVertex(id, graph));
         }
         
         return result;
@@ -16,67 +16,196 @@
 
 package com.couchbase.graph;
 
+import com.couchbase.graph.error.DocNotFoundException;
 import com.tinkerpop.blueprints.Edge;
-import com.tinkerpop.blueprints.Predicate;
-import com.tinkerpop.blueprints.Query;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.DefaultVertexQuery;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
 
 /**
+ * A vertex centric query
+ *
+ * The direction and the labels are pushed down to the access of the
+ * adjacency lists. Without has-conditions only as many edges or vertices as
+ * requested by the limit are fetched. The has-conditions are evaluated on
+ * the edge properties, whereby the edges are fetched batch by batch until
+ * the limit is reached.
  *
  * @author David Maier <david.maier at couchbase.com>
  */
-public class CBVertexQuery implements Query {
+public class CBVertexQuery extends DefaultVertexQuery {
 
-    @Override
-    public Query has(String string) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
-    }
+    private static final Logger LOG = Logger.getLogger(CBVertexQuery.class.getName());
 
-    @Override
-    public Query hasNot(String string) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * The min. number of edges those are fetched at once if has-conditions
+     * are given
+     */
+    private static final int MIN_BATCH_SIZE = 100;
+
+
+    /**
+     * The constructor
+     *
+     * @param vertex
+     */
+    public CBVertexQuery(CBVertex vertex) {
+
+        super(vertex);
     }
 
     @Override
-    public Query has(String string, Object o) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    public Iterable<Edge> edges() {
+
+        List<Edge> result = new ArrayList<>();
+
+        try {
+
+            result = fetchEdges(getVertex().fetchEdgeKeys(direction, labels));
+
+        } catch (DocNotFoundException e) {
+
+            LOG.severe(e.toString());
+        }
+
+        return result;
     }
 
     @Override
-    public Query hasNot(String string, Object o) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    public Iterable<Vertex> vertices() {
+
+        List<Vertex> result = new ArrayList<>();
+
+        try {
+
+            CBVertex v = getVertex();
+
+            result = v.verticesFromKeys(v.neighborKeysFromEdgeKeys(direction, getMatchingEdgeKeys()));
+
+        } catch (DocNotFoundException e) {
+
+            LOG.severe(e.toString());
+        }
+
+        return result;
     }
 
     @Override
-    public Query has(String string, Predicate prdct, Object o) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    public long count() {
+
+        try {
+
+            return getMatchingEdgeKeys().size();
+
+        } catch (DocNotFoundException e) {
+
+            LOG.severe(e.toString());
+        }
+
+        return 0;
     }
 
     @Override
-    public <T extends Comparable<T>> Query has(String string, T t, Compare cmpr) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    public Object vertexIds() {
+
+        List<Object> result = new ArrayList<>();
+
+        try {
+
+            for (String key : getVertex().neighborKeysFromEdgeKeys(direction, getMatchingEdgeKeys())) {
+
+                result.add(CBVertex.parseVertexKey(key));
+            }
+
+        } catch (DocNotFoundException e) {
+
+            LOG.severe(e.toString());
+        }
+
+        return result;
     }
 
-    @Override
-    public <T extends Comparable<?>> Query interval(String string, T t, T t1) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * To get the keys of the edges which match the query. The edges are only
+     * fetched if there are has-conditions.
+     *
+     * @return
+     * @throws DocNotFoundException
+     */
+    private List<String> getMatchingEdgeKeys() throws DocNotFoundException {
+
+        List<String> keys = getVertex().fetchEdgeKeys(direction, labels);
+
+        if (hasContainers.isEmpty()) {
+
+            return keys.subList(0, Math.min(limit, keys.size()));
+        }
+
+        List<String> result = new ArrayList<>();
+
+        for (Edge e : fetchEdges(keys)) {
+
+            result.add(((CBEdge) e).getCbKey());
+        }
+
+        return result;
     }
 
-    @Override
-    public Query limit(int i) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * To fetch the edges which are matching the has-conditions batch by batch
+     * until the limit is reached
+     *
+     * @param keys
+     * @return
+     */
+    private List<Edge> fetchEdges(List<String> keys) {
+
+        List<Edge> result = new ArrayList<>();
+
+        int from = 0;
+
+        while (from < keys.size() && result.size() < limit) {
+
+            int missing = limit - result.size();
+            int batchSize = hasContainers.isEmpty() ? missing : Math.max(missing, MIN_BATCH_SIZE);
+            int to = from + Math.min(batchSize, keys.size() - from);
+
+            for (Edge e : getVertex().edgesFromKeys(keys.subList(from, to))) {
+
+                if (result.size() < limit && isLegal(e)) result.add(e);
+            }
+
+            from = to;
+        }
+
+        return result;
     }
 
-    @Override
-    public Iterable<Edge> edges() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * Checks if an edge matches all has-conditions
+     *
+     * @param e
+     * @return
+     */
+    private boolean isLegal(Edge e) {
+
+        for (HasContainer hasContainer : hasContainers) {
+
+            if (!hasContainer.isLegal(e)) return false;
+        }
+
+        return true;
     }
 
-    @Override
-    public Iterable<Vertex> vertices() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * To get the vertex of this query
+     *
+     * @return
+     */
+    private CBVertex getVertex() {
+
+        return (CBVertex) vertex;
     }
-    
-    
-    
 }
@@ -0,0 +1,566 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph;
+
+import com.couchbase.client.core.message.ResponseStatus;
+import com.couchbase.client.core.message.kv.subdoc.multi.Lookup;
+import com.couchbase.client.core.message.kv.subdoc.multi.Mutation;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.CASMismatchException;
+import com.couchbase.client.java.error.DocumentAlreadyExistsException;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.error.subdoc.MultiMutationException;
+import com.couchbase.client.java.error.subdoc.PathExistsException;
+import com.couchbase.client.java.error.subdoc.PathNotFoundException;
+import com.couchbase.client.java.subdoc.DocumentFragment;
+import com.couchbase.graph.cache.DocumentCache;
+import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.GraphConfig;
+import com.couchbase.graph.conn.ConnectionFactory;
+import com.couchbase.graph.error.CASConflictException;
+import com.couchbase.graph.helper.BackoffHelper;
+import com.couchbase.graph.stats.CASStats;
+import com.tinkerpop.blueprints.Direction;
+import java.util.ArrayList;
+import java.util.List;
+import rx.Observable;
+
+/**
+ * Sharded adjacency lists of a vertex
+ *
+ * The vertex document only holds a small manifest which contains the number
+ * of shards per direction and label:
+ *
+ *  {...
+ *    'edges'  :
+ *       {
+ *           'out': { 'label1': 2, 'label2': 1 },
+ *           'in' : { 'label3': 1 }
+ *       }
+ *   ...
+ *   }
+ *
+ * The edge keys are stored in the shard documents 'al_$id_$direction_$label_$shard':
+ *
+ *  {
+ *     'type' : 'adjacency',
+ *     'count' : 2,
+ *     'edges' : ['e_1', 'e_2']
+ *  }
+ *
+ * The '_' and '%' characters of the vertex id and of the label are escaped
+ * as '%5F' and '%25', so the parts of a key can't be confused.
+ *
+ * Edges are always appended to the last shard. The writer which fills the
+ * last shard up to the shard size increments the number of shards in the
+ * manifest, so the next edge key is stored in a new shard. The shard size is
+ * a number of edge keys and not a number of bytes, because the counter is
+ * incremented atomically together with the append, whereas the size of the
+ * document is not returned by a sub-document mutation.
+ *
+ * If the adjacency mode is 'label', then there is exactly one unbounded
+ * document 'al_$id_$direction_$label' per direction and label. Its key is
+ * known without fetching the manifest, so the vertex document is only
+ * accessed when a new label is registered or when all labels are required.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class ShardedAdjacencyList {
+
+    /**
+     * The client instance to use
+     */
+    private static final Bucket client = ConnectionFactory.getBucketCon();
+
+    /**
+     * The associated Graph configuration
+     */
+    private final GraphConfig cfg = ConfigManager.getGraphConfig();
+
+    /**
+     * The vertex which owns the adjacency lists
+     */
+    private final CBVertex vertex;
+
+    /**
+     * The constructor
+     *
+     * @param vertex
+     */
+    public ShardedAdjacencyList(CBVertex vertex) {
+
+        this.vertex = vertex;
+    }
+
+    /**
+     * To append an edge key to the last shard of the labeled adjacency list
+     *
+     * @param label
+     * @param edgeKey
+     * @param drctn IN, OUT or BOTH (for self loops)
+     * @return True if the edge key was appended
+     */
+    public boolean append(String label, String edgeKey, Direction drctn) {
+
+        boolean result = false;
+
+        if (drctn.equals(Direction.OUT) || drctn.equals(Direction.BOTH)) {
+
+            result = append(Direction.OUT, label, edgeKey);
+        }
+
+        if (drctn.equals(Direction.IN) || drctn.equals(Direction.BOTH)) {
+
+            result = append(Direction.IN, label, edgeKey) || result;
+        }
+
+        return result;
+    }
+
+    /**
+     * To append an edge key to the last shard of one direction
+     *
+     * @param drctn
+     * @param label
+     * @param edgeKey
+     * @return
+     */
+    private boolean append(Direction drctn, String label, String edgeKey) {
+
+        String path = CBVertex.genAdjacencyListPath(drctn, label);
+        int shardSize = cfg.getAdjacencyShardSize();
+
+        int shards = isPerLabel() ? 1 : getNumOfShards(drctn, label);
+
+        //The first edge with this label, so register the label in the manifest
+        if (shards == 0) {
+
+            try {
+
+                client.mutateIn(vertex.getCbKey()).insert(path, 1, true).execute();
+                DocumentCache.invalidate(vertex.getCbKey());
+                shards = 1;
+
+            } catch (PathExistsException e) {
+
+                shards = lookupNumOfShards(drctn, label);
+            }
+        }
+
+        String shardKey = genKey(drctn, label, shards - 1);
+
+        while (true) {
+
+            try {
+
+                DocumentFragment<Mutation> result = client.mutateIn(shardKey)
+                        .arrayAddUnique(CBModel.PROP_EDGES, edgeKey, false)
+                        .counter(CBModel.PROP_COUNT, 1, false)
+                        .execute();
+
+                long count = result.content(1, Long.class);
+                
+                //The per label documents are not split
+                if (isPerLabel()) return true;
+
+                //This writer filled the shard up, so the next edge goes to a new shard
+                if (count == shardSize) {
+
+                    shards = client.mutateIn(vertex.getCbKey()).counter(path, 1, false)
+                            .execute().content(0, Long.class).intValue();
+                    
+                    DocumentCache.invalidate(vertex.getCbKey());
+                }
+
+                //Another writer already started a new shard
+                if (count > shardSize) {
+
+                    shards = lookupNumOfShards(drctn, label);
+                }
+
+                putNumOfShards(drctn, label, shards);
+
+                return true;
+
+            } catch (DocumentDoesNotExistException e) {
+
+                try {
+
+                    JsonObject shard = JsonObject.empty()
+                            .put(CBModel.PROP_TYPE, CBModel.VAL_TYPE_ADJACENCY)
+                            .put(CBModel.PROP_COUNT, 1)
+                            .put(CBModel.PROP_EDGES, JsonArray.from(edgeKey));
+
+                    client.insert(JsonDocument.create(shardKey, shard));
+                    
+                    //The first edge with this label, so register the label in the manifest
+                    if (isPerLabel()) registerLabel(drctn, label);
+                    
+                    putNumOfShards(drctn, label, shards);
+
+                    return true;
+
+                } catch (DocumentAlreadyExistsException ex) {
+
+                    //Another writer created the shard in between, so append to it
+                }
+
+            } catch (MultiMutationException e) {
+
+                //The edge key is already part of the shard
+                if (e.firstFailureStatus() == ResponseStatus.SUBDOC_PATH_EXISTS) return false;
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * To remove an edge key from the shards of the labeled adjacency list
+     *
+     * @param label
+     * @param edgeKey
+     * @param drctn IN, OUT or BOTH (for self loops)
+     * @return True if the edge key was removed
+     * @throws CASConflictException
+     */
+    public boolean remove(String label, String edgeKey, Direction drctn) throws CASConflictException {
+
+        boolean result = false;
+
+        if (drctn.equals(Direction.OUT) || drctn.equals(Direction.BOTH)) {
+
+            result = remove(Direction.OUT, label, edgeKey);
+        }
+
+        if (drctn.equals(Direction.IN) || drctn.equals(Direction.BOTH)) {
+
+            result = remove(Direction.IN, label, edgeKey) || result;
+        }
+
+        return result;
+    }
+
+    /**
+     * To remove an edge key from the shards of one direction
+     *
+     * @param drctn
+     * @param label
+     * @param edgeKey
+     * @return
+     * @throws CASConflictException
+     */
+    private boolean remove(Direction drctn, String label, String edgeKey) throws CASConflictException {
+
+        int shards = isPerLabel() ? 1 : lookupNumOfShards(drctn, label);
+
+        for (int i = 0; i < shards; i++) {
+
+            String shardKey = genKey(drctn, label, i);
+
+            long backoff = cfg.getCASBackoff();
+
+            for (int attempt = 0; ; attempt++) {
+
+                JsonDocument shard = client.get(shardKey);
+
+                if (shard == null) break;
+
+                int idx = shard.content().getArray(CBModel.PROP_EDGES).toList().indexOf(edgeKey);
+
+                if (idx < 0) break;
+
+                try {
+
+                    client.mutateIn(shardKey)
+                            .remove(CBModel.PROP_EDGES + "[" + idx + "]")
+                            .counter(CBModel.PROP_COUNT, -1, false)
+                            .withCas(shard.cas())
+                            .execute();
+
+                    return true;
+
+                } catch (CASMismatchException e) {
+
+                    CASStats.conflict();
+
+                    if (attempt >= cfg.getCASRetries()) {
+
+                        CASStats.failure();
+                        throw new CASConflictException(shardKey, attempt + 1, e);
+                    }
+
+                    CASStats.retry();
+
+                    try {
+
+                        backoff = BackoffHelper.backoff(backoff, cfg.getCASMaxBackoff());
+
+                    } catch (InterruptedException ie) {
+
+                        Thread.currentThread().interrupt();
+                        throw new CASConflictException(shardKey, attempt + 1, ie);
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * To get the edge keys of the given labels. The shards are fetched in
+     * parallel. The manifest of the vertex needs to be fetched before.
+     *
+     * @param drctn IN, OUT or BOTH
+     * @param labels
+     * @return
+     */
+    public List<String> getEdgeKeys(Direction drctn, String... labels) {
+
+        List<String> shardKeys = new ArrayList<>();
+
+        for (String label : labels) {
+
+            if (drctn.equals(Direction.OUT) || drctn.equals(Direction.BOTH)) {
+
+                shardKeys.addAll(genShardKeys(Direction.OUT, label));
+            }
+
+            if (drctn.equals(Direction.IN) || drctn.equals(Direction.BOTH)) {
+
+                shardKeys.addAll(genShardKeys(Direction.IN, label));
+            }
+        }
+
+        return getEdgeKeys(shardKeys);
+    }
+
+    /**
+     * To remove all shard documents of the vertex
+     */
+    public void removeAll() {
+
+        List<String> shardKeys = new ArrayList<>();
+
+        for (Direction drctn : new Direction[] {Direction.OUT, Direction.IN}) {
+
+            for (String label : vertex.getInnerAdjacencyList(drctn).getNames()) {
+
+                shardKeys.addAll(genShardKeys(drctn, label));
+            }
+        }
+
+        Observable.from(shardKeys)
+                .flatMap(key -> client.async().remove(key)
+                        .onErrorResumeNext(e -> e instanceof DocumentDoesNotExistException ? Observable.empty() : Observable.error(e)))
+                .toList()
+                .toBlocking()
+                .single();
+    }
+
+    /**
+     * To fetch the given shards in parallel and to return the contained
+     * edge keys. Shards those are not (yet) existent are ignored.
+     *
+     * @param shardKeys
+     * @return
+     */
+    private static List<String> getEdgeKeys(List<String> shardKeys) {
+
+        return Observable.from(shardKeys)
+                .flatMap(key -> client.async().get(key))
+                .flatMap(shard -> Observable.from(shard.content().getArray(CBModel.PROP_EDGES).toList()))
+                .map(Object::toString)
+                .toList()
+                .toBlocking()
+                .single();
+    }
+
+    /**
+     * To generate the keys of all shards of a direction and label by using the
+     * manifest of the vertex
+     *
+     * @param drctn
+     * @param label
+     * @return
+     */
+    private List<String> genShardKeys(Direction drctn, String label) {
+
+        List<String> result = new ArrayList<>();
+
+        int shards = isPerLabel() ? 1 : getNumOfShards(drctn, label);
+
+        for (int i = 0; i < shards; i++) {
+
+            result.add(genKey(drctn, label, i));
+        }
+
+        return result;
+    }
+
+    /**
+     * To register a label in the manifest of the vertex
+     *
+     * @param drctn
+     * @param label
+     */
+    private void registerLabel(Direction drctn, String label) {
+
+        try {
+
+            client.mutateIn(vertex.getCbKey()).insert(CBVertex.genAdjacencyListPath(drctn, label), 1, true).execute();
+            DocumentCache.invalidate(vertex.getCbKey());
+
+        } catch (PathExistsException e) {
+
+            //Already registered by another writer
+        }
+    }
+
+    /**
+     * Checks if there is one document per direction and label
+     *
+     * @return
+     */
+    private boolean isPerLabel() {
+
+        return cfg.getAdjacencyMode() == GraphConfig.AdjacencyMode.LABEL;
+    }
+
+    /**
+     * To generate the key of a shard dependent on the adjacency mode
+     *
+     * @param drctn
+     * @param label
+     * @param shard
+     * @return
+     */
+    private String genKey(Direction drctn, String label, int shard) {
+
+        if (isPerLabel()) return genLabelKey(vertex.getId(), drctn, label);
+
+        return genShardKey(vertex.getId(), drctn, label, shard);
+    }
+
+    /**
+     * To get the number of shards from the already fetched manifest, or from
+     * the database if the vertex was not yet fetched
+     *
+     * @param drctn
+     * @param label
+     * @return
+     */
+    private int getNumOfShards(Direction drctn, String label) {
+
+        JsonObject manifest = vertex.getInnerAdjacencyList(drctn);
+
+        if (manifest == null) return lookupNumOfShards(drctn, label);
+
+        Integer shards = manifest.getInt(label);
+
+        return shards == null ? 0 : shards;
+    }
+
+    /**
+     * To get the number of shards by only fetching the related part of the
+     * manifest
+     *
+     * @param drctn
+     * @param label
+     * @return
+     */
+    private int lookupNumOfShards(Direction drctn, String label) {
+
+        String path = CBVertex.genAdjacencyListPath(drctn, label);
+
+        try {
+
+            DocumentFragment<Lookup> result = client.lookupIn(vertex.getCbKey()).get(path).execute();
+
+            if (!result.exists(path)) return 0;
+
+            int shards = result.content(path, Integer.class);
+            putNumOfShards(drctn, label, shards);
+
+            return shards;
+
+        } catch (PathNotFoundException e) {
+
+            return 0;
+        }
+    }
+
+    /**
+     * To keep the already fetched manifest in sync
+     *
+     * @param drctn
+     * @param label
+     * @param shards
+     */
+    private void putNumOfShards(Direction drctn, String label, int shards) {
+
+        JsonObject manifest = vertex.getInnerAdjacencyList(drctn);
+
+        if (manifest != null) manifest.put(label, shards);
+    }
+
+    /**
+     * To generate the key of a shard
+     *
+     * @param vId
+     * @param drctn Either IN or OUT
+     * @param label
+     * @param shard
+     * @return
+     */
+    public static String genShardKey(Object vId, Direction drctn, String label, int shard) {
+
+        String dir = drctn.equals(Direction.IN) ? CBModel.PROP_EDGES_IN : CBModel.PROP_EDGES_OUT;
+
+        return CBModel.AL_SHARD_KEY.replace("{1}", escape(vId.toString())).replace("{2}", dir).replace("{4}", String.valueOf(shard)).replace("{3}", escape(label));
+    }
+
+    /**
+     * To generate the key of the adjacency list of one direction and label
+     *
+     * @param vId
+     * @param drctn Either IN or OUT
+     * @param label
+     * @return
+     */
+    public static String genLabelKey(Object vId, Direction drctn, String label) {
+
+        String dir = drctn.equals(Direction.IN) ? CBModel.PROP_EDGES_IN : CBModel.PROP_EDGES_OUT;
+
+        return CBModel.AL_LABEL_KEY.replace("{1}", escape(vId.toString())).replace("{2}", dir).replace("{3}", escape(label));
+    }
+
+    /**
+     * To escape the separator of the key parts
+     *
+     * @param part A vertex id or a label
+     * @return
+     */
+    private static String escape(String part) {
+
+        return part.replace("%", "%25").replace("_", "%5F");
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.graph.cache.LabelCatalog;
+import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.GraphConfig;
+import com.couchbase.graph.conn.ConnectionFactory;
+import com.couchbase.graph.error.WriteBufferException;
+import com.couchbase.graph.query.QueryBackendFactory;
+import com.couchbase.graph.views.ViewManager;
+import com.tinkerpop.blueprints.Direction;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+/**
+ * Buffers the creation of vertices and edges of one thread
+ *
+ * The documents of new vertices and edges are kept in memory and the edge
+ * keys are collected per vertex, so multiple edges of the same vertex are
+ * causing only one adjacency list update. The buffer is flushed on commit,
+ * or if the max. number of buffered elements or the max. age of the buffer
+ * is reached by the next buffered write. The flush inserts the vertices, then
+ * the edges and then updates the adjacency lists, each step in parallel.
+ *
+ * Elements those could not be written are kept in the buffer and the flush
+ * throws a WriteBufferException, so the flush can be retried. Edges of a
+ * vertex which could not be inserted are not written at all.
+ *
+ * Buffered elements can't be fetched by other threads (or processes) before
+ * they were flushed. Their properties can be modified in the meantime.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+class WriteBuffer {
+
+    /**
+     * The Logger
+     */
+    private static final Logger LOG = Logger.getLogger(WriteBuffer.class.getName());
+
+    /**
+     * The client to use to connect to the Couchbase cluster
+     */
+    private static final Bucket client = ConnectionFactory.getBucketCon();
+
+    /**
+     * An edge key which needs to be added to an adjacency list
+     */
+    static class Append {
+
+        final String label;
+        final String edgeKey;
+        final Direction drctn;
+
+        Append(String label, String edgeKey, Direction drctn) {
+
+            this.label = label;
+            this.edgeKey = edgeKey;
+            this.drctn = drctn;
+        }
+    }
+
+    /**
+     * The graph to which the buffer belongs
+     */
+    private final CBGraph graph;
+
+    /**
+     * The buffered vertices by key
+     */
+    private final Map<String, CBVertex> vertices = new LinkedHashMap<>();
+
+    /**
+     * Further documents of the buffered vertices by vertex key, e.g.
+     * externalized adjacency lists
+     */
+    private final Map<String, List<Document<?>>> vertexDocs = new LinkedHashMap<>();
+
+    /**
+     * The buffered edges by key
+     */
+    private final Map<String, CBEdge> edges = new LinkedHashMap<>();
+
+    /**
+     * The edge keys those need to be added per vertex key
+     */
+    private final Map<String, List<Append>> appends = new LinkedHashMap<>();
+
+    /**
+     * The time of the first buffered write since the last flush
+     */
+    private long since;
+
+
+    WriteBuffer(CBGraph graph) {
+
+        this.graph = graph;
+    }
+
+    /**
+     * To buffer a new vertex
+     *
+     * @param vertex
+     * @param docs Additional documents which belong to the vertex
+     */
+    void addVertex(CBVertex vertex, List<Document<?>> docs) {
+
+        touch();
+
+        vertices.put(vertex.getCbKey(), vertex);
+        if (!docs.isEmpty()) vertexDocs.put(vertex.getCbKey(), new ArrayList<>(docs));
+
+        flushIfFull();
+    }
+
+    /**
+     * To buffer a new edge and the updates of the adjacency lists
+     *
+     * @param edge
+     * @param fromKey
+     * @param toKey
+     * @param label
+     */
+    void addEdge(CBEdge edge, String fromKey, String toKey, String label) {
+
+        touch();
+
+        edges.put(edge.getCbKey(), edge);
+
+        appends.computeIfAbsent(fromKey, k -> new ArrayList<>()).add(new Append(label, edge.getCbKey(), Direction.OUT));
+        appends.computeIfAbsent(toKey, k -> new ArrayList<>()).add(new Append(label, edge.getCbKey(), Direction.IN));
+
+        flushIfFull();
+    }
+
+    /**
+     * To get a buffered vertex
+     *
+     * @param key
+     * @return The vertex or null if it is not buffered
+     */
+    CBVertex getVertex(String key) {
+
+        return vertices.get(key);
+    }
+
+    /**
+     * To get a buffered edge
+     *
+     * @param key
+     * @return The edge or null if it is not buffered
+     */
+    CBEdge getEdge(String key) {
+
+        return edges.get(key);
+    }
+
+    /**
+     * The number of buffered vertices and edges
+     *
+     * @return
+     */
+    int size() {
+
+        return vertices.size() + edges.size();
+    }
+
+    /**
+     * To discard all buffered writes
+     */
+    void clear() {
+
+        vertices.clear();
+        vertexDocs.clear();
+        edges.clear();
+        appends.clear();
+        since = 0;
+    }
+
+    /**
+     * To write all buffered vertices, edges and adjacency list updates
+     *
+     * @throws WriteBufferException If some elements could not be written, they are kept in the buffer
+     */
+    void flush() {
+
+        if (isEmpty()) return;
+
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+
+        //The vertices need to exist before their edges are inserted
+        List<Document<?>> docs = new ArrayList<>();
+
+        vertexDocs.values().forEach(docs::addAll);
+        for (CBVertex v : vertices.values()) docs.add(JsonDocument.create(v.getCbKey(), v.innerObj));
+
+        insert(docs, failures);
+
+        vertexDocs.values().forEach(vDocs -> vDocs.removeIf(doc -> !failures.containsKey(doc.id())));
+        vertexDocs.values().removeIf(List::isEmpty);
+
+        List<String> insertedVertices = new ArrayList<>();
+
+        for (Iterator<CBVertex> it = vertices.values().iterator(); it.hasNext();) {
+
+            CBVertex v = it.next();
+
+            if (!failures.containsKey(v.getCbKey())) {
+
+                v.pending = false;
+                insertedVertices.add(v.getCbKey());
+                it.remove();
+            }
+        }
+
+        //A vertex is failed if one of its documents could not be inserted
+        Set<String> failedVertices = new HashSet<>(vertices.keySet());
+        failedVertices.addAll(vertexDocs.keySet());
+
+        //The edges need to exist before they are added to the adjacency lists
+        docs.clear();
+
+        for (CBEdge e : edges.values()) {
+
+            if (!failedVertices.contains(e.innerObj.getString(CBModel.PROP_FROM))
+                    && !failedVertices.contains(e.innerObj.getString(CBModel.PROP_TO))) {
+
+                docs.add(JsonDocument.create(e.getCbKey(), e.innerObj));
+            }
+        }
+
+        insert(docs, failures);
+
+        List<String> insertedEdges = new ArrayList<>();
+
+        for (Document<?> doc : docs) {
+
+            if (!failures.containsKey(doc.id())) {
+
+                CBEdge e = edges.remove(doc.id());
+                e.pending = false;
+                insertedEdges.add(doc.id());
+
+                //Keep the label catalog up to date if it was already loaded
+                LabelCatalog.add(e.innerObj.getString(CBModel.PROP_LABEL));
+            }
+        }
+
+        //One adjacency list update per vertex, only for edges those are inserted
+        Map<String, List<Append>> ready = new LinkedHashMap<>();
+
+        //The appends those were not yet written, per vertex
+        Map<String, List<Append>> unwritten = new LinkedHashMap<>();
+
+        for (Map.Entry<String, List<Append>> entry : appends.entrySet()) {
+
+            if (failedVertices.contains(entry.getKey())) continue;
+
+            List<Append> vertexAppends = new ArrayList<>();
+
+            for (Append a : entry.getValue()) if (!edges.containsKey(a.edgeKey)) vertexAppends.add(a);
+
+            if (!vertexAppends.isEmpty()) {
+
+                ready.put(entry.getKey(), vertexAppends);
+                unwritten.put(entry.getKey(), new ArrayList<>(vertexAppends));
+            }
+        }
+
+        Observable.from(unwritten.entrySet())
+                .flatMap(entry -> Observable.defer(() -> Observable.just(updateAdjacencyList(entry.getKey(), entry.getValue(), failures)))
+                        .subscribeOn(Schedulers.io()))
+                .toBlocking()
+                .lastOrDefault(null);
+
+        //Only the written appends are dropped, so a retry doesn't append them twice
+        for (Map.Entry<String, List<Append>> entry : ready.entrySet()) {
+
+            List<Append> written = entry.getValue();
+            written.removeAll(unwritten.get(entry.getKey()));
+
+            List<Append> vertexAppends = appends.get(entry.getKey());
+            vertexAppends.removeAll(written);
+
+            if (vertexAppends.isEmpty()) appends.remove(entry.getKey());
+        }
+
+        for (String key : insertedVertices) QueryBackendFactory.getBackend().registerKey(CBModel.VAL_TYPE_VERTEX, key);
+        for (String key : insertedEdges) QueryBackendFactory.getBackend().registerKey(CBModel.VAL_TYPE_EDGE, key);
+
+        ViewManager.markDirty();
+
+        if (!failures.isEmpty()) throw new WriteBufferException(new LinkedHashMap<>(failures));
+
+        since = 0;
+    }
+
+    /**
+     * Checks if nothing needs to be written
+     *
+     * @return
+     */
+    private boolean isEmpty() {
+
+        return vertices.isEmpty() && vertexDocs.isEmpty() && edges.isEmpty() && appends.isEmpty();
+    }
+
+    /**
+     * To insert the documents in parallel
+     *
+     * @param docs
+     * @param failures The errors are added by document key
+     */
+    private void insert(List<Document<?>> docs, Map<String, Throwable> failures) {
+
+        Observable.from(docs)
+                .flatMap(doc -> client.async().insert(doc)
+                        .onErrorResumeNext(e -> {
+
+                            LOG.log(Level.SEVERE, "Could not insert {0}: {1}", new Object[]{doc.id(), e.toString()});
+                            failures.put(doc.id(), e);
+                            return Observable.empty();
+                        }))
+                .toBlocking()
+                .lastOrDefault(null);
+    }
+
+    /**
+     * To add the collected edge keys to the adjacency lists of a vertex
+     *
+     * @param key
+     * @param vertexAppends The written appends are removed from the list
+     * @param failures The error is added by vertex key
+     * @return If the adjacency lists were updated
+     */
+    private Object updateAdjacencyList(String key, List<Append> vertexAppends, Map<String, Throwable> failures) {
+
+        try {
+
+            CBVertex.lazy(key, graph).addEdgesToAdjacencyList(vertexAppends);
+            return true;
+
+        } catch (Exception e) {
+
+            LOG.log(Level.SEVERE, "Could not update the adjacency lists of {0}: {1}", new Object[]{key, e.toString()});
+            failures.put(key, e);
+            return false;
+        }
+    }
+
+    /**
+     * To remember the time of the first buffered write
+     */
+    private void touch() {
+
+        if (since == 0) since = System.currentTimeMillis();
+    }
+
+    /**
+     * To flush if the max. size or age is reached
+     */
+    private void flushIfFull() {
+
+        GraphConfig cfg = ConfigManager.getGraphConfig();
+
+        if (size() >= cfg.getWriteBufferSize() || System.currentTimeMillis() - since >= cfg.getWriteBufferInterval()) {
+
+            flush();
+        }
+    }
+}
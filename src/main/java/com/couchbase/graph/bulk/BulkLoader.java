@@ -0,0 +1,600 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.bulk;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.BinaryDocument;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.graph.CBEdge;
+import com.couchbase.graph.CBModel;
+import com.couchbase.graph.CBVertex;
+import com.couchbase.graph.ShardedAdjacencyList;
+import com.couchbase.graph.cache.DocumentCache;
+import com.couchbase.graph.cache.LabelCatalog;
+import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.GraphConfig;
+import com.couchbase.graph.conn.ConnectionFactory;
+import com.couchbase.graph.helper.ZipHelper;
+import com.couchbase.graph.query.QueryBackendFactory;
+import com.couchbase.graph.views.ViewManager;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads a large number of vertices and edges into an empty graph
+ *
+ * The edge documents are written as soon as the edge is added. The adjacency
+ * lists are collected in memory, spilled to local files if they are getting
+ * too large, and merged when the load is finished. Then each vertex document
+ * (and its adjacency list documents) is written exactly once, so there are no
+ * read-modify-write cycles on the vertices.
+ *
+ * The writes are sent asynchronously. The number of writes in flight is
+ * bounded, so the caller is blocked if the cluster can't keep up. The keys of
+ * the successfully written vertices and edges are registered with the query
+ * backend in batches.
+ *
+ * The documents are upserted, so an interrupted load can just be repeated.
+ * Loading into a graph which already contains the vertices replaces their
+ * adjacency lists. Vertices those are only referenced by edges are created
+ * without properties.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class BulkLoader {
+
+    /**
+     * The Logger
+     */
+    private static final Logger LOG = Logger.getLogger(BulkLoader.class.getName());
+
+    /**
+     * The number of written documents between two progress messages
+     */
+    private static final long REPORT_INTERVAL = 100000;
+
+    /**
+     * The client to use to connect to the Couchbase cluster
+     */
+    private final Bucket client = ConnectionFactory.getBucketCon();
+
+    /**
+     * The associated Graph configuration
+     */
+    private final GraphConfig cfg = ConfigManager.getGraphConfig();
+
+    /**
+     * The vertex and adjacency records
+     */
+    private final SpillBuffer buffer;
+
+    /**
+     * Bounds the number of writes in flight
+     */
+    private final Semaphore inFlight;
+
+    /**
+     * The max. number of writes in flight
+     */
+    private final int maxInFlight;
+
+    /**
+     * The number of written documents
+     */
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * The number of documents those could not be written
+     */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * The number of sent writes
+     */
+    private long sent;
+
+    /**
+     * The keys of the written vertices those are not yet registered
+     */
+    private final Queue<String> writtenVertices = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The keys of the written edges those are not yet registered
+     */
+    private final Queue<String> writtenEdges = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The time when the load was started
+     */
+    private final long start = System.currentTimeMillis();
+
+    /**
+     * The time when the load was finished
+     */
+    private long end;
+
+
+    /**
+     * Uses the configured bulk load settings
+     */
+    public BulkLoader() {
+
+        this.maxInFlight = cfg.getBulkInFlight();
+        this.inFlight = new Semaphore(maxInFlight);
+
+        String dir = cfg.getBulkSpillDir();
+        this.buffer = new SpillBuffer(cfg.getBulkSpillThreshold(), dir.isEmpty() ? null : new File(dir));
+    }
+
+    /**
+     * To add a vertex
+     *
+     * @param id
+     * @param props
+     * @throws IOException
+     */
+    public void addVertex(Object id, Map<String, Object> props) throws IOException {
+
+        String vKey = CBVertex.genVertexKey(id);
+
+        buffer.add(new SpillBuffer.Record(vKey, SpillBuffer.KIND_VERTEX, "", JsonObject.from(props).toString()));
+    }
+
+    /**
+     * To add an edge, the edge document is written immediately
+     *
+     * @param id The id of the edge or null if it should be derived from the vertex ids
+     * @param outId
+     * @param inId
+     * @param label
+     * @param props
+     * @return The key of the edge
+     * @throws IOException
+     */
+    public String addEdge(Object id, Object outId, Object inId, String label, Map<String, Object> props) throws IOException {
+
+        String eKey = id == null ? CBEdge.genEdgeKey(outId, label, inId) : CBModel.EDGE_PREFIX + id;
+        String outKey = CBVertex.genVertexKey(outId);
+        String inKey = CBVertex.genVertexKey(inId);
+
+        JsonObject edge = JsonObject.empty();
+        edge.put(CBModel.PROP_PROPS, JsonObject.from(props));
+        edge.put(CBModel.PROP_TYPE, CBModel.VAL_TYPE_EDGE);
+        edge.put(CBModel.PROP_FROM, outKey);
+        edge.put(CBModel.PROP_TO, inKey);
+        edge.put(CBModel.PROP_LABEL, label);
+
+        write(JsonDocument.create(eKey, edge), () -> {
+
+            writtenEdges.add(eKey);
+            LabelCatalog.add(label);
+        });
+
+        buffer.add(new SpillBuffer.Record(outKey, SpillBuffer.KIND_OUT, label, eKey));
+        buffer.add(new SpillBuffer.Record(inKey, SpillBuffer.KIND_IN, label, eKey));
+
+        return eKey;
+    }
+
+    /**
+     * To add the vertices of another graph
+     *
+     * @param vertices
+     * @throws IOException
+     */
+    public void addVertices(Iterable<? extends Vertex> vertices) throws IOException {
+
+        for (Vertex v : vertices) {
+
+            addVertex(v.getId(), getProperties(v));
+        }
+    }
+
+    /**
+     * To add the edges of another graph, the edge ids are derived from the
+     * ids of the vertices
+     *
+     * @param edges
+     * @throws IOException
+     */
+    public void addEdges(Iterable<? extends Edge> edges) throws IOException {
+
+        for (Edge e : edges) {
+
+            addEdge(null, e.getVertex(Direction.OUT).getId(), e.getVertex(Direction.IN).getId(), e.getLabel(), getProperties(e));
+        }
+    }
+
+    /**
+     * To write the vertices and their adjacency lists and to wait until all
+     * writes are completed. The spill files are deleted.
+     *
+     * @return The number of written documents
+     * @throws IOException
+     */
+    public long finish() throws IOException {
+
+        try {
+
+            buffer.forEachGroup(this::writeVertex);
+
+            //Wait for the writes those are still in flight
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+
+            registerKeys();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The bulk load was interrupted");
+
+        } finally {
+
+            buffer.clear();
+        }
+
+        end = System.currentTimeMillis();
+
+        ViewManager.markDirty();
+
+        LOG.log(Level.INFO, "Finished the bulk load: {0}", toStatsString());
+
+        return written.get();
+    }
+
+    /**
+     * The number of written documents
+     *
+     * @return
+     */
+    public long getWritten() {
+
+        return written.get();
+    }
+
+    /**
+     * The number of documents those could not be written
+     *
+     * @return
+     */
+    public long getFailed() {
+
+        return failed.get();
+    }
+
+    /**
+     * The number of written documents per second since the load was started
+     *
+     * @return
+     */
+    public long getDocsPerSec() {
+
+        long duration = (end == 0 ? System.currentTimeMillis() : end) - start;
+
+        return written.get() * 1000 / Math.max(duration, 1);
+    }
+
+    /**
+     * A readable summary of the load
+     *
+     * @return
+     */
+    public String toStatsString() {
+
+        return "written = " + getWritten() + ", failed = " + getFailed() + ", docs/sec = " + getDocsPerSec()
+                + ", spill files = " + buffer.getSpills();
+    }
+
+    /**
+     * To write a vertex document with the given records
+     *
+     * @param vKey
+     * @param records
+     * @throws IOException
+     */
+    private void writeVertex(String vKey, List<SpillBuffer.Record> records) throws IOException {
+
+        Object id = CBVertex.parseVertexKey(vKey);
+
+        JsonObject props = JsonObject.empty();
+        JsonObject out = JsonObject.empty();
+        JsonObject in = JsonObject.empty();
+
+        for (SpillBuffer.Record record : records) {
+
+            switch (record.kind) {
+
+                case SpillBuffer.KIND_VERTEX:
+                    props = JsonObject.fromJson(record.value);
+                    break;
+
+                case SpillBuffer.KIND_OUT:
+                    addEdgeKey(out, record.label, record.value);
+                    break;
+
+                default:
+                    addEdgeKey(in, record.label, record.value);
+            }
+        }
+
+        JsonObject v = JsonObject.empty();
+        v.put(CBModel.PROP_TYPE, CBModel.VAL_TYPE_VERTEX);
+        v.put(CBModel.PROP_PROPS, props);
+
+        if (cfg.getAdjacencyMode() != GraphConfig.AdjacencyMode.EMBEDDED) {
+
+            v.put(CBModel.PROP_EDGES, JsonObject.empty()
+                    .put(CBModel.PROP_EDGES_IN, writeShards(id, Direction.IN, in))
+                    .put(CBModel.PROP_EDGES_OUT, writeShards(id, Direction.OUT, out)));
+
+        } else {
+
+            JsonObject edges = JsonObject.empty();
+            edges.put(CBModel.PROP_EDGES_IN, in);
+            edges.put(CBModel.PROP_EDGES_OUT, out);
+
+            v.put(CBModel.PROP_EDGES, encodeEdges(id, edges));
+        }
+
+        write(JsonDocument.create(vKey, v), () -> writtenVertices.add(vKey));
+    }
+
+    /**
+     * To encode the embedded adjacency lists as configured. The externalized
+     * adjacency list document is written.
+     *
+     * @param id
+     * @param edges
+     * @return The value of the 'edges' property of the vertex
+     * @throws IOException
+     */
+    private Object encodeEdges(Object id, JsonObject edges) throws IOException {
+
+        if (!cfg.isCompressionEnabled()) return edges;
+
+        try {
+
+            if (!cfg.isCompressedAsBinary()) {
+
+                return ZipHelper.comprBytesToString(ZipHelper.compress(edges.toString()));
+            }
+
+            String alKey = CBVertex.genAdjacencyListKey(id);
+            write(BinaryDocument.create(alKey, CBVertex.encodeAdjacencyList(id, edges)));
+
+            return alKey;
+
+        } catch (ZipHelper.CompressionException e) {
+
+            throw new IOException("Could not compress the adjacency list of " + id, e);
+        }
+    }
+
+    /**
+     * To write the sharded adjacency lists of one direction. The last shard
+     * is never full, so that the next added edge doesn't need to split it.
+     *
+     * @param id
+     * @param drctn
+     * @param labeled
+     * @return The manifest, the number of shards per label
+     * @throws IOException
+     */
+    private JsonObject writeShards(Object id, Direction drctn, JsonObject labeled) throws IOException {
+
+        JsonObject manifest = JsonObject.empty();
+
+        boolean perLabel = cfg.getAdjacencyMode() == GraphConfig.AdjacencyMode.LABEL;
+        int shardSize = perLabel ? Integer.MAX_VALUE : cfg.getAdjacencyShardSize();
+
+        for (String label : labeled.getNames()) {
+
+            List<Object> keys = labeled.getArray(label).toList();
+
+            int shards = perLabel ? 1 : keys.size() / shardSize + 1;
+
+            for (int i = 0; i < shards; i++) {
+
+                List<Object> shardKeys = keys.subList((int) Math.min((long) i * shardSize, keys.size()),
+                                                      (int) Math.min((long) (i + 1) * shardSize, keys.size()));
+
+                if (shardKeys.isEmpty()) continue;
+
+                JsonObject shard = JsonObject.empty()
+                        .put(CBModel.PROP_TYPE, CBModel.VAL_TYPE_ADJACENCY)
+                        .put(CBModel.PROP_COUNT, shardKeys.size())
+                        .put(CBModel.PROP_EDGES, JsonArray.from(shardKeys));
+
+                String shardKey = perLabel ? ShardedAdjacencyList.genLabelKey(id, drctn, label)
+                                           : ShardedAdjacencyList.genShardKey(id, drctn, label, i);
+
+                write(JsonDocument.create(shardKey, shard));
+            }
+
+            manifest.put(label, shards);
+        }
+
+        return manifest;
+    }
+
+    /**
+     * To write a document asynchronously
+     *
+     * @param doc
+     * @throws IOException
+     */
+    private void write(Document<?> doc) throws IOException {
+
+        write(doc, () -> {});
+    }
+
+    /**
+     * To write a document asynchronously, the caller is blocked while the max.
+     * number of writes is in flight. The written keys are registered after
+     * each max. number of writes in flight.
+     *
+     * @param doc
+     * @param onWritten Called if the document was written
+     * @throws IOException
+     */
+    private void write(Document<?> doc, Runnable onWritten) throws IOException {
+
+        if (++sent % maxInFlight == 0) registerKeys();
+
+        acquire();
+
+        DocumentCache.invalidate(doc.id());
+
+        client.async().upsert(doc)
+                .doOnTerminate(inFlight::release)
+                .subscribe(d -> {
+
+                    onWritten.run();
+
+                    if (written.incrementAndGet() % REPORT_INTERVAL == 0) {
+
+                        LOG.log(Level.INFO, "Bulk load in progress: {0}", toStatsString());
+                    }
+
+                }, e -> {
+
+                    failed.incrementAndGet();
+                    LOG.log(Level.SEVERE, "Could not write {0}: {1}", new Object[]{doc.id(), e.toString()});
+                });
+    }
+
+    /**
+     * To register the keys of the written vertices and edges with the query
+     * backend. The registration counts as one write in flight.
+     *
+     * @throws IOException
+     */
+    private void registerKeys() throws IOException {
+
+        List<String> vKeys = drain(writtenVertices);
+        List<String> eKeys = drain(writtenEdges);
+
+        if (vKeys.isEmpty() && eKeys.isEmpty()) return;
+
+        acquire();
+
+        try {
+
+            if (!vKeys.isEmpty()) QueryBackendFactory.getBackend().registerKeys(CBModel.VAL_TYPE_VERTEX, vKeys);
+            if (!eKeys.isEmpty()) QueryBackendFactory.getBackend().registerKeys(CBModel.VAL_TYPE_EDGE, eKeys);
+
+        } catch (RuntimeException e) {
+
+            failed.addAndGet(vKeys.size() + eKeys.size());
+            LOG.log(Level.SEVERE, "Could not register the written keys: {0}", e.toString());
+
+        } finally {
+
+            inFlight.release();
+        }
+    }
+
+    /**
+     * To acquire a permit for a write
+     *
+     * @throws IOException
+     */
+    private void acquire() throws IOException {
+
+        try {
+
+            inFlight.acquire();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The bulk load was interrupted");
+        }
+    }
+
+    /**
+     * To take all keys from a queue
+     *
+     * @param queue
+     * @return
+     */
+    private static List<String> drain(Queue<String> queue) {
+
+        List<String> result = new ArrayList<>();
+
+        for (String key = queue.poll(); key != null; key = queue.poll()) result.add(key);
+
+        return result;
+    }
+
+    /**
+     * To add an edge key to the labeled adjacency lists
+     *
+     * @param labeled
+     * @param label
+     * @param edgeKey
+     */
+    private static void addEdgeKey(JsonObject labeled, String label, String edgeKey) {
+
+        JsonArray keys = labeled.getArray(label);
+
+        if (keys == null) {
+
+            keys = JsonArray.empty();
+            labeled.put(label, keys);
+        }
+
+        keys.add(edgeKey);
+    }
+
+    /**
+     * To get the properties of an element
+     *
+     * @param element
+     * @return
+     */
+    private static Map<String, Object> getProperties(Element element) {
+
+        Map<String, Object> props = new HashMap<>();
+
+        for (String key : element.getPropertyKeys()) {
+
+            props.put(key, element.getProperty(key));
+        }
+
+        return props;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.bulk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the records of a bulk load grouped by vertex key
+ *
+ * The records are kept in memory until the threshold is reached. Then they
+ * are sorted by the vertex key and spilled to a local file (a run). The runs
+ * are merged when the groups are read, so each vertex is passed exactly once
+ * with all of its records. The records of a vertex keep the order in which
+ * they were added.
+ *
+ * - Record: vertex key (UTF), kind (1 byte), label (UTF), value length (4 bytes), value
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+class SpillBuffer {
+
+    /**
+     * The record which contains the properties of a vertex
+     */
+    static final byte KIND_VERTEX = 0;
+
+    /**
+     * The record of an outgoing edge
+     */
+    static final byte KIND_OUT = 1;
+
+    /**
+     * The record of an incoming edge
+     */
+    static final byte KIND_IN = 2;
+
+    /**
+     * A record which belongs to a vertex
+     */
+    static class Record {
+
+        final String vKey;
+        final byte kind;
+        final String label;
+        final String value;
+
+        Record(String vKey, byte kind, String label, String value) {
+
+            this.vKey = vKey;
+            this.kind = kind;
+            this.label = label;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Handles all records of one vertex
+     */
+    interface GroupHandler {
+
+        void handle(String vKey, List<Record> records) throws IOException;
+    }
+
+    /**
+     * Orders the records by the vertex key, the sort is stable
+     */
+    private static final Comparator<Record> BY_VERTEX = (r1, r2) -> r1.vKey.compareTo(r2.vKey);
+
+    /**
+     * The max. number of records those are kept in memory
+     */
+    private final int threshold;
+
+    /**
+     * The directory of the spill files
+     */
+    private final File dir;
+
+    /**
+     * The records those were not yet spilled
+     */
+    private List<Record> records = new ArrayList<>();
+
+    /**
+     * The spill files
+     */
+    private final List<File> runs = new ArrayList<>();
+
+    /**
+     * The number of records per spill file
+     */
+    private final List<Integer> runSizes = new ArrayList<>();
+
+    /**
+     * The number of spill files those were written
+     */
+    private int spills;
+
+    /**
+     * The constructor
+     *
+     * @param threshold
+     * @param dir
+     */
+    SpillBuffer(int threshold, File dir) {
+
+        this.threshold = threshold;
+        this.dir = dir;
+    }
+
+    /**
+     * To add a record, the records are spilled if the threshold is reached
+     *
+     * @param record
+     * @throws IOException
+     */
+    void add(Record record) throws IOException {
+
+        records.add(record);
+
+        if (records.size() >= threshold) spill();
+    }
+
+    /**
+     * The number of spill files those were written
+     *
+     * @return
+     */
+    int getSpills() {
+
+        return spills;
+    }
+
+    /**
+     * To pass the records grouped and ordered by the vertex key. The buffer
+     * is empty afterwards.
+     *
+     * @param handler
+     * @throws IOException
+     */
+    void forEachGroup(GroupHandler handler) throws IOException {
+
+        records.sort(BY_VERTEX);
+
+        List<RunReader> readers = new ArrayList<>();
+
+        try {
+
+            for (int i = 0; i < runs.size(); i++) {
+
+                readers.add(new FileRunReader(i, runs.get(i), runSizes.get(i)));
+            }
+
+            //The records in memory were added last
+            readers.add(new MemoryRunReader(runs.size(), records));
+
+            //Equal keys are taken from the older run first
+            PriorityQueue<RunReader> heads = new PriorityQueue<>((r1, r2) -> {
+
+                int cmp = r1.head.vKey.compareTo(r2.head.vKey);
+                return cmp != 0 ? cmp : Integer.compare(r1.idx, r2.idx);
+            });
+
+            for (RunReader reader : readers) {
+
+                if (reader.next()) heads.add(reader);
+            }
+
+            List<Record> group = new ArrayList<>();
+
+            while (!heads.isEmpty()) {
+
+                RunReader reader = heads.poll();
+
+                if (!group.isEmpty() && !group.get(0).vKey.equals(reader.head.vKey)) {
+
+                    handler.handle(group.get(0).vKey, group);
+                    group = new ArrayList<>();
+                }
+
+                group.add(reader.head);
+
+                if (reader.next()) heads.add(reader);
+            }
+
+            if (!group.isEmpty()) handler.handle(group.get(0).vKey, group);
+
+        } finally {
+
+            for (RunReader reader : readers) reader.close();
+
+            clear();
+        }
+    }
+
+    /**
+     * To drop all records and to delete the spill files
+     */
+    void clear() {
+
+        records = new ArrayList<>();
+
+        for (File run : runs) run.delete();
+
+        runs.clear();
+        runSizes.clear();
+    }
+
+    /**
+     * To sort the records in memory and to write them to a new spill file
+     *
+     * @throws IOException
+     */
+    private void spill() throws IOException {
+
+        records.sort(BY_VERTEX);
+
+        File run = File.createTempFile("cbgraph-bulk-", ".run", dir);
+        run.deleteOnExit();
+
+        runs.add(run);
+        runSizes.add(records.size());
+        spills++;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+
+            for (Record record : records) {
+
+                byte[] value = record.value.getBytes(StandardCharsets.UTF_8);
+
+                out.writeUTF(record.vKey);
+                out.writeByte(record.kind);
+                out.writeUTF(record.label);
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        }
+
+        records = new ArrayList<>();
+    }
+
+    /**
+     * Reads the sorted records of one run
+     */
+    private static abstract class RunReader {
+
+        final int idx;
+        Record head;
+
+        RunReader(int idx) {
+
+            this.idx = idx;
+        }
+
+        abstract boolean next() throws IOException;
+
+        void close() throws IOException {
+        }
+    }
+
+    /**
+     * Reads the records in memory
+     */
+    private static class MemoryRunReader extends RunReader {
+
+        private final List<Record> records;
+        private int pos;
+
+        MemoryRunReader(int idx, List<Record> records) {
+
+            super(idx);
+            this.records = records;
+        }
+
+        @Override
+        boolean next() {
+
+            if (pos == records.size()) return false;
+
+            head = records.get(pos++);
+            return true;
+        }
+    }
+
+    /**
+     * Reads the records of a spill file
+     */
+    private static class FileRunReader extends RunReader {
+
+        private final DataInputStream in;
+        private int remaining;
+
+        FileRunReader(int idx, File run, int size) throws IOException {
+
+            super(idx);
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+            this.remaining = size;
+        }
+
+        @Override
+        boolean next() throws IOException {
+
+            if (remaining == 0) return false;
+
+            String vKey = in.readUTF();
+            byte kind = in.readByte();
+            String label = in.readUTF();
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+
+            head = new Record(vKey, kind, label, new String(value, StandardCharsets.UTF_8));
+            remaining--;
+
+            return true;
+        }
+
+        @Override
+        void close() throws IOException {
+
+            in.close();
+        }
+    }
+}
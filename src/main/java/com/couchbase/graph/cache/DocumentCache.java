@@ -0,0 +1,352 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.cache;
+
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.GraphConfig;
+import com.couchbase.graph.conn.ConnectionFactory;
+import com.couchbase.graph.stats.CacheStats;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import rx.Observable;
+
+/**
+ * A process wide cache of vertex and edge documents
+ *
+ * The cache is a LRU cache which is bounded by the (estimated) heap size of
+ * the cached documents. The entries are expiring after the configured time to
+ * live. The documents are stored serialized, so each lookup returns a new copy
+ * which can be modified by the element without affecting the cache.
+ *
+ * Writes of this process are updating or invalidating the entries. Writes of
+ * other processes are only visible after the entry expired. A fetched
+ * document is only cached if the key was neither written nor invalidated
+ * while it was fetched, so a slow fetch can't overwrite a newer local write.
+ * Each entry keeps the CAS value of the document, so updates which are based
+ * on a stale entry are rejected by the server and then retried with a fetched
+ * document.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class DocumentCache {
+
+    /**
+     * The estimated heap overhead per entry in bytes
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * A cached document
+     */
+    private static class Entry {
+
+        final String json;
+        final long cas;
+        final long expiry;
+        final long size;
+
+        Entry(String key, String json, long cas, long expiry) {
+
+            this.json = json;
+            this.cas = cas;
+            this.expiry = expiry;
+            this.size = ENTRY_OVERHEAD + 2L * (key.length() + json.length());
+        }
+    }
+
+    /**
+     * The entries in access order
+     */
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+
+    /**
+     * The fetches in flight by key, a write or invalidation of the key
+     * removes the token, so the fetched document is not cached
+     */
+    private static final Map<String, Object> fills = new HashMap<>();
+
+    /**
+     * The estimated size of all entries in bytes
+     */
+    private static long size;
+
+    /**
+     * If the cache is enabled
+     */
+    private static volatile boolean enabled;
+
+    /**
+     * The max. size in bytes
+     */
+    private static long maxSize;
+
+    /**
+     * The time to live of an entry in milliseconds
+     */
+    private static long ttl;
+
+    static {
+
+        GraphConfig cfg = ConfigManager.getGraphConfig();
+        configure(cfg.isCacheEnabled(), cfg.getCacheSize(), cfg.getCacheTTL());
+    }
+
+
+    /**
+     * To configure the cache, all entries are dropped
+     *
+     * @param enabled
+     * @param maxSize The max. size in bytes
+     * @param ttl The time to live in milliseconds
+     */
+    public static synchronized void configure(boolean enabled, long maxSize, long ttl) {
+
+        DocumentCache.enabled = enabled;
+        DocumentCache.maxSize = maxSize;
+        DocumentCache.ttl = ttl;
+
+        clear();
+    }
+
+    /**
+     * Checks if the cache is enabled
+     *
+     * @return
+     */
+    public static boolean isEnabled() {
+
+        return enabled;
+    }
+
+    /**
+     * To get a copy of a cached document
+     *
+     * @param key
+     * @return The document or null if it is not cached or expired
+     */
+    public static JsonDocument get(String key) {
+
+        if (!enabled) return null;
+
+        Entry entry;
+
+        synchronized (DocumentCache.class) {
+
+            entry = entries.get(key);
+
+            if (entry != null && entry.expiry < System.currentTimeMillis()) {
+
+                remove(key);
+                CacheStats.expiration();
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+
+            CacheStats.miss();
+            return null;
+        }
+
+        CacheStats.hit();
+
+        return JsonDocument.create(key, JsonObject.fromJson(entry.json), entry.cas);
+    }
+
+    /**
+     * To get a document from the cache, or to fetch it if it is not cached
+     *
+     * @param key
+     * @return
+     */
+    public static Observable<JsonDocument> getAsync(String key) {
+
+        if (!enabled) return ConnectionFactory.getBucketCon().async().get(key);
+
+        return Observable.defer(() -> {
+
+            JsonDocument doc = get(key);
+
+            if (doc != null) return Observable.just(doc);
+
+            Object token = startFill(key);
+
+            return ConnectionFactory.getBucketCon().async().get(key)
+                    .doOnNext(fetched -> endFill(key, token, fetched))
+                    .doOnTerminate(() -> endFill(key, token, null));
+        });
+    }
+
+    /**
+     * To get a document from the cache, or to fetch it if it is not cached
+     *
+     * @param key
+     * @param force If true, then the document is fetched also if it is cached
+     * @return The document or null if it doesn't exist
+     */
+    public static JsonDocument fetch(String key, boolean force) {
+
+        if (!enabled) return ConnectionFactory.getBucketCon().get(key);
+
+        JsonDocument doc = force ? null : get(key);
+
+        if (doc != null) return doc;
+
+        Object token = startFill(key);
+
+        try {
+
+            doc = ConnectionFactory.getBucketCon().get(key);
+
+        } finally {
+
+            endFill(key, token, doc);
+        }
+
+        return doc;
+    }
+
+    /**
+     * To cache a written document
+     *
+     * @param doc
+     */
+    public static void put(JsonDocument doc) {
+
+        if (!enabled || doc == null || doc.content() == null) return;
+
+        synchronized (DocumentCache.class) {
+
+            fills.remove(doc.id());
+            store(doc);
+        }
+    }
+
+    /**
+     * To invalidate a document because it was modified or removed
+     *
+     * @param key
+     */
+    public static void invalidate(String key) {
+
+        if (!enabled) return;
+
+        synchronized (DocumentCache.class) {
+
+            fills.remove(key);
+
+            if (remove(key)) CacheStats.invalidation();
+        }
+    }
+
+    /**
+     * To drop all entries
+     */
+    public static synchronized void clear() {
+
+        entries.clear();
+        fills.clear();
+        size = 0;
+    }
+
+    /**
+     * The estimated size of all entries in bytes
+     *
+     * @return
+     */
+    public static synchronized long size() {
+
+        return size;
+    }
+
+    /**
+     * To register a fetch of a document which is not cached
+     *
+     * @param key
+     * @return The token of the fetch
+     */
+    static synchronized Object startFill(String key) {
+
+        Object token = new Object();
+        fills.put(key, token);
+
+        return token;
+    }
+
+    /**
+     * To cache a fetched document if the key was neither written nor
+     * invalidated since the fetch was started
+     *
+     * @param key
+     * @param token
+     * @param doc The fetched document or null if only the fetch is finished
+     */
+    static synchronized void endFill(String key, Object token, JsonDocument doc) {
+
+        if (fills.get(key) != token) return;
+
+        fills.remove(key);
+
+        if (doc != null && doc.content() != null) store(doc);
+    }
+
+    /**
+     * To store a document, the caller holds the lock
+     *
+     * @param doc
+     */
+    private static void store(JsonDocument doc) {
+
+        Entry entry = new Entry(doc.id(), doc.content().toString(), doc.cas(), System.currentTimeMillis() + ttl);
+
+        remove(doc.id());
+
+        if (entry.size > maxSize) return;
+
+        entries.put(doc.id(), entry);
+        size += entry.size;
+
+        //The eldest entries are the least recently used ones
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+
+        while (size > maxSize && it.hasNext()) {
+
+            size -= it.next().getValue().size;
+            it.remove();
+            CacheStats.eviction();
+        }
+    }
+
+    /**
+     * To remove an entry, the caller holds the lock
+     *
+     * @param key
+     * @return
+     */
+    private static boolean remove(String key) {
+
+        Entry entry = entries.remove(key);
+
+        if (entry != null) size -= entry.size;
+
+        return entry != null;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.graph.cache;
+
+import com.couchbase.graph.CBEdge;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A process wide cache of all edge labels of the graph
+ *
+ * The catalog is loaded via the all edge labels view on the first access.
+ * Labels of edges which are added by this process are added to the catalog.
+ * Labels of removed edges, or edges which are added by other processes, are
+ * only visible after the catalog was invalidated.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class LabelCatalog {
+
+    /**
+     * The cached labels, null if not yet loaded
+     */
+    private static volatile Set<String> labels;
+
+
+    /**
+     * To get all edge labels
+     *
+     * @return
+     */
+    public static Set<String> getLabels() {
+
+        Set<String> result = labels;
+
+        if (result == null) {
+
+            synchronized (LabelCatalog.class) {
+
+                if (labels == null) {
+
+                    Set<String> loaded = ConcurrentHashMap.newKeySet();
+                    loaded.addAll(CBEdge.queryAllEdgeLabels());
+                    labels = loaded;
+                }
+
+                result = labels;
+            }
+        }
+
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * To add a label to the catalog if it was already loaded
+     *
+     * @param label
+     */
+    public static void add(String label) {
+
+        Set<String> result = labels;
+
+        if (result != null) result.add(label);
+    }
+
+    /**
+     * To invalidate the catalog, the next access reloads it
+     */
+    public static void invalidate() {
+
+        labels = null;
+    }
+}
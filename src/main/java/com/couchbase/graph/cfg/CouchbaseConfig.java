@@ -25,6 +25,34 @@ import com.couchbase.graph.error.ResourceReadException;
  */
 public class CouchbaseConfig extends BaseConfig {
     
+    /**
+     * The supported consistency modes of view queries
+     */
+    public enum ViewConsistency {
+        
+        /**
+         * Wait until the index was updated (Stale.FALSE)
+         */
+        FALSE,
+        
+        /**
+         * Use the index as it is and update it afterwards (Stale.UPDATE_AFTER)
+         */
+        UPDATE_AFTER,
+        
+        /**
+         * Use the index as it is (Stale.TRUE)
+         */
+        OK,
+        
+        /**
+         * Only wait for the index if this process has written since the last
+         * completed query which waited for it, otherwise use the index as it
+         * is. The writes are tracked per process, not per thread or graph.
+         */
+        READ_YOUR_OWN_WRITES
+    }
+    
     
     public CouchbaseConfig() throws ResourceReadException {
         super("couchbase.properties");
@@ -84,14 +112,28 @@ public class CouchbaseConfig extends BaseConfig {
         return this.props.getProperty("cb.view.alledgelabels");
     }
     
-    public String getAllVertexPropsView()
+    public String getVertexPropIndexView()
+    {
+        return this.props.getProperty("cb.view.vertexpropindex", "vertex_prop_index");
+    }
+    
+    public String getEdgePropIndexView()
     {
-        return this.props.getProperty("cb.view.allvertexprops");
+        return this.props.getProperty("cb.view.edgepropindex", "edge_prop_index");
     }
     
-    public String getAllEdgePropsView()
+    public ViewConsistency getViewConsistency()
     {
-        return this.props.getProperty("cb.view.alledgeprops");
+        String consistencyStr = this.props.getProperty("cb.view.consistency", "false");
+        
+        return ViewConsistency.valueOf(consistencyStr.toUpperCase());
+    }
+    
+    public int getViewPageSize()
+    {
+        String pageSizeStr = this.props.getProperty("cb.view.pagesize", "1000");
+        
+        return Integer.parseInt(pageSizeStr);
     }
     
     public boolean isViewAutoCreateEnabled()
@@ -25,6 +25,82 @@ import com.couchbase.graph.error.ResourceReadException;
  */
 public class GraphConfig extends BaseConfig {
 
+    /**
+     * The supported ways to store the adjacency lists
+     */
+    public enum AdjacencyMode {
+        
+        /**
+         * The adjacency lists are part of the vertex document (optionally compressed)
+         */
+        EMBEDDED,
+        
+        /**
+         * The edge keys are spread across multiple documents per vertex,
+         * direction and label, the vertex only stores a manifest
+         */
+        SHARDED,
+        
+        /**
+         * There is one document per vertex, direction and label, the vertex
+         * is only fetched if really needed
+         */
+        LABEL
+    }
+
+    /**
+     * The supported ways to index properties
+     */
+    public enum PropIndexMode {
+        
+        /**
+         * All properties are indexed by the generic property index views
+         */
+        ALL,
+        
+        /**
+         * Only the keys those are declared via createKeyIndex are indexed
+         */
+        KEYS
+    }
+
+    /**
+     * The supported ways to query the vertices and edges
+     */
+    public enum AllMode {
+        
+        /**
+         * Map/reduce views are used
+         */
+        VIEW,
+        
+        /**
+         * Lookup documents are maintained for the keys of all vertices and edges
+         */
+        LOOKUP,
+        
+        /**
+         * N1QL statements which are using global secondary indexes
+         */
+        N1QL
+    }
+
+    /**
+     * The supported formats of externalized adjacency lists
+     */
+    public enum AdjacencyFormat {
+        
+        /**
+         * The JSON of the adjacency lists, compressed by the configured codec
+         */
+        JSON,
+        
+        /**
+         * The compact binary encoding, see BinaryAdjacencyList
+         */
+        BINARY
+    }
+
     
     public GraphConfig() throws ResourceReadException {
         super("graph.properties");
@@ -35,13 +111,150 @@ public class GraphConfig extends BaseConfig {
         return Boolean.parseBoolean(this.props.get("graph.refresh.mode").toString());
     }
     
+    /**
+     * Compression applies only to embedded adjacency lists
+     * 
+     * @return 
+     */
     public boolean isCompressionEnabled()
     {
-        return Boolean.parseBoolean(this.props.get("graph.compression.enabled").toString());
+        return getAdjacencyMode() == AdjacencyMode.EMBEDDED && Boolean.parseBoolean(this.props.get("graph.compression.enabled").toString());
     }
     
     public boolean isCompressedAsBinary() {
         
         return Boolean.parseBoolean(this.props.get("graph.compression.binary").toString());
     }
+    
+    public int getCASRetries() {
+        
+        return Integer.parseInt(this.props.getProperty("graph.cas.retries", "10"));
+    }
+    
+    public long getCASBackoff() {
+        
+        return Long.parseLong(this.props.getProperty("graph.cas.backoff", "2"));
+    }
+    
+    public long getCASMaxBackoff() {
+        
+        return Long.parseLong(this.props.getProperty("graph.cas.backoff.max", "100"));
+    }
+    
+    public AdjacencyMode getAdjacencyMode() {
+        
+        return AdjacencyMode.valueOf(this.props.getProperty("graph.adjacency.mode", "embedded").toUpperCase());
+    }
+    
+    public PropIndexMode getPropIndexMode() {
+        
+        return PropIndexMode.valueOf(this.props.getProperty("graph.index.props", "all").toUpperCase());
+    }
+    
+    public AllMode getAllMode() {
+        
+        return AllMode.valueOf(this.props.getProperty("graph.all.mode", "view").toUpperCase());
+    }
+    
+    public String getCompressionCodec() {
+        
+        return this.props.getProperty("graph.compression.codec", "gzip");
+    }
+    
+    public AdjacencyFormat getAdjacencyFormat() {
+        
+        return AdjacencyFormat.valueOf(this.props.getProperty("graph.compression.format", "json").toUpperCase());
+    }
+    
+    public boolean isAdjacencyLogEnabled() {
+        
+        return Boolean.parseBoolean(this.props.getProperty("graph.compression.log.enabled", "false"));
+    }
+    
+    public int getAdjacencyLogThreshold() {
+        
+        return Integer.parseInt(this.props.getProperty("graph.compression.log.threshold", "1000"));
+    }
+    
+    public boolean isCacheEnabled() {
+        
+        return Boolean.parseBoolean(this.props.getProperty("graph.cache.enabled", "false"));
+    }
+    
+    public long getCacheSize() {
+        
+        return Long.parseLong(this.props.getProperty("graph.cache.size", "67108864"));
+    }
+    
+    public long getCacheTTL() {
+        
+        return Long.parseLong(this.props.getProperty("graph.cache.ttl", "10000"));
+    }
+    
+    public boolean isWriteBufferEnabled() {
+        
+        return Boolean.parseBoolean(this.props.getProperty("graph.buffer.enabled", "false"));
+    }
+    
+    public int getWriteBufferSize() {
+        
+        return Integer.parseInt(this.props.getProperty("graph.buffer.size", "1000"));
+    }
+    
+    public long getWriteBufferInterval() {
+        
+        return Long.parseLong(this.props.getProperty("graph.buffer.interval", "1000"));
+    }
+    
+    public int getBulkInFlight() {
+        
+        return Integer.parseInt(this.props.getProperty("graph.bulk.inflight", "256"));
+    }
+    
+    public int getBulkSpillThreshold() {
+        
+        return Integer.parseInt(this.props.getProperty("graph.bulk.spill.threshold", "1000000"));
+    }
+    
+    public String getBulkSpillDir() {
+        
+        return this.props.getProperty("graph.bulk.spill.dir", "");
+    }
+    
+    public int getScanPartitions() {
+        
+        int partitions = Integer.parseInt(this.props.getProperty("graph.scan.partitions", "0"));
+        
+        return partitions > 0 ? partitions : Runtime.getRuntime().availableProcessors();
+    }
+    
+    public long getIdBlockSize() {
+        
+        return Long.parseLong(this.props.getProperty("graph.id.block.size", "100"));
+    }
+    
+    public int getIdStripes() {
+        
+        return Integer.parseInt(this.props.getProperty("graph.id.stripes", "1"));
+    }
+    
+    public int getLookupShards() {
+        
+        return Integer.parseInt(this.props.getProperty("graph.lookup.shards", "16"));
+    }
+    
+    public int getLookupCompactThreshold() {
+        
+        return Integer.parseInt(this.props.getProperty("graph.lookup.compact.threshold", "10000"));
+    }
+    
+    public int getAdjacencyShardSize() {
+        
+        return Integer.parseInt(this.props.getProperty("graph.adjacency.shard.size", "10000"));
+    }
+    
+    public boolean isSubDocEnabled() {
+        
+        return Boolean.parseBoolean(this.props.getProperty("graph.subdoc.enabled", "false"));
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.codec;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.tinkerpop.blueprints.Direction;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A log structured adjacency list document
+ *
+ * The document consists of a base segment, which contains the compressed
+ * (or binary encoded) adjacency lists, followed by uncompressed deltas. A new
+ * edge is added by appending a delta to the document, so the base segment
+ * doesn't need to be rewritten. The compaction merges the deltas into a new
+ * base segment.
+ *
+ * - Frame: magic byte, base segment length (4 bytes), base segment
+ * - Delta: operation ('+' or '-'), direction, label length (2 bytes), label,
+ *   edge key length (2 bytes), edge key
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class AdjacencyLog {
+
+    /**
+     * The first byte of a framed adjacency list document
+     */
+    public static final byte MAGIC = (byte) 0xA1;
+
+    /**
+     * The operation to add an edge key
+     */
+    private static final byte OP_ADD = '+';
+
+    /**
+     * The operation to remove an edge key
+     */
+    private static final byte OP_REMOVE = '-';
+
+    /**
+     * Applies a delta to the adjacency lists
+     */
+    public interface DeltaHandler {
+
+        void apply(boolean add, Direction drctn, String label, String edgeKey);
+    }
+
+
+    /**
+     * Checks if the buffer contains a framed adjacency list document
+     *
+     * @param buffer
+     * @return
+     */
+    public static boolean isFramed(ByteBuf buffer) {
+
+        return buffer.readableBytes() > 0 && buffer.getByte(buffer.readerIndex()) == MAGIC;
+    }
+
+    /**
+     * To frame a base segment, so that deltas can be appended
+     *
+     * @param base
+     * @return
+     */
+    public static ByteBuf frame(ByteBuf base) {
+
+        ByteBuf header = Unpooled.buffer(5);
+        header.writeByte(MAGIC);
+        header.writeInt(base.readableBytes());
+
+        return Unpooled.wrappedBuffer(header, base);
+    }
+
+    /**
+     * To create a delta
+     *
+     * @param add
+     * @param drctn
+     * @param label
+     * @param edgeKey
+     * @return
+     */
+    public static ByteBuf delta(boolean add, Direction drctn, String label, String edgeKey) {
+
+        byte[] labelBytes = label.getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = edgeKey.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuf delta = Unpooled.buffer(6 + labelBytes.length + keyBytes.length);
+
+        delta.writeByte(add ? OP_ADD : OP_REMOVE);
+        delta.writeByte(drctn.ordinal());
+        delta.writeShort(labelBytes.length);
+        delta.writeBytes(labelBytes);
+        delta.writeShort(keyBytes.length);
+        delta.writeBytes(keyBytes);
+
+        return delta;
+    }
+
+    /**
+     * To read the base segment of a framed document. The reader index of the
+     * buffer is moved to the first delta.
+     *
+     * @param buffer
+     * @return A slice of the buffer which contains the base segment
+     * @throws IOException
+     */
+    public static ByteBuf readBase(ByteBuf buffer) throws IOException {
+
+        try {
+
+            if (buffer.readByte() != MAGIC) throw new IOException("The data is not a framed adjacency list");
+
+            return buffer.readSlice(buffer.readInt());
+
+        } catch (IndexOutOfBoundsException e) {
+
+            throw new IOException("The adjacency list is corrupt", e);
+        }
+    }
+
+    /**
+     * To replay the deltas from the reader index of the buffer
+     *
+     * @param buffer
+     * @param handler
+     * @return The number of deltas
+     * @throws IOException
+     */
+    public static int replay(ByteBuf buffer, DeltaHandler handler) throws IOException {
+
+        int count = 0;
+
+        try {
+
+            while (buffer.isReadable()) {
+
+                byte op = buffer.readByte();
+
+                if (op != OP_ADD && op != OP_REMOVE) throw new IOException("Unknown adjacency list operation " + op);
+
+                Direction drctn = Direction.values()[buffer.readByte()];
+                String label = buffer.readSlice(buffer.readUnsignedShort()).toString(StandardCharsets.UTF_8);
+                String edgeKey = buffer.readSlice(buffer.readUnsignedShort()).toString(StandardCharsets.UTF_8);
+
+                handler.apply(op == OP_ADD, drctn, label, edgeKey);
+                count++;
+            }
+
+        } catch (IndexOutOfBoundsException e) {
+
+            throw new IOException("The adjacency list is corrupt", e);
+        }
+
+        return count;
+    }
+}
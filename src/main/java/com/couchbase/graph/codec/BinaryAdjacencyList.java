@@ -0,0 +1,438 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.codec;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.graph.CBModel;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of the adjacency lists of a vertex
+ *
+ * The edge keys of a vertex are repeating the vertex id and the label, e.g.
+ * 'e_tuc->|friend of|->2_tuc'. This encoding only stores the id of the other
+ * vertex per edge:
+ *
+ * - Header: magic byte, version
+ * - Label dictionary: count, then per label the length and the UTF-8 bytes
+ * - Per direction (out, in): the number of labels, then per label the index
+ *   in the dictionary followed by the numeric and the string id-s
+ * - Numeric id-s: count, then the sorted id-s as varint deltas
+ * - String id-s: count, then the sorted id-s as (shared prefix length, flag),
+ *   suffix length and suffix bytes
+ *
+ * Edge keys those were not derived from the vertex id-s (custom edge id-s)
+ * are stored as string id-s with the raw flag set. All numbers are unsigned
+ * varints.
+ *
+ * The magic byte differs from the codec id-s, so the format can be detected
+ * when reading an adjacency list document.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class BinaryAdjacencyList {
+
+    /**
+     * The first byte of the encoded data
+     */
+    public static final byte MAGIC = (byte) 0xAD;
+
+    /**
+     * The version of the format
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * The directions in the order in which they are encoded
+     */
+    private static final String[] DIRECTIONS = { CBModel.PROP_EDGES_OUT, CBModel.PROP_EDGES_IN };
+
+
+    /**
+     * Checks if the buffer contains a binary adjacency list
+     *
+     * @param buffer
+     * @return
+     */
+    public static boolean isEncoded(ByteBuf buffer) {
+
+        return buffer.readableBytes() > 0 && buffer.getByte(buffer.readerIndex()) == MAGIC;
+    }
+
+    /**
+     * To encode the adjacency lists of a vertex
+     *
+     * @param vId The id of the vertex
+     * @param edges The adjacency lists, e.g. {"out" : { "label" : [ "e_..." ] }, "in" : {} }
+     * @return
+     */
+    public static ByteBuf encode(Object vId, JsonObject edges) {
+
+        ByteBuf buffer = Unpooled.buffer();
+
+        buffer.writeByte(MAGIC);
+        buffer.writeByte(VERSION);
+
+        //The label dictionary
+        List<String> labels = new ArrayList<>();
+        Map<String, Integer> labelIdx = new HashMap<>();
+
+        for (String dir : DIRECTIONS) {
+
+            JsonObject labeled = edges.getObject(dir);
+
+            if (labeled == null) continue;
+
+            for (String label : labeled.getNames()) {
+
+                if (!labelIdx.containsKey(label)) {
+
+                    labelIdx.put(label, labels.size());
+                    labels.add(label);
+                }
+            }
+        }
+
+        writeVarLong(buffer, labels.size());
+
+        for (String label : labels) {
+
+            writeBytes(buffer, label.getBytes(StandardCharsets.UTF_8));
+        }
+
+        //The edges per direction and label
+        String vIdStr = vId.toString();
+
+        for (String dir : DIRECTIONS) {
+
+            JsonObject labeled = edges.getObject(dir);
+
+            if (labeled == null) {
+
+                writeVarLong(buffer, 0);
+                continue;
+            }
+
+            writeVarLong(buffer, labeled.size());
+
+            boolean out = dir.equals(CBModel.PROP_EDGES_OUT);
+
+            for (String label : labeled.getNames()) {
+
+                writeVarLong(buffer, labelIdx.get(label));
+                encodeLabeled(buffer, labeled.getArray(label), edgePrefix(out, vIdStr, label), edgeSuffix(out, vIdStr, label));
+            }
+        }
+
+        return buffer;
+    }
+
+    /**
+     * To decode the adjacency lists of a vertex. The buffer is read from its
+     * reader index, it is not released.
+     *
+     * @param vId The id of the vertex
+     * @param buffer
+     * @return
+     * @throws IOException
+     */
+    public static JsonObject decode(Object vId, ByteBuf buffer) throws IOException {
+
+        try {
+
+            if (buffer.readByte() != MAGIC) throw new IOException("The data is not a binary adjacency list");
+
+            byte version = buffer.readByte();
+
+            if (version != VERSION) throw new IOException("Unsupported binary adjacency list version " + version);
+
+            byte[] scratch = new byte[64];
+
+            //Reused to build the edge keys
+            StringBuilder key = new StringBuilder(64);
+
+            String[] labels = new String[readVarInt(buffer)];
+
+            for (int i = 0; i < labels.length; i++) {
+
+                int length = readVarInt(buffer);
+                scratch = ensureCapacity(scratch, length);
+                buffer.readBytes(scratch, 0, length);
+                labels[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+
+            JsonObject result = JsonObject.empty();
+            String vIdStr = vId.toString();
+
+            for (String dir : DIRECTIONS) {
+
+                JsonObject labeled = JsonObject.empty();
+
+                boolean out = dir.equals(CBModel.PROP_EDGES_OUT);
+
+                int numOfLabels = readVarInt(buffer);
+
+                for (int i = 0; i < numOfLabels; i++) {
+
+                    String label = labels[readVarInt(buffer)];
+
+                    JsonArray keys = JsonArray.empty();
+                    String prefix = edgePrefix(out, vIdStr, label);
+                    String suffix = edgeSuffix(out, vIdStr, label);
+
+                    //The numeric id-s
+                    int count = readVarInt(buffer);
+                    long last = 0;
+
+                    key.setLength(0);
+                    key.append(prefix);
+
+                    for (int j = 0; j < count; j++) {
+
+                        last += readVarLong(buffer);
+
+                        key.setLength(prefix.length());
+                        keys.add(key.append(last).append(suffix).toString());
+                    }
+
+                    //The string id-s, the scratch buffer keeps the previous id as the prefix
+                    count = readVarInt(buffer);
+
+                    for (int j = 0; j < count; j++) {
+
+                        int header = readVarInt(buffer);
+                        int shared = header >>> 1;
+                        int length = readVarInt(buffer);
+
+                        scratch = ensureCapacity(scratch, shared + length);
+                        buffer.readBytes(scratch, shared, length);
+
+                        String str = new String(scratch, 0, shared + length, StandardCharsets.UTF_8);
+
+                        if ((header & 1) == 1) {
+
+                            keys.add(str);
+
+                        } else {
+
+                            key.setLength(prefix.length());
+                            keys.add(key.append(str).append(suffix).toString());
+                        }
+                    }
+
+                    labeled.put(label, keys);
+                }
+
+                result.put(dir, labeled);
+            }
+
+            return result;
+
+        } catch (IndexOutOfBoundsException e) {
+
+            throw new IOException("The binary adjacency list is corrupt", e);
+        }
+    }
+
+    /**
+     * To encode the edge keys of one direction and label
+     *
+     * @param buffer
+     * @param keys
+     * @param prefix
+     * @param suffix
+     */
+    private static void encodeLabeled(ByteBuf buffer, JsonArray keys, String prefix, String suffix) {
+
+        List<Long> numeric = new ArrayList<>();
+        List<String> strings = new ArrayList<>();
+        List<String> raws = new ArrayList<>();
+
+        for (Object o : keys) {
+
+            String key = (String) o;
+
+            if (key.length() >= prefix.length() + suffix.length() && key.startsWith(prefix) && key.endsWith(suffix)) {
+
+                String other = key.substring(prefix.length(), key.length() - suffix.length());
+                Long num = parseCanonicalLong(other);
+
+                if (num != null) numeric.add(num);
+                else strings.add(other);
+
+            } else {
+
+                raws.add(key);
+            }
+        }
+
+        Collections.sort(numeric);
+
+        writeVarLong(buffer, numeric.size());
+
+        long last = 0;
+
+        for (long num : numeric) {
+
+            writeVarLong(buffer, num - last);
+            last = num;
+        }
+
+        Collections.sort(strings);
+        Collections.sort(raws);
+
+        writeVarLong(buffer, strings.size() + raws.size());
+
+        byte[] prev = new byte[0];
+        prev = writePrefixed(buffer, strings, false, prev);
+        writePrefixed(buffer, raws, true, prev);
+    }
+
+    /**
+     * To write strings by sharing the prefix with the previous one
+     *
+     * @param buffer
+     * @param strings
+     * @param raw
+     * @param prev
+     * @return The last written string
+     */
+    private static byte[] writePrefixed(ByteBuf buffer, List<String> strings, boolean raw, byte[] prev) {
+
+        for (String str : strings) {
+
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+
+            int shared = 0;
+            int max = Math.min(prev.length, bytes.length);
+
+            while (shared < max && prev[shared] == bytes[shared]) shared++;
+
+            writeVarLong(buffer, ((long) shared << 1) | (raw ? 1 : 0));
+            writeVarLong(buffer, bytes.length - shared);
+            buffer.writeBytes(bytes, shared, bytes.length - shared);
+
+            prev = bytes;
+        }
+
+        return prev;
+    }
+
+    /**
+     * The part of an edge key before the id of the other vertex
+     */
+    private static String edgePrefix(boolean out, String vId, String label) {
+
+        String labelPart = CBModel.EDGE_DELIM + CBModel.EDGE_LABEL_DELIM + label + CBModel.EDGE_LABEL_DELIM + CBModel.EDGE_DELIM;
+
+        return out ? CBModel.EDGE_PREFIX + vId + labelPart : CBModel.EDGE_PREFIX;
+    }
+
+    /**
+     * The part of an edge key after the id of the other vertex
+     */
+    private static String edgeSuffix(boolean out, String vId, String label) {
+
+        String labelPart = CBModel.EDGE_DELIM + CBModel.EDGE_LABEL_DELIM + label + CBModel.EDGE_LABEL_DELIM + CBModel.EDGE_DELIM;
+
+        return out ? "" : labelPart + vId;
+    }
+
+    /**
+     * Parses a non-negative long which is printed exactly in the same way
+     *
+     * @param str
+     * @return The long or null if the string is not such a number
+     */
+    private static Long parseCanonicalLong(String str) {
+
+        int length = str.length();
+
+        if (length == 0 || length > 18 || (length > 1 && str.charAt(0) == '0')) return null;
+
+        long result = 0;
+
+        for (int i = 0; i < length; i++) {
+
+            char c = str.charAt(i);
+
+            if (c < '0' || c > '9') return null;
+
+            result = result * 10 + (c - '0');
+        }
+
+        return result;
+    }
+
+    private static byte[] ensureCapacity(byte[] scratch, int length) {
+
+        if (scratch.length >= length) return scratch;
+
+        return Arrays.copyOf(scratch, Math.max(length, scratch.length * 2));
+    }
+
+    private static void writeBytes(ByteBuf buffer, byte[] bytes) {
+
+        writeVarLong(buffer, bytes.length);
+        buffer.writeBytes(bytes);
+    }
+
+    private static void writeVarLong(ByteBuf buffer, long value) {
+
+        while ((value & ~0x7FL) != 0) {
+
+            buffer.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        buffer.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuf buffer) throws IOException {
+
+        long result = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+
+            byte b = buffer.readByte();
+            result |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) return result;
+        }
+
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readVarInt(ByteBuf buffer) throws IOException {
+
+        long result = readVarLong(buffer);
+
+        if (result < 0 || result > Integer.MAX_VALUE) throw new IOException("Malformed varint");
+
+        return (int) result;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A compression codec
+ *
+ * The first byte of the compressed data is the id of the codec, so that the
+ * data can be decompressed even if another codec is configured in the
+ * meantime.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public interface Codec {
+
+    /**
+     * The id of the codec, which is the first byte of the compressed data
+     *
+     * @return
+     */
+    byte getId();
+
+    /**
+     * The name of the codec, which is used to select it via the configuration
+     *
+     * @return
+     */
+    String getName();
+
+    /**
+     * To compress some data
+     *
+     * @param data
+     * @return The compressed data, starting with the id of the codec
+     * @throws IOException
+     */
+    byte[] compress(byte[] data) throws IOException;
+
+    /**
+     * To decompress some data which was compressed by this codec
+     *
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    byte[] decompress(byte[] data) throws IOException;
+
+    /**
+     * To decompress a stream of data which was compressed by this codec. The
+     * default implementation reads the whole stream and decompresses it at
+     * once, streaming codecs should override it.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    default InputStream decompress(InputStream in) throws IOException {
+
+        ByteArrayOutputStream bas = new ByteArrayOutputStream(Math.max(in.available(), 32));
+
+        byte[] buffer = new byte[4096];
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+
+            bas.write(buffer, 0, read);
+        }
+
+        return new ByteArrayInputStream(decompress(bas.toByteArray()));
+    }
+}
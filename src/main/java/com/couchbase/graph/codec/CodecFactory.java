@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.codec;
+
+import com.couchbase.graph.cfg.ConfigManager;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides the codecs
+ *
+ * The codec which is used for the compression is configured via
+ * 'graph.compression.codec'. The value is either the name of a registered
+ * codec ('gzip', 'lz') or the class name of a custom codec. The codec which
+ * is used for the decompression is determined by the first byte of the data.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CodecFactory {
+
+    /**
+     * The registered codecs by id
+     */
+    private static final Map<Byte, Codec> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * The configured codec
+     */
+    private static Codec codec;
+
+    static {
+
+        register(new GzipCodec());
+        register(new LzCodec());
+    }
+
+
+    /**
+     * To register a codec, so that its data can be decompressed
+     *
+     * @param codec
+     */
+    public static void register(Codec codec) {
+
+        codecs.put(codec.getId(), codec);
+    }
+
+    /**
+     * To get the configured codec
+     *
+     * @return
+     * @throws IOException
+     */
+    public static synchronized Codec getCodec() throws IOException {
+
+        if (codec == null) codec = getCodec(ConfigManager.getGraphConfig().getCompressionCodec());
+
+        return codec;
+    }
+
+    /**
+     * To get a codec by its name or class name
+     *
+     * @param name
+     * @return
+     * @throws IOException
+     */
+    public static Codec getCodec(String name) throws IOException {
+
+        for (Codec c : codecs.values()) {
+
+            if (c.getName().equals(name)) return c;
+        }
+
+        try {
+
+            Codec c = (Codec) Class.forName(name).getDeclaredConstructor().newInstance();
+            register(c);
+
+            return c;
+
+        } catch (ReflectiveOperationException | ClassCastException e) {
+
+            throw new IOException("Unknown codec " + name, e);
+        }
+    }
+
+    /**
+     * To get the codec which compressed the given data
+     *
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    public static Codec getCodec(byte[] data) throws IOException {
+
+        if (data.length == 0) throw new IOException("The data was compressed by an unknown codec");
+
+        return getCodec(data[0]);
+    }
+
+    /**
+     * To get a codec by its id
+     *
+     * @param id
+     * @return
+     * @throws IOException
+     */
+    public static Codec getCodec(byte id) throws IOException {
+
+        Codec c = codecs.get(id);
+
+        if (c == null) throw new IOException("The data was compressed by an unknown codec");
+
+        return c;
+    }
+}
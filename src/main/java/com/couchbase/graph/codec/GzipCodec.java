@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The GZIP codec
+ *
+ * The id is the first byte of the GZIP magic number, so the data which was
+ * compressed before the codecs were introduced can still be decompressed.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class GzipCodec implements Codec {
+
+    /**
+     * The id of the codec
+     */
+    public static final byte ID = (byte) 0x1f;
+
+    /**
+     * The name of the codec
+     */
+    public static final String NAME = "gzip";
+
+
+    @Override
+    public byte getId() {
+
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+
+        ByteArrayOutputStream bas = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bas)) {
+
+            gzip.write(data);
+        }
+
+        return bas.toByteArray();
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) throws IOException {
+
+        ByteArrayOutputStream bas = new ByteArrayOutputStream(data.length * 4);
+
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+
+            byte[] buffer = new byte[4096];
+            int read;
+
+            while ((read = gzip.read(buffer)) != -1) {
+
+                bas.write(buffer, 0, read);
+            }
+        }
+
+        return bas.toByteArray();
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+
+        return new GZIPInputStream(in, 4096);
+    }
+}
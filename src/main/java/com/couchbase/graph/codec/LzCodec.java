@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 codec in pure Java
+ *
+ * The format is the one of a LZ4 block, prefixed by the id and by the
+ * uncompressed length (4 bytes). Each sequence is a token (4 bits literal
+ * length, 4 bits match length - 4), the literals, a 2 bytes little endian
+ * offset and the match. Lengths >= 15 are continued by additional bytes. The
+ * last sequence only has literals. Matches are found via a single hash table
+ * lookup, so the ratio is lower than the one of GZIP but the compression is
+ * much faster. Adjacency lists are very repetitive, so they still compress
+ * well.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class LzCodec implements Codec {
+
+    /**
+     * The id of the codec
+     */
+    public static final byte ID = (byte) 0x01;
+
+    /**
+     * The name of the codec
+     */
+    public static final String NAME = "lz";
+
+    /**
+     * The length of the header (id and uncompressed length)
+     */
+    private static final int HEADER_LENGTH = 5;
+
+    /**
+     * The min. length of a match
+     */
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * The max. distance of a match
+     */
+    private static final int MAX_OFFSET = 0xFFFF;
+
+    /**
+     * The last bytes are always encoded as literals
+     */
+    private static final int LAST_LITERALS = 5;
+
+    /**
+     * The number of bits of the hash table size
+     */
+    private static final int HASH_LOG = 12;
+
+
+    @Override
+    public byte getId() {
+
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+
+        int length = data.length;
+
+        //The worst case is a single literal run
+        byte[] result = new byte[HEADER_LENGTH + 1 + length + length / 255 + 1];
+
+        result[0] = ID;
+        writeInt(result, 1, length);
+
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+
+        int op = HEADER_LENGTH;
+        int anchor = 0;
+        int ip = 0;
+        int matchLimit = length - LAST_LITERALS;
+
+        while (ip + MIN_MATCH <= matchLimit) {
+
+            int sequence = readInt(data, ip);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+
+            int ref = table[hash];
+            table[hash] = ip;
+
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(data, ref) != sequence) {
+
+                ip++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+
+            while (ip + matchLength < matchLimit && data[ref + matchLength] == data[ip + matchLength]) {
+
+                matchLength++;
+            }
+
+            op = writeSequence(result, op, data, anchor, ip - anchor, ip - ref, matchLength);
+
+            ip += matchLength;
+            anchor = ip;
+        }
+
+        //The remaining literals without a match
+        int literalLength = length - anchor;
+
+        result[op++] = (byte) (Math.min(literalLength, 15) << 4);
+        op = writeLength(result, op, literalLength);
+        System.arraycopy(data, anchor, result, op, literalLength);
+        op += literalLength;
+
+        return Arrays.copyOf(result, op);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) throws IOException {
+
+        if (data.length < HEADER_LENGTH || data[0] != ID) throw new IOException("The data was not compressed by the LZ codec");
+
+        byte[] result = new byte[readInt(data, 1)];
+
+        int ip = HEADER_LENGTH;
+        int op = 0;
+
+        try {
+
+            while (ip < data.length) {
+
+                int token = data[ip++] & 0xFF;
+
+                int literalLength = token >>> 4;
+
+                if (literalLength == 15) {
+
+                    int b;
+
+                    do {
+
+                        b = data[ip++] & 0xFF;
+                        literalLength += b;
+
+                    } while (b == 255);
+                }
+
+                System.arraycopy(data, ip, result, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+
+                //The last sequence has no match
+                if (ip >= data.length) break;
+
+                int offset = (data[ip++] & 0xFF) | ((data[ip++] & 0xFF) << 8);
+                int matchLength = token & 0x0F;
+
+                if (matchLength == 15) {
+
+                    int b;
+
+                    do {
+
+                        b = data[ip++] & 0xFF;
+                        matchLength += b;
+
+                    } while (b == 255);
+                }
+
+                matchLength += MIN_MATCH;
+
+                int ref = op - offset;
+
+                if (offset == 0 || ref < 0) throw new IOException("Invalid match offset " + offset);
+
+                //The match may overlap with the output, so copy byte by byte
+                for (int i = 0; i < matchLength; i++) {
+
+                    result[op++] = result[ref + i];
+                }
+            }
+
+        } catch (IndexOutOfBoundsException e) {
+
+            throw new IOException("The compressed data is corrupt", e);
+        }
+
+        if (op != result.length) throw new IOException("The compressed data is truncated");
+
+        return result;
+    }
+
+    /**
+     * To write a sequence of literals and a match
+     *
+     * @param dest
+     * @param op
+     * @param src
+     * @param literalStart
+     * @param literalLength
+     * @param offset
+     * @param matchLength
+     * @return The new output position
+     */
+    private static int writeSequence(byte[] dest, int op, byte[] src, int literalStart, int literalLength, int offset, int matchLength) {
+
+        int matchCode = matchLength - MIN_MATCH;
+
+        dest[op++] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15));
+
+        op = writeLength(dest, op, literalLength);
+        System.arraycopy(src, literalStart, dest, op, literalLength);
+        op += literalLength;
+
+        dest[op++] = (byte) offset;
+        dest[op++] = (byte) (offset >>> 8);
+
+        return writeLength(dest, op, matchCode);
+    }
+
+    /**
+     * To write the continuation of a length which doesn't fit into the token
+     *
+     * @param dest
+     * @param op
+     * @param length
+     * @return The new output position
+     */
+    private static int writeLength(byte[] dest, int op, int length) {
+
+        if (length < 15) return op;
+
+        length -= 15;
+
+        while (length >= 255) {
+
+            dest[op++] = (byte) 255;
+            length -= 255;
+        }
+
+        dest[op++] = (byte) length;
+
+        return op;
+    }
+
+    private static int readInt(byte[] data, int pos) {
+
+        return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16) | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] data, int pos, int value) {
+
+        data[pos] = (byte) (value >>> 24);
+        data[pos + 1] = (byte) (value >>> 16);
+        data[pos + 2] = (byte) (value >>> 8);
+        data[pos + 3] = (byte) value;
+    }
+}
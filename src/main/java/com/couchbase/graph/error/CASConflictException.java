@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.error;
+
+/**
+ * Occours when a document could not be updated because it was modified
+ * concurrently more often than the update was retried
+ * 
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CASConflictException extends ABaseException {
+
+    /**
+     * The affected key
+     */
+    private final String key;
+    
+    /**
+     * The number of performed attempts
+     */
+    private final int attempts;
+    
+    /**
+     * The constructor
+     * 
+     * @param key
+     * @param attempts
+     * @param inner 
+     */
+    public CASConflictException(String key, int attempts, Exception inner) {
+        
+        super(inner);
+        
+        this.key = key;
+        this.attempts = attempts;
+    }
+
+    /**
+     * The error message
+     * @return 
+     */
+    @Override
+    public String toString() {
+        
+        return "The key " + key + " could not be updated after " + attempts + " attempts : " + inner.getMessage();
+    }
+}
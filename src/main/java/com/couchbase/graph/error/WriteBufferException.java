@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.error;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Occurs when a part of the write buffer could not be written
+ * 
+ * The failed elements are kept in the buffer, so the commit can be retried.
+ * This exception is unchecked because the buffer may also be flushed by the
+ * Blueprints methods those are adding vertices or edges.
+ * 
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class WriteBufferException extends RuntimeException {
+
+    /**
+     * The errors by the affected key
+     */
+    private final Map<String, Throwable> failures;
+    
+    
+    /**
+     * The constructor
+     * 
+     * @param failures 
+     */
+    public WriteBufferException(Map<String, Throwable> failures) {
+        
+        super(failures.isEmpty() ? null : failures.values().iterator().next());
+        
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * The errors by the affected key
+     * 
+     * @return 
+     */
+    public Map<String, Throwable> getFailures() {
+        
+        return failures;
+    }
+
+    /**
+     * The error message
+     * @return 
+     */
+    @Override
+    public String toString() {
+        
+        return "The keys " + failures.keySet() + " could not be written : " + (getCause() == null ? "" : getCause().getMessage());
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.helper;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Helper to wait before an operation is retried
+ * 
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class BackoffHelper {
+    
+    /**
+     * Sleeps for a random time between 0 and the given backoff and returns
+     * the doubled backoff, bounded by the maximum backoff
+     * 
+     * @param backoff
+     * @param maxBackoff
+     * @return The backoff to use for the next retry
+     * @throws InterruptedException 
+     */
+    public static long backoff(long backoff, long maxBackoff) throws InterruptedException {
+        
+        Thread.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+        
+        return Math.min(backoff * 2, maxBackoff);
+    }
+}
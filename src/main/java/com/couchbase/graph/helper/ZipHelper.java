@@ -15,22 +15,21 @@
  */
 package com.couchbase.graph.helper;
 
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.ByteBufInputStream;
 import com.couchbase.client.deps.io.netty.handler.codec.bytes.ByteArrayEncoder;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.transcoder.JacksonTransformers;
+import com.couchbase.graph.codec.Codec;
+import com.couchbase.graph.codec.CodecFactory;
 import com.couchbase.graph.error.ABaseException;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
- * Helper which wraps java.util.zip functionality for de-/compression purposes.
+ * Helper which wraps the codecs for de-/compression purposes.
  * 
  * 
  * @author David Maier <david.maier at couchbase.com>
@@ -79,7 +78,7 @@ public class ZipHelper {
     
     
     /**
-     * Compress some text
+     * Compress some text by using the configured codec
      *
      * @param text
      * @return
@@ -87,15 +86,9 @@ public class ZipHelper {
      */
     public static byte[] compress(String text) throws CompressionException {
 
-        ByteArrayOutputStream bas = new ByteArrayOutputStream();
-
         try {
 
-            GZIPOutputStream gzip = new GZIPOutputStream(bas);
-            gzip.write(text.getBytes("UTF-8"));
-            gzip.close();
-            
-            return bas.toByteArray();
+            return CodecFactory.getCodec().compress(text.getBytes(StandardCharsets.UTF_8));
 
         } catch (IOException ex) {
 
@@ -105,7 +98,8 @@ public class ZipHelper {
     }
 
     /**
-     * Decompress some previously compressed data
+     * Decompress some previously compressed data, the codec is determined by
+     * the first byte
      * 
      * @param data
      * @return 
@@ -115,24 +109,37 @@ public class ZipHelper {
                
         try {
             
-            GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data));
-            
-            BufferedReader reader = new BufferedReader(new InputStreamReader(gzip));
+            return new String(CodecFactory.getCodec(data).decompress(data), StandardCharsets.UTF_8);
+           
+        } catch (IOException ex) {
+           
+            throw new DecompressionException(ex);
+        }
+    }
+    
+    /**
+     * Decompress a previously compressed JSON object by streaming it from 
+     * the buffer through the codec into the JSON parser. Neither the 
+     * compressed nor the decompressed data is copied into an array. The 
+     * buffer is not released.
+     * 
+     * @param buffer
+     * @return
+     * @throws com.couchbase.graph.helper.ZipHelper.DecompressionException 
+     */
+    public static JsonObject decompressJson(ByteBuf buffer) throws DecompressionException {
+        
+        try {
             
-            StringBuilder result = new StringBuilder();
+            Codec codec = CodecFactory.getCodec(buffer.readableBytes() > 0 ? buffer.getByte(buffer.readerIndex()) : 0);
             
-            String line; 
-            while ((line=reader.readLine())!=null) {
+            try (InputStream in = codec.decompress(new ByteBufInputStream(buffer))) {
                 
-                result.append(line);
+                return JacksonTransformers.MAPPER.readValue(in, JsonObject.class);
             }
             
-            gzip.close();
-            
-            return result.toString();
-           
         } catch (IOException ex) {
-           
+            
             throw new DecompressionException(ex);
         }
     }
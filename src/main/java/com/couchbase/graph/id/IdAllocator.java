@@ -0,0 +1,262 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.id;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonLongDocument;
+import com.couchbase.client.java.error.DocumentAlreadyExistsException;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.graph.error.IdGenException;
+import java.util.concurrent.atomic.AtomicLong;
+import rx.Observable;
+
+/**
+ * A HiLo id allocator
+ *
+ * A block of ids is reserved by incrementing a counter document by the block
+ * size. The ids of the block are then handed out without any network round
+ * trip. The next block is reserved asynchronously as soon as only a quarter of
+ * the current block is left.
+ *
+ * The blocks can be striped across several counter documents in order to
+ * avoid a hot document. The counter of stripe s counts local ids, whereby the
+ * id is 'local * stripes + s'. The first stripe uses the counter document
+ * itself, so a single stripe continues the ids of a plain counter. A new
+ * stripe starts behind the current value of the first one.
+ *
+ * The number of stripes is stored in the document '$counterKey_stripes' when
+ * the first block is reserved. A different number of stripes would map the
+ * counters to already issued ids, so the reservation is refused if it doesn't
+ * match the stored one.
+ *
+ * Ids of unused blocks are lost, so the ids are unique but have gaps.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class IdAllocator {
+
+    /**
+     * The client instance to use
+     */
+    private final Bucket client;
+
+    /**
+     * The key of the counter document of the first stripe
+     */
+    private final String counterKey;
+
+    /**
+     * The number of ids per block
+     */
+    private final long blockSize;
+
+    /**
+     * The number of counter documents
+     */
+    private final int stripes;
+
+    /**
+     * If the number of stripes was checked against the stored one
+     */
+    private volatile boolean verified = false;
+
+    /**
+     * The number of remaining ids those trigger the reservation of the next block
+     */
+    private final long refillThreshold;
+
+    /**
+     * The number of reserved blocks, used to choose the stripe
+     */
+    private long numOfBlocks = 0;
+
+    /**
+     * The current block
+     */
+    private volatile Block block = new Block(0, 1, 0);
+
+    /**
+     * The next block which is already being reserved, null if there is none
+     */
+    private Observable<Block> pending;
+
+
+    /**
+     * The constructor
+     *
+     * @param client
+     * @param counterKey
+     * @param blockSize
+     * @param stripes
+     */
+    public IdAllocator(Bucket client, String counterKey, long blockSize, int stripes) {
+
+        this.client = client;
+        this.counterKey = counterKey;
+        this.blockSize = blockSize;
+        this.stripes = stripes;
+        this.refillThreshold = blockSize / 4;
+    }
+
+    /**
+     * To get the next id
+     *
+     * @return
+     * @throws IdGenException
+     */
+    public long next() throws IdGenException {
+
+        while (true) {
+
+            Block current = block;
+
+            long local = current.next.getAndIncrement();
+
+            if (local <= current.hi) {
+
+                if (current.hi - local == refillThreshold) prefetch();
+
+                return local * stripes + current.stripe;
+            }
+
+            refill(current);
+        }
+    }
+
+    /**
+     * To replace the exhausted block with the next one
+     *
+     * @param exhausted
+     * @throws IdGenException
+     */
+    private synchronized void refill(Block exhausted) throws IdGenException {
+
+        //Another thread already refilled
+        if (block != exhausted) return;
+
+        Observable<Block> next = pending != null ? pending : reserve();
+        pending = null;
+
+        try {
+
+            block = next.toBlocking().single();
+
+        } catch (RuntimeException e) {
+
+            throw new IdGenException(e);
+        }
+    }
+
+    /**
+     * To start the reservation of the next block
+     */
+    private synchronized void prefetch() {
+
+        if (pending != null) return;
+
+        pending = reserve().cache();
+
+        //A failure is reported by the refill
+        pending.subscribe(b -> {}, e -> {});
+    }
+
+    /**
+     * To reserve a block asynchronously, the stripes are used round robin
+     *
+     * @return
+     */
+    private synchronized Observable<Block> reserve() {
+
+        int stripe = (int) (numOfBlocks++ % stripes);
+
+        String key = stripe == 0 ? counterKey : counterKey + "_" + stripe;
+
+        Observable<Long> counter = client.async().counter(key, blockSize)
+                .onErrorResumeNext(e -> {
+
+                    if (!(e instanceof DocumentDoesNotExistException)) return Observable.error(e);
+
+                    //Start behind the current value of the first stripe
+                    return client.async().counter(counterKey, 0, 0)
+                            .flatMap(first -> client.async().counter(key, blockSize, first.content() + blockSize));
+                })
+                .map(JsonLongDocument::content);
+
+        Observable<Long> checked = verified ? counter : verifyStripes().flatMap(v -> counter);
+
+        return checked.map(hi -> new Block(stripe, hi - blockSize + 1, hi));
+    }
+
+    /**
+     * To store the number of stripes or to check it against the stored one
+     *
+     * @return
+     */
+    private Observable<Boolean> verifyStripes() {
+
+        String key = counterKey + "_stripes";
+
+        return client.async().insert(JsonLongDocument.create(key, (long) stripes))
+                .map(JsonLongDocument::content)
+                .onErrorResumeNext(e -> {
+
+                    if (!(e instanceof DocumentAlreadyExistsException)) return Observable.error(e);
+
+                    return client.async().get(key, JsonLongDocument.class).map(JsonLongDocument::content);
+                })
+                .flatMap(stored -> {
+
+                    if (stored != stripes) {
+
+                        return Observable.error(new IllegalStateException("The ids of " + counterKey + " were issued with "
+                                + stored + " stripes, but " + stripes + " stripes are configured"));
+                    }
+
+                    verified = true;
+                    return Observable.just(true);
+                });
+    }
+
+    /**
+     * A reserved block of local ids
+     */
+    private static class Block {
+
+        /**
+         * The stripe of the block
+         */
+        private final int stripe;
+
+        /**
+         * The next local id
+         */
+        private final AtomicLong next;
+
+        /**
+         * The last local id of the block
+         */
+        private final long hi;
+
+
+        public Block(int stripe, long lo, long hi) {
+
+            this.stripe = stripe;
+            this.next = new AtomicLong(lo);
+            this.hi = hi;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.io;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.graph.CBEdge;
+import com.couchbase.graph.CBGraph;
+import com.couchbase.graph.CBModel;
+import com.couchbase.graph.CBVertex;
+import com.couchbase.graph.conn.ConnectionFactory;
+import com.couchbase.graph.query.QueryBackendFactory;
+import com.tinkerpop.blueprints.Direction;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import rx.Observable;
+
+/**
+ * Streams all vertices and edges of a graph to an output stream
+ *
+ * The vertex documents are scanned page by page, so only one page is kept in
+ * memory. The vertices are written first. Then the vertices are scanned
+ * again and the edges are written from the outgoing adjacency lists, so each
+ * edge is written exactly once. An edge document is only fetched if the edge
+ * properties are exported or if its key doesn't contain the vertex ids and
+ * the label.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public abstract class GraphExporter {
+
+    /**
+     * The Logger
+     */
+    private static final Logger LOG = Logger.getLogger(GraphExporter.class.getName());
+
+    /**
+     * The number of written elements between two progress messages
+     */
+    private static final long REPORT_INTERVAL = 100000;
+
+    /**
+     * The graph to export
+     */
+    protected final CBGraph graph;
+
+    /**
+     * If the properties of the edges are exported
+     */
+    private boolean edgeProperties = true;
+
+    /**
+     * The number of written vertices
+     */
+    private long vertices;
+
+    /**
+     * The number of written edges
+     */
+    private long edges;
+
+    /**
+     * The number of fetched edge documents
+     */
+    private long fetchedEdges;
+
+    /**
+     * The time when the export was started
+     */
+    private long start;
+
+    /**
+     * The time when the export was finished
+     */
+    private long end;
+
+
+    /**
+     * The constructor
+     *
+     * @param graph
+     */
+    protected GraphExporter(CBGraph graph) {
+
+        this.graph = graph;
+    }
+
+    /**
+     * If disabled then the edges are written without their properties,
+     * which avoids to fetch the edge documents
+     *
+     * @param edgeProperties
+     */
+    public void setEdgeProperties(boolean edgeProperties) {
+
+        this.edgeProperties = edgeProperties;
+    }
+
+    /**
+     * To export the graph
+     *
+     * @param out The stream is not closed
+     * @return The number of written elements
+     * @throws IOException
+     */
+    public long export(OutputStream out) throws IOException {
+
+        vertices = 0;
+        edges = 0;
+        fetchedEdges = 0;
+        start = System.currentTimeMillis();
+        end = 0;
+
+        startGraph(out);
+
+        for (JsonDocument doc : scanVertices()) {
+
+            writeVertex(CBVertex.parseVertexKey(doc.id()), getProps(doc.content()));
+
+            vertices++;
+            report();
+        }
+
+        startEdges();
+
+        for (JsonDocument doc : scanVertices()) {
+
+            List<String> edgeKeys = new CBVertex(doc, graph).getAllEdgeKeys(Direction.OUT);
+
+            if (edgeProperties || !edgeKeys.stream().allMatch(GraphExporter::isDerivedKey)) {
+
+                writeEdges(edgeKeys);
+
+            } else {
+
+                for (String eKey : edgeKeys) {
+
+                    String[] parsed = CBEdge.parseEdgeKey(eKey);
+
+                    writeEdge(parsed[0], parsed[2], parsed[4], parsed[3], Collections.emptyMap());
+
+                    edges++;
+                    report();
+                }
+            }
+        }
+
+        endGraph();
+
+        end = System.currentTimeMillis();
+
+        LOG.log(Level.INFO, "Finished the export: {0}", toStatsString());
+
+        return vertices + edges;
+    }
+
+    /**
+     * The number of written elements per second
+     *
+     * @return
+     */
+    public long getElementsPerSec() {
+
+        long duration = (end == 0 ? System.currentTimeMillis() : end) - start;
+
+        return (vertices + edges) * 1000 / Math.max(duration, 1);
+    }
+
+    /**
+     * A readable summary of the export
+     *
+     * @return
+     */
+    public String toStatsString() {
+
+        return "vertices = " + vertices + ", edges = " + edges + ", fetched edges = " + fetchedEdges
+                + ", elements/sec = " + getElementsPerSec();
+    }
+
+    /**
+     * To write the header
+     *
+     * @param out
+     * @throws IOException
+     */
+    protected abstract void startGraph(OutputStream out) throws IOException;
+
+    /**
+     * To write a vertex
+     *
+     * @param id
+     * @param props
+     * @throws IOException
+     */
+    protected abstract void writeVertex(Object id, Map<String, Object> props) throws IOException;
+
+    /**
+     * Called after the last vertex and before the first edge
+     *
+     * @throws IOException
+     */
+    protected abstract void startEdges() throws IOException;
+
+    /**
+     * To write an edge
+     *
+     * @param id
+     * @param outId
+     * @param inId
+     * @param label
+     * @param props
+     * @throws IOException
+     */
+    protected abstract void writeEdge(Object id, Object outId, Object inId, String label, Map<String, Object> props) throws IOException;
+
+    /**
+     * To write the footer and to flush the output
+     *
+     * @throws IOException
+     */
+    protected abstract void endGraph() throws IOException;
+
+    /**
+     * To fetch the edge documents of one vertex in parallel and to write them
+     *
+     * @param edgeKeys
+     * @throws IOException
+     */
+    private void writeEdges(List<String> edgeKeys) throws IOException {
+
+        AsyncBucket client = ConnectionFactory.getBucketCon().async();
+
+        List<JsonDocument> docs = Observable.from(edgeKeys)
+                .flatMap(key -> client.get(key))
+                .toList()
+                .toBlocking()
+                .single();
+
+        fetchedEdges += docs.size();
+
+        for (JsonDocument doc : docs) {
+
+            JsonObject edge = doc.content();
+
+            writeEdge(doc.id().substring(CBModel.EDGE_PREFIX.length()),
+                      CBVertex.parseVertexKey(edge.getString(CBModel.PROP_FROM)),
+                      CBVertex.parseVertexKey(edge.getString(CBModel.PROP_TO)),
+                      edge.getString(CBModel.PROP_LABEL),
+                      edgeProperties ? getProps(edge) : Collections.emptyMap());
+
+            edges++;
+            report();
+        }
+    }
+
+    /**
+     * To scan all vertex documents page by page
+     *
+     * @return
+     */
+    private Iterable<JsonDocument> scanVertices() {
+
+        return QueryBackendFactory.getBackend().queryAll(CBModel.VAL_TYPE_VERTEX, doc -> doc, graph.getViewConsistency());
+    }
+
+    /**
+     * To log the progress
+     */
+    private void report() {
+
+        if ((vertices + edges) % REPORT_INTERVAL == 0) LOG.log(Level.INFO, "Export in progress: {0}", toStatsString());
+    }
+
+    /**
+     * Checks if the key of an edge contains the vertex ids and the label
+     *
+     * @param eKey
+     * @return
+     */
+    private static boolean isDerivedKey(String eKey) {
+
+        return CBEdge.parseEdgeKey(eKey)[3] != null;
+    }
+
+    /**
+     * The properties of a vertex or edge document
+     *
+     * @param content
+     * @return
+     */
+    private static Map<String, Object> getProps(JsonObject content) {
+
+        JsonObject props = content.getObject(CBModel.PROP_PROPS);
+
+        return props == null ? Collections.emptyMap() : props.toMap();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.io;
+
+import com.couchbase.graph.bulk.BulkLoader;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a graph from an input stream and writes it via the BulkLoader
+ *
+ * The input is parsed element by element, so it is not kept in memory. The
+ * graph is expected to be empty, see BulkLoader.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public abstract class GraphImporter {
+
+    /**
+     * The loader of the current import
+     */
+    private BulkLoader loader;
+
+    /**
+     * To import a graph
+     *
+     * @param in The stream is not closed
+     * @return The number of written documents
+     * @throws IOException
+     */
+    public long load(InputStream in) throws IOException {
+
+        loader = new BulkLoader();
+
+        read(in, loader);
+
+        return loader.finish();
+    }
+
+    /**
+     * The number of documents those could not be written
+     *
+     * @return
+     */
+    public long getFailed() {
+
+        return loader == null ? 0 : loader.getFailed();
+    }
+
+    /**
+     * A readable summary of the import, e.g. the written documents per second
+     *
+     * @return
+     */
+    public String toStatsString() {
+
+        return loader == null ? "" : loader.toStatsString();
+    }
+
+    /**
+     * To parse the input and to pass the vertices and edges to the loader
+     *
+     * @param in
+     * @param loader
+     * @throws IOException
+     */
+    protected abstract void read(InputStream in, BulkLoader loader) throws IOException;
+}
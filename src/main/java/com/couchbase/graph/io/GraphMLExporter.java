@@ -0,0 +1,286 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.io;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.graph.CBGraph;
+import com.tinkerpop.blueprints.util.io.graphml.GraphMLTokens;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Streams a graph as GraphML, which can be read by the GraphMLImporter or by
+ * the Blueprints GraphMLReader
+ *
+ * GraphML declares the property keys and their types before the graph. So
+ * the nodes and edges are written to a temp. file first, while the keys are
+ * collected. The file is then copied to the output after the declarations.
+ * A key with values of different types is declared as string. The ids of the
+ * keys are prefixed with 'v_' or 'e_', so a vertex and an edge property with
+ * the same name are declared as two keys.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class GraphMLExporter extends GraphExporter {
+
+    /**
+     * The prefix of the vertex key ids
+     */
+    private static final String VERTEX_KEY_PREFIX = "v_";
+
+    /**
+     * The prefix of the edge key ids
+     */
+    private static final String EDGE_KEY_PREFIX = "e_";
+
+    /**
+     * The output of the current export
+     */
+    private OutputStream out;
+
+    /**
+     * The temp. file which contains the nodes and edges
+     */
+    private File body;
+
+    /**
+     * The writer of the temp. file
+     */
+    private XMLStreamWriter writer;
+
+    /**
+     * The types of the vertex property keys
+     */
+    private final Map<String, String> vertexKeys = new TreeMap<>();
+
+    /**
+     * The types of the edge property keys
+     */
+    private final Map<String, String> edgeKeys = new TreeMap<>();
+
+    /**
+     * The constructor
+     *
+     * @param graph
+     */
+    public GraphMLExporter(CBGraph graph) {
+
+        super(graph);
+    }
+
+    @Override
+    protected void startGraph(OutputStream out) throws IOException {
+
+        this.out = out;
+
+        vertexKeys.clear();
+        edgeKeys.clear();
+
+        body = File.createTempFile("cbgraph-export-", ".graphml");
+        body.deleteOnExit();
+
+        try {
+
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(new BufferedOutputStream(new FileOutputStream(body), 1 << 16), "UTF-8");
+
+        } catch (XMLStreamException e) {
+
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    protected void writeVertex(Object id, Map<String, Object> props) throws IOException {
+
+        try {
+
+            writer.writeStartElement(GraphMLTokens.NODE);
+            writer.writeAttribute(GraphMLTokens.ID, id.toString());
+            writeData(props, vertexKeys, VERTEX_KEY_PREFIX);
+            writer.writeEndElement();
+
+        } catch (XMLStreamException e) {
+
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    protected void startEdges() throws IOException {
+    }
+
+    @Override
+    protected void writeEdge(Object id, Object outId, Object inId, String label, Map<String, Object> props) throws IOException {
+
+        try {
+
+            writer.writeStartElement(GraphMLTokens.EDGE);
+            writer.writeAttribute(GraphMLTokens.ID, id.toString());
+            writer.writeAttribute(GraphMLTokens.SOURCE, outId.toString());
+            writer.writeAttribute(GraphMLTokens.TARGET, inId.toString());
+            writer.writeAttribute(GraphMLTokens.LABEL, label);
+            writeData(props, edgeKeys, EDGE_KEY_PREFIX);
+            writer.writeEndElement();
+
+        } catch (XMLStreamException e) {
+
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    protected void endGraph() throws IOException {
+
+        try {
+
+            writer.close();
+
+            XMLStreamWriter header = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+
+            header.writeStartDocument("UTF-8", "1.0");
+            header.writeStartElement(GraphMLTokens.GRAPHML);
+            header.writeAttribute(GraphMLTokens.XMLNS, GraphMLTokens.GRAPHML_XMLNS);
+
+            writeKeys(header, vertexKeys, GraphMLTokens.NODE, VERTEX_KEY_PREFIX);
+            writeKeys(header, edgeKeys, GraphMLTokens.EDGE, EDGE_KEY_PREFIX);
+
+            header.writeStartElement(GraphMLTokens.GRAPH);
+            header.writeAttribute(GraphMLTokens.ID, GraphMLTokens.G);
+            header.writeAttribute(GraphMLTokens.EDGEDEFAULT, GraphMLTokens.DIRECTED);
+
+            //Closes the start tag of the graph element
+            header.writeCharacters("");
+            header.flush();
+
+            try (InputStream in = new BufferedInputStream(new FileInputStream(body), 1 << 16)) {
+
+                byte[] buffer = new byte[1 << 16];
+                int len;
+
+                while ((len = in.read(buffer)) != -1) out.write(buffer, 0, len);
+            }
+
+            header.writeEndElement();
+            header.writeEndElement();
+            header.writeEndDocument();
+            header.close();
+
+            out.flush();
+
+        } catch (XMLStreamException e) {
+
+            throw new IOException(e);
+
+        } finally {
+
+            body.delete();
+        }
+    }
+
+    /**
+     * To write the properties as data elements and to remember their types
+     *
+     * @param props
+     * @param keys
+     * @param prefix The prefix of the key ids
+     * @throws XMLStreamException
+     */
+    private void writeData(Map<String, Object> props, Map<String, String> keys, String prefix) throws XMLStreamException {
+
+        for (Map.Entry<String, Object> prop : props.entrySet()) {
+
+            if (prop.getValue() == null) continue;
+
+            String type = getType(prop.getValue());
+            String known = keys.putIfAbsent(prop.getKey(), type);
+
+            if (known != null && !known.equals(type)) keys.put(prop.getKey(), GraphMLTokens.STRING);
+
+            writer.writeStartElement(GraphMLTokens.DATA);
+            writer.writeAttribute(GraphMLTokens.KEY, prefix + prop.getKey());
+            writer.writeCharacters(toText(prop.getValue()));
+            writer.writeEndElement();
+        }
+    }
+
+    /**
+     * To declare the keys
+     *
+     * @param header
+     * @param keys
+     * @param scope Either node or edge
+     * @param prefix The prefix of the key ids
+     * @throws XMLStreamException
+     */
+    private static void writeKeys(XMLStreamWriter header, Map<String, String> keys, String scope, String prefix) throws XMLStreamException {
+
+        for (Map.Entry<String, String> key : keys.entrySet()) {
+
+            header.writeStartElement(GraphMLTokens.KEY);
+            header.writeAttribute(GraphMLTokens.ID, prefix + key.getKey());
+            header.writeAttribute(GraphMLTokens.FOR, scope);
+            header.writeAttribute(GraphMLTokens.ATTR_NAME, key.getKey());
+            header.writeAttribute(GraphMLTokens.ATTR_TYPE, key.getValue());
+            header.writeEndElement();
+        }
+    }
+
+    /**
+     * The text of a property value, nested values are written as JSON
+     *
+     * @param value
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private static String toText(Object value) {
+
+        if (value instanceof Map) return JsonObject.from((Map<String, ?>) value).toString();
+        if (value instanceof List) return JsonArray.from((List<?>) value).toString();
+
+        return value.toString();
+    }
+
+    /**
+     * The GraphML type of a property value, nested values are written as string
+     *
+     * @param value
+     * @return
+     */
+    private static String getType(Object value) {
+
+        if (value instanceof Integer) return GraphMLTokens.INT;
+        if (value instanceof Long) return GraphMLTokens.LONG;
+        if (value instanceof Float) return GraphMLTokens.FLOAT;
+        if (value instanceof Double) return GraphMLTokens.DOUBLE;
+        if (value instanceof Boolean) return GraphMLTokens.BOOLEAN;
+
+        return GraphMLTokens.STRING;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.io;
+
+import com.couchbase.graph.bulk.BulkLoader;
+import com.tinkerpop.blueprints.util.io.graphml.GraphMLTokens;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Imports a graph from GraphML, e.g. as written by the GraphMLExporter or by
+ * the Blueprints GraphMLWriter
+ *
+ * The document is parsed via StAX, so only the current node or edge is kept
+ * in memory. The data values are converted to the declared types of their
+ * keys, float values are stored as double. Edges without a label get the
+ * label '_default'.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class GraphMLImporter extends GraphImporter {
+
+    @Override
+    protected void read(InputStream in, BulkLoader loader) throws IOException {
+
+        //The names and types of the keys by key id
+        Map<String, String> keyNames = new HashMap<>();
+        Map<String, String> keyTypes = new HashMap<>();
+
+        //The current node or edge
+        String id = null;
+        String source = null;
+        String target = null;
+        String label = null;
+        Map<String, Object> props = null;
+
+        try {
+
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+            while (reader.hasNext()) {
+
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+
+                    switch (reader.getLocalName()) {
+
+                        case GraphMLTokens.KEY:
+
+                            String keyId = reader.getAttributeValue(null, GraphMLTokens.ID);
+                            String name = reader.getAttributeValue(null, GraphMLTokens.ATTR_NAME);
+
+                            keyNames.put(keyId, name == null ? keyId : name);
+                            keyTypes.put(keyId, reader.getAttributeValue(null, GraphMLTokens.ATTR_TYPE));
+                            break;
+
+                        case GraphMLTokens.NODE:
+                        case GraphMLTokens.EDGE:
+
+                            id = reader.getAttributeValue(null, GraphMLTokens.ID);
+                            source = reader.getAttributeValue(null, GraphMLTokens.SOURCE);
+                            target = reader.getAttributeValue(null, GraphMLTokens.TARGET);
+                            label = reader.getAttributeValue(null, GraphMLTokens.LABEL);
+                            props = new HashMap<>();
+                            break;
+
+                        case GraphMLTokens.DATA:
+
+                            String key = reader.getAttributeValue(null, GraphMLTokens.KEY);
+                            String value = reader.getElementText();
+
+                            //Data of the graph itself is ignored
+                            if (props == null) break;
+
+                            props.put(keyNames.getOrDefault(key, key), typeCast(value, keyTypes.get(key)));
+                            break;
+                    }
+
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+
+                    switch (reader.getLocalName()) {
+
+                        case GraphMLTokens.NODE:
+
+                            loader.addVertex(id, props);
+                            props = null;
+                            break;
+
+                        case GraphMLTokens.EDGE:
+
+                            loader.addEdge(id, source, target, label == null ? GraphMLTokens._DEFAULT : label, props);
+                            props = null;
+                            break;
+                    }
+                }
+            }
+
+            reader.close();
+
+        } catch (XMLStreamException e) {
+
+            throw new IOException("Could not parse the GraphML input", e);
+        }
+    }
+
+    /**
+     * To convert a value to the declared type
+     *
+     * @param value
+     * @param type
+     * @return
+     */
+    private static Object typeCast(String value, String type) {
+
+        if (type == null) return value;
+
+        switch (type) {
+
+            case GraphMLTokens.INT:
+                return Integer.valueOf(value);
+
+            case GraphMLTokens.LONG:
+                return Long.valueOf(value);
+
+            case GraphMLTokens.FLOAT:
+            case GraphMLTokens.DOUBLE:
+                return Double.valueOf(value);
+
+            case GraphMLTokens.BOOLEAN:
+                return Boolean.valueOf(value);
+
+            default:
+                return value;
+        }
+    }
+}
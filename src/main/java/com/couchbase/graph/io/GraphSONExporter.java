@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.io;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.core.JsonEncoding;
+import com.couchbase.client.deps.com.fasterxml.jackson.core.JsonGenerator;
+import com.couchbase.client.java.transcoder.JacksonTransformers;
+import com.couchbase.graph.CBGraph;
+import com.tinkerpop.blueprints.util.io.graphson.GraphSONMode;
+import com.tinkerpop.blueprints.util.io.graphson.GraphSONTokens;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Streams a graph as GraphSON (normal mode), which can be read by the
+ * GraphSONImporter or by the Blueprints GraphSONReader:
+ *
+ *  {
+ *     "mode" : "NORMAL",
+ *     "vertices" : [ {"name" : "tuc", "_id" : "1", "_type" : "vertex"}, ... ],
+ *     "edges" : [ {"_id" : "1->|knows|->2", "_type" : "edge", "_outV" : "1", "_inV" : "2", "_label" : "knows"}, ... ]
+ *  }
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class GraphSONExporter extends GraphExporter {
+
+    /**
+     * The generator of the current export
+     */
+    private JsonGenerator gen;
+
+    /**
+     * The constructor
+     *
+     * @param graph
+     */
+    public GraphSONExporter(CBGraph graph) {
+
+        super(graph);
+    }
+
+    @Override
+    protected void startGraph(OutputStream out) throws IOException {
+
+        gen = JacksonTransformers.MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        gen.writeStartObject();
+        gen.writeStringField(GraphSONTokens.MODE, GraphSONMode.NORMAL.name());
+        gen.writeArrayFieldStart(GraphSONTokens.VERTICES);
+    }
+
+    @Override
+    protected void writeVertex(Object id, Map<String, Object> props) throws IOException {
+
+        gen.writeStartObject();
+        writeProps(props);
+        gen.writeStringField(GraphSONTokens._ID, id.toString());
+        gen.writeStringField(GraphSONTokens._TYPE, GraphSONTokens.VERTEX);
+        gen.writeEndObject();
+    }
+
+    @Override
+    protected void startEdges() throws IOException {
+
+        gen.writeEndArray();
+        gen.writeArrayFieldStart(GraphSONTokens.EDGES);
+    }
+
+    @Override
+    protected void writeEdge(Object id, Object outId, Object inId, String label, Map<String, Object> props) throws IOException {
+
+        gen.writeStartObject();
+        writeProps(props);
+        gen.writeStringField(GraphSONTokens._ID, id.toString());
+        gen.writeStringField(GraphSONTokens._TYPE, GraphSONTokens.EDGE);
+        gen.writeStringField(GraphSONTokens._OUT_V, outId.toString());
+        gen.writeStringField(GraphSONTokens._IN_V, inId.toString());
+        gen.writeStringField(GraphSONTokens._LABEL, label);
+        gen.writeEndObject();
+    }
+
+    @Override
+    protected void endGraph() throws IOException {
+
+        gen.writeEndArray();
+        gen.writeEndObject();
+        gen.close();
+    }
+
+    /**
+     * To write the properties as fields of the current object
+     *
+     * @param props
+     * @throws IOException
+     */
+    private void writeProps(Map<String, Object> props) throws IOException {
+
+        for (Map.Entry<String, Object> prop : props.entrySet()) {
+
+            gen.writeFieldName(prop.getKey());
+            gen.writeObject(prop.getValue());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.io;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.core.JsonParser;
+import com.couchbase.client.deps.com.fasterxml.jackson.core.JsonToken;
+import com.couchbase.client.java.transcoder.JacksonTransformers;
+import com.couchbase.graph.bulk.BulkLoader;
+import com.tinkerpop.blueprints.util.io.graphson.GraphSONMode;
+import com.tinkerpop.blueprints.util.io.graphson.GraphSONTokens;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Imports a graph from GraphSON (normal mode), e.g. as written by the
+ * GraphSONExporter or by the Blueprints GraphSONWriter
+ *
+ * The vertices and edges are parsed one by one. The edges may come before
+ * the vertices.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class GraphSONImporter extends GraphImporter {
+
+    @Override
+    protected void read(InputStream in, BulkLoader loader) throws IOException {
+
+        JsonParser parser = JacksonTransformers.MAPPER.getFactory().createParser(in);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+        if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("The input is not a GraphSON object");
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+
+            String field = parser.getCurrentName();
+            parser.nextToken();
+
+            switch (field) {
+
+                case GraphSONTokens.MODE:
+
+                    if (!GraphSONMode.NORMAL.name().equals(parser.getText())) {
+
+                        throw new IOException("The GraphSON mode " + parser.getText() + " is not supported");
+                    }
+                    break;
+
+                case GraphSONTokens.VERTICES:
+
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+
+                        Map<String, Object> props = readElement(parser);
+
+                        Object id = props.remove(GraphSONTokens._ID);
+
+                        loader.addVertex(id, props);
+                    }
+                    break;
+
+                case GraphSONTokens.EDGES:
+
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+
+                        Map<String, Object> props = readElement(parser);
+
+                        Object id = props.remove(GraphSONTokens._ID);
+                        Object outId = props.remove(GraphSONTokens._OUT_V);
+                        Object inId = props.remove(GraphSONTokens._IN_V);
+                        String label = String.valueOf(props.remove(GraphSONTokens._LABEL));
+
+                        loader.addEdge(id, outId, inId, label, props);
+                    }
+                    break;
+
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * To read the element at the current position
+     *
+     * @param parser
+     * @return The properties including the reserved ones, except the type
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readElement(JsonParser parser) throws IOException {
+
+        Map<String, Object> props = parser.readValueAs(Map.class);
+        props.remove(GraphSONTokens._TYPE);
+
+        return props;
+    }
+}
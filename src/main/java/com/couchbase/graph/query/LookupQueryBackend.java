@@ -0,0 +1,482 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.query;
+
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.CASMismatchException;
+import com.couchbase.client.java.error.DocumentAlreadyExistsException;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.error.RequestTooBigException;
+import com.couchbase.graph.CBModel;
+import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.CouchbaseConfig.ViewConsistency;
+import static com.couchbase.graph.views.ViewManager.client;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+/**
+ * Iterates all vertices and edges via lookup documents
+ *
+ * The keys of the documents of a type are spread across a fixed number of
+ * lookup documents. Each lookup document is an append-only log of the added
+ * ('+key') and removed ('-key') keys:
+ *
+ * {
+ *   'type' : 'lookup',
+ *   'keys' : ['+v_1', '+v_2', '-v_1']
+ * }
+ *
+ * So a full iteration costs one get per lookup document in order to enumerate
+ * the keys and doesn't depend on the freshness of an index. A lookup document
+ * is compacted after 'graph.lookup.compact.threshold' appends of this client
+ * and if an append fails because the document became too big. Properties are
+ * still looked up via views.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class LookupQueryBackend extends ViewQueryBackend {
+
+    private static final Logger LOG = Logger.getLogger(LookupQueryBackend.class.getName());
+
+    /**
+     * The prefix of an added key
+     */
+    private static final String ADDED = "+";
+
+    /**
+     * The prefix of a removed key
+     */
+    private static final String REMOVED = "-";
+
+    /**
+     * The number of lookup documents per type
+     */
+    private final int shards = ConfigManager.getGraphConfig().getLookupShards();
+
+    /**
+     * The number of appended entries after which a lookup document is compacted
+     */
+    private final int compactThreshold = ConfigManager.getGraphConfig().getLookupCompactThreshold();
+
+    /**
+     * The number of entries which this client appended per lookup document
+     * since its last compaction
+     */
+    private final ConcurrentHashMap<String, AtomicInteger> appended = new ConcurrentHashMap<>();
+
+
+    @Override
+    public void registerKey(String type, String key) {
+
+        append(type, ADDED + key);
+    }
+
+    /**
+     * The keys are grouped by lookup document, so there is one append per
+     * lookup document. The lookup documents are appended in parallel.
+     *
+     * @param type
+     * @param keys
+     */
+    @Override
+    public void registerKeys(String type, Collection<String> keys) {
+
+        Map<String, List<String>> entries = new LinkedHashMap<>();
+
+        for (String key : keys) {
+
+            entries.computeIfAbsent(genLookupKey(type, key), k -> new ArrayList<>()).add(ADDED + key);
+        }
+
+        Observable.from(entries.entrySet())
+                .flatMap(entry -> Observable.defer(() -> Observable.just(append(entry.getKey(), entry.getValue())))
+                        .subscribeOn(Schedulers.io()))
+                .toBlocking()
+                .lastOrDefault(null);
+    }
+
+    @Override
+    public void unregisterKey(String type, String key) {
+
+        append(type, REMOVED + key);
+    }
+
+    /**
+     * The lookup documents are always up to date, so the consistency is
+     * ignored
+     *
+     * @param <T>
+     * @param type
+     * @param mapper
+     * @param consistency
+     * @return
+     */
+    @Override
+    public <T> Iterable<T> queryAll(String type, Function<JsonDocument, T> mapper, ViewConsistency consistency) {
+
+        int pageSize = ConfigManager.getCbConfig().getViewPageSize();
+
+        return () -> new LookupIterator<>(queryKeys(type), mapper, pageSize);
+    }
+
+    /**
+     * The keys of all documents are fetched and split into chunks of the same
+     * size
+     *
+     * @param <T>
+     * @param type
+     * @param partitions
+     * @param mapper
+     * @param consistency
+     * @return
+     */
+    @Override
+    public <T> List<Iterable<T>> queryPartitions(String type, int partitions, Function<JsonDocument, T> mapper, ViewConsistency consistency) {
+
+        int pageSize = ConfigManager.getCbConfig().getViewPageSize();
+
+        List<String> keys = queryKeys(type);
+        int chunkSize = Math.max((keys.size() + partitions - 1) / partitions, 1);
+
+        List<Iterable<T>> result = new ArrayList<>();
+
+        for (int from = 0; from < keys.size(); from += chunkSize) {
+
+            List<String> chunk = keys.subList(from, Math.min(from + chunkSize, keys.size()));
+
+            result.add(() -> new LookupIterator<>(chunk, mapper, pageSize));
+        }
+
+        return result;
+    }
+
+    /**
+     * To get the keys of all documents of a type. The lookup documents are
+     * fetched in parallel.
+     *
+     * @param type
+     * @return
+     */
+    public List<String> queryKeys(String type) {
+
+        List<JsonDocument> lookups = Observable.range(0, shards)
+                .concatMapEager(shard -> client.async().get(genLookupKey(type, shard)))
+                .toList()
+                .toBlocking()
+                .single();
+
+        List<String> result = new ArrayList<>();
+
+        for (JsonDocument lookup : lookups) {
+
+            result.addAll(replay(lookup.content().getArray(CBModel.PROP_KEYS)));
+        }
+
+        return result;
+    }
+
+    /**
+     * To compact the lookup documents of a type, so that each remaining key is
+     * only contained once
+     *
+     * @param type
+     */
+    public void compact(String type) {
+
+        for (int shard = 0; shard < shards; shard++) {
+
+            compactLookup(genLookupKey(type, shard));
+        }
+    }
+
+    /**
+     * To compact a lookup document
+     *
+     * @param lookupKey
+     * @return If entries were removed
+     */
+    private boolean compactLookup(String lookupKey) {
+
+        while (true) {
+
+            JsonDocument lookup = client.get(lookupKey);
+
+            if (lookup == null) return false;
+
+            JsonArray entries = lookup.content().getArray(CBModel.PROP_KEYS);
+            JsonArray keys = JsonArray.empty();
+
+            for (String key : replay(entries)) {
+
+                keys.add(ADDED + key);
+            }
+
+            if (keys.size() == entries.size()) return false;
+
+            lookup.content().put(CBModel.PROP_KEYS, keys);
+
+            try {
+
+                client.replace(JsonDocument.create(lookupKey, lookup.content(), lookup.cas()));
+                return true;
+
+            } catch (CASMismatchException e) {
+
+                //Another client appended in the meantime, so try again
+            }
+        }
+    }
+
+    /**
+     * To append an entry to the lookup document of a key
+     *
+     * @param type
+     * @param entry
+     */
+    private void append(String type, String entry) {
+
+        append(genLookupKey(type, entry.substring(1)), Collections.singletonList(entry));
+    }
+
+    /**
+     * To append entries to a lookup document. The lookup document is compacted
+     * once this client appended 'graph.lookup.compact.threshold' entries to
+     * it.
+     *
+     * @param lookupKey
+     * @param entries
+     * @return If the entries were appended
+     */
+    private boolean append(String lookupKey, List<String> entries) {
+
+        boolean result = appendOrCompact(lookupKey, entries);
+
+        AtomicInteger count = appended.computeIfAbsent(lookupKey, k -> new AtomicInteger());
+
+        //Only one of the concurrent appenders compacts
+        if (count.addAndGet(entries.size()) >= compactThreshold && count.getAndSet(0) >= compactThreshold) {
+
+            compactLookup(lookupKey);
+        }
+
+        return result;
+    }
+
+    /**
+     * To append entries to a lookup document. If the lookup document became
+     * too big, then it is compacted and the append is retried once.
+     *
+     * @param lookupKey
+     * @param entries
+     * @return If the entries were appended
+     */
+    private boolean appendOrCompact(String lookupKey, List<String> entries) {
+
+        boolean compacted = false;
+
+        while (true) {
+
+            try {
+
+                client.mutateIn(lookupKey).arrayAppendAll(CBModel.PROP_KEYS, entries, false).execute();
+                return true;
+
+            } catch (RequestTooBigException e) {
+
+                if (compacted || !compactLookup(lookupKey)) {
+
+                    LOG.severe("The lookup document " + lookupKey + " is too big, consider to increase 'graph.lookup.shards'");
+                    throw e;
+                }
+
+                compacted = true;
+
+            } catch (DocumentDoesNotExistException e) {
+
+                try {
+
+                    JsonObject lookup = JsonObject.empty()
+                            .put(CBModel.PROP_TYPE, CBModel.VAL_TYPE_LOOKUP)
+                            .put(CBModel.PROP_KEYS, JsonArray.from(new ArrayList<Object>(entries)));
+
+                    client.insert(JsonDocument.create(lookupKey, lookup));
+                    return true;
+
+                } catch (DocumentAlreadyExistsException ex) {
+
+                    //Another writer created the lookup document, so append again
+                }
+            }
+        }
+    }
+
+    /**
+     * To replay the log of a lookup document
+     *
+     * @param entries
+     * @return The remaining keys
+     */
+    private static Set<String> replay(JsonArray entries) {
+
+        Set<String> result = new LinkedHashSet<>();
+
+        for (Object entry : entries) {
+
+            String str = entry.toString();
+            String key = str.substring(1);
+
+            if (str.startsWith(ADDED)) result.add(key);
+            else result.remove(key);
+        }
+
+        return result;
+    }
+
+    /**
+     * To generate the key of the lookup document which contains a key
+     *
+     * @param type
+     * @param key
+     * @return
+     */
+    private String genLookupKey(String type, String key) {
+
+        return genLookupKey(type, Math.floorMod(key.hashCode(), shards));
+    }
+
+    /**
+     * To generate the key of a lookup document
+     *
+     * @param type
+     * @param shard
+     * @return
+     */
+    private static String genLookupKey(String type, int shard) {
+
+        return CBModel.LOOKUP_KEY.replace("{1}", type).replace("{2}", String.valueOf(shard));
+    }
+
+    /**
+     * The iterator which fetches the documents page by page. The next page is
+     * fetched asynchronously as soon as the current one is consumed.
+     *
+     * @param <T>
+     */
+    private static class LookupIterator<T> implements Iterator<T> {
+
+        /**
+         * The keys of all documents
+         */
+        private final List<String> keys;
+
+        /**
+         * To create an element from a fetched document
+         */
+        private final Function<JsonDocument, T> mapper;
+
+        /**
+         * The number of documents per page
+         */
+        private final int pageSize;
+
+        /**
+         * The documents of the current page
+         */
+        private Iterator<JsonDocument> current = Collections.emptyIterator();
+
+        /**
+         * The next page which is already being fetched, null if there is none
+         */
+        private Observable<List<JsonDocument>> next;
+
+        /**
+         * The index of the first key of the next page
+         */
+        private int from = 0;
+
+
+        public LookupIterator(List<String> keys, Function<JsonDocument, T> mapper, int pageSize) {
+
+            this.keys = keys;
+            this.mapper = mapper;
+            this.pageSize = pageSize;
+            this.next = prefetch();
+        }
+
+        /**
+         * To fetch the next page. Documents which were removed in the meantime
+         * are skipped.
+         *
+         * @return
+         */
+        private Observable<List<JsonDocument>> prefetch() {
+
+            if (from >= keys.size()) return null;
+
+            int to = Math.min(from + pageSize, keys.size());
+
+            Observable<List<JsonDocument>> page = Observable.from(keys.subList(from, to))
+                    .concatMapEager(key -> client.async().get(key))
+                    .toList()
+                    .cache();
+
+            page.subscribe(p -> {}, e -> {});
+
+            from = to;
+
+            return page;
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            while (!current.hasNext()) {
+
+                if (next == null) return false;
+
+                current = next.toBlocking().single().iterator();
+                next = prefetch();
+            }
+
+            return true;
+        }
+
+        @Override
+        public T next() {
+
+            if (!hasNext()) throw new NoSuchElementException();
+
+            return mapper.apply(current.next());
+        }
+    }
+}
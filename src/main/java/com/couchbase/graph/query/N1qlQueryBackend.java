@@ -0,0 +1,536 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.query;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlParams;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+import com.couchbase.client.java.query.consistency.ScanConsistency;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.graph.CBModel;
+import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.CouchbaseConfig.ViewConsistency;
+import com.couchbase.graph.conn.ConnectionFactory;
+import com.couchbase.graph.views.ViewManager;
+import com.tinkerpop.blueprints.Compare;
+import com.tinkerpop.blueprints.Contains;
+import com.tinkerpop.blueprints.Predicate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import rx.Observable;
+
+/**
+ * Queries via N1QL
+ *
+ * The statements are prepared and use global secondary indexes on the
+ * document type, on the edge label and on the properties with a key index.
+ * The view consistency is mapped to the scan consistency 'request_plus' if
+ * the view would wait for the indexer, otherwise to 'not_bounded'.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class N1qlQueryBackend implements QueryBackend {
+
+    private static final Logger LOG = Logger.getLogger(N1qlQueryBackend.class.getName());
+
+    /**
+     * The prefix of the index names
+     */
+    public static final String INDEX_PREFIX = "graph_";
+
+    /**
+     * The highest write sequence which a completed 'request_plus' query has
+     * waited for. The secondary indexes are updated independently of the
+     * views, so this is tracked separately.
+     */
+    private static final AtomicLong waitedSeq = new AtomicLong(0);
+
+    /**
+     * The client instance to use
+     */
+    private final Bucket client;
+
+    /**
+     * The name of the bucket
+     */
+    private final String bucketName;
+
+
+    /**
+     * The default constructor
+     */
+    public N1qlQueryBackend() {
+
+        this.client = ConnectionFactory.getBucketCon();
+        this.bucketName = ConfigManager.getCbConfig().getBucket();
+    }
+
+    @Override
+    public void createIndexes() {
+
+        execute("CREATE INDEX " + escape(INDEX_PREFIX + "type") + " ON " + escape(bucketName) + "(" + CBModel.PROP_TYPE + ") USING GSI");
+
+        execute("CREATE INDEX " + escape(INDEX_PREFIX + "edge_label") + " ON " + escape(bucketName) + "(" + CBModel.PROP_LABEL + ") "
+                + "WHERE " + CBModel.PROP_TYPE + " = '" + CBModel.VAL_TYPE_EDGE + "' USING GSI");
+    }
+
+    @Override
+    public void createKeyIndex(String type, String key) {
+
+        execute("CREATE INDEX " + escape(genIndexName(type, key)) + " ON " + escape(bucketName) + "(" + genPath(key) + ") "
+                + "WHERE " + CBModel.PROP_TYPE + " = '" + type + "' USING GSI");
+    }
+
+    @Override
+    public void dropKeyIndex(String type, String key) {
+
+        execute("DROP INDEX " + escape(bucketName) + "." + escape(genIndexName(type, key)) + " USING GSI");
+    }
+
+    @Override
+    public void registerKey(String type, String key) {
+
+        //The index is maintained by Couchbase
+    }
+
+    @Override
+    public void registerKeys(String type, Collection<String> keys) {
+
+        //The index is maintained by Couchbase
+    }
+
+    @Override
+    public void unregisterKey(String type, String key) {
+
+        //The index is maintained by Couchbase
+    }
+
+    @Override
+    public <T> Iterable<T> queryAll(String type, Function<JsonDocument, T> mapper, ViewConsistency consistency) {
+
+        int pageSize = ConfigManager.getCbConfig().getViewPageSize();
+
+        return () -> new PagedIterator<>(type, mapper, pageSize, consistency, null, null);
+    }
+
+    /**
+     * The ids are split into ranges of about the same number of documents.
+     * The boundaries are the ids at the positions 'count * i / partitions'.
+     *
+     * @param <T>
+     * @param type
+     * @param partitions
+     * @param mapper
+     * @param consistency
+     * @return
+     */
+    @Override
+    public <T> List<Iterable<T>> queryPartitions(String type, int partitions, Function<JsonDocument, T> mapper, ViewConsistency consistency) {
+
+        int pageSize = ConfigManager.getCbConfig().getViewPageSize();
+
+        JsonObject params = JsonObject.create().put("type", type);
+
+        //The first query waits for the indexer if required, so the others don't need to
+        long total = 0;
+
+        for (N1qlQueryRow row : query("SELECT COUNT(*) AS cnt FROM " + escape(bucketName) + " g WHERE g." + CBModel.PROP_TYPE + " = $type", params, consistency)) {
+
+            total = row.value().getLong("cnt");
+        }
+
+        List<String> bounds = new ArrayList<>();
+
+        for (int i = 1; i < Math.min(partitions, total); i++) {
+
+            String statement = "SELECT META(g).id AS id FROM " + escape(bucketName) + " g "
+                    + "WHERE g." + CBModel.PROP_TYPE + " = $type "
+                    + "ORDER BY META(g).id OFFSET " + (total * i / partitions) + " LIMIT 1";
+
+            for (N1qlQueryRow row : query(statement, params, ViewConsistency.OK)) {
+
+                String id = row.value().getString("id");
+
+                if (!bounds.contains(id)) bounds.add(id);
+            }
+        }
+
+        List<Iterable<T>> result = new ArrayList<>();
+
+        //Each range ends right before the first id of the next one
+        for (int i = 0; i <= bounds.size(); i++) {
+
+            String lower = i == 0 ? null : bounds.get(i - 1);
+            String upper = i == bounds.size() ? null : bounds.get(i);
+
+            result.add(() -> new PagedIterator<>(type, mapper, pageSize, consistency, lower, upper));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Set<String> queryIds(String type, String key, Predicate predicate, Object value, int limit, ViewConsistency consistency) {
+
+        String statement = genSelectIds(bucketName, key, predicate, value, limit);
+
+        if (statement == null) return null;
+
+        JsonObject params = JsonObject.create().put("type", type);
+
+        if (value != null) params.put("v", toParam(value));
+
+        Set<String> result = new LinkedHashSet<>();
+
+        for (N1qlQueryRow row : query(statement, params, consistency)) {
+
+            result.add(row.value().getString("id"));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Set<String> queryEdgeLabels(ViewConsistency consistency) {
+
+        Set<String> result = new HashSet<>();
+
+        String statement = "SELECT DISTINCT g." + CBModel.PROP_LABEL + " FROM " + escape(bucketName) + " g "
+                + "WHERE g." + CBModel.PROP_TYPE + " = $type AND g." + CBModel.PROP_LABEL + " IS VALUED";
+
+        for (N1qlQueryRow row : query(statement, JsonObject.create().put("type", CBModel.VAL_TYPE_EDGE), consistency)) {
+
+            result.add(row.value().getString(CBModel.PROP_LABEL));
+        }
+
+        return result;
+    }
+
+    /**
+     * To generate the statement which selects the ids of the documents of the
+     * type '$type' with a matching property. The value is passed as '$v'.
+     *
+     * @param bucketName
+     * @param key
+     * @param predicate
+     * @param value
+     * @param limit
+     * @return The statement, or null if the predicate is not supported
+     */
+    static String genSelectIds(String bucketName, String key, Predicate predicate, Object value, int limit) {
+
+        String condition = genCondition("g." + genPath(key), predicate, value);
+
+        if (condition == null) return null;
+
+        String statement = "SELECT META(g).id AS id FROM " + escape(bucketName) + " g WHERE g." + CBModel.PROP_TYPE + " = $type AND " + condition;
+
+        if (limit != Integer.MAX_VALUE) statement += " LIMIT " + limit;
+
+        return statement;
+    }
+
+    /**
+     * To generate the condition on a property. Comparisons only match values
+     * of the same type, in the same way as the property views do.
+     *
+     * @param path
+     * @param predicate
+     * @param value
+     * @return The condition, or null if the predicate is not supported
+     */
+    static String genCondition(String path, Predicate predicate, Object value) {
+
+        if (predicate == Compare.EQUAL) {
+
+            return value == null ? path + " IS NOT VALUED" : path + " = $v";
+        }
+
+        if (predicate == Compare.NOT_EQUAL) {
+
+            return value == null ? path + " IS VALUED" : "(" + path + " IS NOT VALUED OR " + path + " != $v)";
+        }
+
+        if (predicate == Contains.IN && value instanceof Collection) {
+
+            return path + " IN $v";
+        }
+
+        if (predicate == Contains.NOT_IN && value instanceof Collection) {
+
+            return "(" + path + " IS NOT VALUED OR " + path + " NOT IN $v)";
+        }
+
+        if (predicate instanceof Compare && value != null) {
+
+            String typeCheck = (value instanceof Number ? "IS_NUMBER" : value instanceof Boolean ? "IS_BOOLEAN" : "IS_STRING") + "(" + path + ")";
+
+            switch ((Compare) predicate) {
+
+                case GREATER_THAN: return typeCheck + " AND " + path + " > $v";
+                case GREATER_THAN_EQUAL: return typeCheck + " AND " + path + " >= $v";
+                case LESS_THAN: return typeCheck + " AND " + path + " < $v";
+                case LESS_THAN_EQUAL: return typeCheck + " AND " + path + " <= $v";
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * To generate the path of a property
+     *
+     * @param key
+     * @return
+     */
+    static String genPath(String key) {
+
+        return CBModel.PROP_PROPS + "." + escape(key);
+    }
+
+    /**
+     * To generate the name of the index on a property key
+     *
+     * @param type
+     * @param key
+     * @return
+     */
+    static String genIndexName(String type, String key) {
+
+        String name = key.replaceAll("[^A-Za-z0-9_]", "_");
+
+        //Avoid that different keys share one index
+        if (!name.equals(key)) name = name + "_" + Integer.toHexString(key.hashCode());
+
+        return INDEX_PREFIX + type + "_" + name;
+    }
+
+    /**
+     * To escape an identifier
+     *
+     * @param identifier
+     * @return
+     */
+    static String escape(String identifier) {
+
+        return "`" + identifier.replace("`", "``") + "`";
+    }
+
+    /**
+     * To convert a value into a statement parameter. Values those are not
+     * supported by JSON are converted into strings.
+     *
+     * @param value
+     * @return
+     */
+    static Object toParam(Object value) {
+
+        if (value instanceof Collection) {
+
+            JsonArray result = JsonArray.empty();
+
+            for (Object v : (Collection) value) {
+
+                result.add(toParam(v));
+            }
+
+            return result;
+        }
+
+        if (value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof String || value instanceof Boolean) {
+
+            return value;
+        }
+
+        if (value instanceof Number) return ((Number) value).doubleValue();
+
+        return value.toString();
+    }
+
+    /**
+     * To map the view consistency to the scan consistency
+     *
+     * @param consistency
+     * @param seq The write sequence captured before the query
+     * @return
+     */
+    private ScanConsistency toScanConsistency(ViewConsistency consistency, long seq) {
+
+        return ViewManager.resolveStale(consistency, seq, waitedSeq.get()) == Stale.FALSE ? ScanConsistency.REQUEST_PLUS : ScanConsistency.NOT_BOUNDED;
+    }
+
+    /**
+     * To run a prepared statement
+     *
+     * @param statement
+     * @param params
+     * @param consistency
+     * @return
+     */
+    private N1qlQueryResult query(String statement, JsonObject params, ViewConsistency consistency) {
+
+        long seq = ViewManager.writeSequence();
+
+        ScanConsistency scanConsistency = toScanConsistency(consistency, seq);
+
+        N1qlParams n1qlParams = N1qlParams.build().adhoc(false).consistency(scanConsistency);
+
+        N1qlQueryResult result = client.query(N1qlQuery.parameterized(statement, params, n1qlParams));
+
+        if (!result.finalSuccess()) LOG.severe(result.errors().toString());
+        else if (scanConsistency == ScanConsistency.REQUEST_PLUS) waitedSeq.accumulateAndGet(seq, Math::max);
+
+        return result;
+    }
+
+    /**
+     * To run a DDL statement. Existing indexes are ignored.
+     *
+     * @param statement
+     */
+    private void execute(String statement) {
+
+        N1qlQueryResult result = client.query(N1qlQuery.simple(statement));
+
+        if (!result.finalSuccess() && !result.errors().toString().contains("already exist")) {
+
+            LOG.severe(result.errors().toString());
+        }
+    }
+
+    /**
+     * The iterator which pages through the documents of a type by their ids
+     *
+     * @param <T>
+     */
+    private class PagedIterator<T> implements Iterator<T> {
+
+        /**
+         * The type of the documents
+         */
+        private final String type;
+
+        /**
+         * To create an element from a fetched document
+         */
+        private final Function<JsonDocument, T> mapper;
+
+        /**
+         * The number of documents per page
+         */
+        private final int pageSize;
+
+        /**
+         * The consistency of the page queries
+         */
+        private final ViewConsistency consistency;
+
+        /**
+         * The documents of the current page
+         */
+        private Iterator<JsonDocument> current = Collections.emptyIterator();
+
+        /**
+         * The first id after the range, null if the range is not bounded
+         */
+        private final String upper;
+
+        /**
+         * The id of the last document of the previous page, null if there is
+         * no further page
+         */
+        private String lastId;
+
+        /**
+         * If the next page is the first one, which includes the lower bound
+         */
+        private boolean first = true;
+
+
+        public PagedIterator(String type, Function<JsonDocument, T> mapper, int pageSize, ViewConsistency consistency, String lower, String upper) {
+
+            this.type = type;
+            this.mapper = mapper;
+            this.pageSize = pageSize;
+            this.consistency = consistency;
+            this.lastId = lower == null ? "" : lower;
+            this.upper = upper;
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            while (!current.hasNext()) {
+
+                if (lastId == null) return false;
+
+                //Continue right after the last document of the previous page
+                String statement = "SELECT META(g).id AS id FROM " + escape(bucketName) + " g "
+                        + "WHERE g." + CBModel.PROP_TYPE + " = $type AND META(g).id " + (first ? ">=" : ">") + " $last "
+                        + (upper == null ? "" : "AND META(g).id < $upper ")
+                        + "ORDER BY META(g).id LIMIT " + pageSize;
+
+                JsonObject params = JsonObject.create().put("type", type).put("last", lastId);
+
+                if (upper != null) params.put("upper", upper);
+
+                first = false;
+
+                List<String> ids = new ArrayList<>();
+
+                for (N1qlQueryRow row : query(statement, params, consistency)) {
+
+                    ids.add(row.value().getString("id"));
+                }
+
+                List<JsonDocument> docs = Observable.from(ids)
+                        .concatMapEager(id -> client.async().get(id))
+                        .toList()
+                        .toBlocking()
+                        .single();
+
+                current = docs.iterator();
+                lastId = ids.size() < pageSize ? null : ids.get(ids.size() - 1);
+            }
+
+            return true;
+        }
+
+        @Override
+        public T next() {
+
+            if (!hasNext()) throw new NoSuchElementException();
+
+            return mapper.apply(current.next());
+        }
+    }
+}
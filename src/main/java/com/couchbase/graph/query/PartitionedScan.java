@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.query;
+
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.graph.cfg.CouchbaseConfig.ViewConsistency;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scans all documents of a type in parallel
+ *
+ * The documents are split into partitions by the query backend, e.g. into
+ * key ranges of the all vertices view. Each partition is iterated page by page
+ * by one worker of the executor and each element is passed to the callback.
+ * So the callback needs to be thread-safe.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class PartitionedScan {
+
+    /**
+     * The Logger
+     */
+    private static final Logger LOG = Logger.getLogger(PartitionedScan.class.getName());
+
+    /**
+     * To scan all documents of a type
+     *
+     * @param <T>
+     * @param type Either 'vertex' or 'edge'
+     * @param partitions The max. number of partitions
+     * @param mapper To create an element from a fetched document
+     * @param executor The executor of the workers, or null to use one thread per partition
+     * @param callback Is called concurrently for each element
+     * @param consistency
+     * @return The number of scanned elements
+     * @throws java.util.concurrent.CompletionException If a worker failed
+     */
+    public static <T> long scan(String type, int partitions, Function<JsonDocument, T> mapper, Executor executor, Consumer<? super T> callback, ViewConsistency consistency) {
+
+        long start = System.currentTimeMillis();
+
+        List<Iterable<T>> ranges = QueryBackendFactory.getBackend().queryPartitions(type, Math.max(partitions, 1), mapper, consistency);
+
+        ExecutorService own = executor == null ? Executors.newFixedThreadPool(Math.max(ranges.size(), 1)) : null;
+
+        AtomicLong count = new AtomicLong();
+
+        try {
+
+            CompletableFuture<?>[] workers = ranges.stream()
+                    .map(range -> CompletableFuture.runAsync(() -> {
+
+                        for (T element : range) {
+
+                            callback.accept(element);
+                            count.incrementAndGet();
+                        }
+
+                    }, own != null ? own : executor))
+                    .toArray(CompletableFuture[]::new);
+
+            CompletableFuture.allOf(workers).join();
+
+        } finally {
+
+            if (own != null) own.shutdown();
+        }
+
+        LOG.log(Level.FINE, "Scanned {0} documents of type {1} in {2} partitions within {3} ms",
+                new Object[]{count.get(), type, ranges.size(), System.currentTimeMillis() - start});
+
+        return count.get();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.query;
+
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.graph.cfg.CouchbaseConfig.ViewConsistency;
+import com.tinkerpop.blueprints.Predicate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The way how vertices and edges are queried
+ *
+ * The type is the document type, so 'vertex' or 'edge'.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public interface QueryBackend {
+
+    /**
+     * To create the indexes those are required by this backend if they don't
+     * exist yet
+     */
+    void createIndexes();
+
+    /**
+     * To create an index on a property key
+     *
+     * @param type
+     * @param key
+     */
+    void createKeyIndex(String type, String key);
+
+    /**
+     * To drop the index on a property key
+     *
+     * @param type
+     * @param key
+     */
+    void dropKeyIndex(String type, String key);
+
+    /**
+     * To register the key of a new document
+     *
+     * @param type
+     * @param key
+     */
+    void registerKey(String type, String key);
+
+    /**
+     * To register the keys of multiple new documents at once
+     *
+     * @param type
+     * @param keys
+     */
+    void registerKeys(String type, Collection<String> keys);
+
+    /**
+     * To unregister the key of a removed document
+     *
+     * @param type
+     * @param key
+     */
+    void unregisterKey(String type, String key);
+
+    /**
+     * To iterate all documents of a type
+     *
+     * @param <T>
+     * @param type
+     * @param mapper To create an element from a fetched document
+     * @param consistency
+     * @return
+     */
+    <T> Iterable<T> queryAll(String type, Function<JsonDocument, T> mapper, ViewConsistency consistency);
+
+    /**
+     * To split all documents of a type into disjoint partitions, which can be
+     * iterated independently of each other, e.g. by different threads
+     *
+     * @param <T>
+     * @param type
+     * @param partitions The max. number of partitions
+     * @param mapper To create an element from a fetched document
+     * @param consistency
+     * @return
+     */
+    <T> List<Iterable<T>> queryPartitions(String type, int partitions, Function<JsonDocument, T> mapper, ViewConsistency consistency);
+
+    /**
+     * To query the ids of the documents of a type those have a matching
+     * property. The result may contain false positives, so the elements need
+     * to be checked by the caller.
+     *
+     * @param type
+     * @param key
+     * @param predicate
+     * @param value
+     * @param limit
+     * @param consistency
+     * @return The ids, or null if the condition can't be answered by an index
+     */
+    Set<String> queryIds(String type, String key, Predicate predicate, Object value, int limit, ViewConsistency consistency);
+
+    /**
+     * To query all edge labels
+     *
+     * @param consistency
+     * @return
+     */
+    Set<String> queryEdgeLabels(ViewConsistency consistency);
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.query;
+
+import com.couchbase.graph.cfg.ConfigManager;
+
+/**
+ * Provides the query backend which is configured via 'graph.all.mode'
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class QueryBackendFactory {
+
+    /**
+     * The backend instance
+     */
+    private static QueryBackend backend;
+
+
+    /**
+     * To get the configured backend
+     *
+     * @return
+     */
+    public static synchronized QueryBackend getBackend() {
+
+        if (backend == null) backend = createBackend();
+
+        return backend;
+    }
+
+    /**
+     * To set the backend, e.g. in order to compare backends
+     *
+     * @param backend
+     */
+    public static synchronized void setBackend(QueryBackend backend) {
+
+        QueryBackendFactory.backend = backend;
+    }
+
+    /**
+     * To create the configured backend
+     *
+     * @return
+     */
+    private static QueryBackend createBackend() {
+
+        switch (ConfigManager.getGraphConfig().getAllMode()) {
+
+            case N1QL: return new N1qlQueryBackend();
+
+            case LOOKUP: return new LookupQueryBackend();
+
+            default: return new ViewQueryBackend();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.query;
+
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.view.AsyncViewResult;
+import com.couchbase.client.java.view.DefaultView;
+import com.couchbase.client.java.view.DesignDocument;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewRow;
+import com.couchbase.graph.CBModel;
+import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.CouchbaseConfig.ViewConsistency;
+import com.couchbase.graph.views.KeyIndexManager;
+import com.couchbase.graph.views.PropIndex;
+import com.couchbase.graph.views.ViewManager;
+import static com.couchbase.graph.views.ViewManager.*;
+import com.couchbase.graph.views.ViewPagedIterable;
+import com.tinkerpop.blueprints.Compare;
+import com.tinkerpop.blueprints.Contains;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Predicate;
+import com.tinkerpop.blueprints.Vertex;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import rx.Observable;
+
+/**
+ * Queries via map/reduce views
+ *
+ * All vertices and edges are paged through the all vertices/edges views.
+ * Properties are looked up via the key indices or the generic property index
+ * views, whereby equality is an exact key lookup, 'in' is a lookup per value
+ * and comparisons are a range lookup on the keys of the same type.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class ViewQueryBackend implements QueryBackend {
+
+    @Override
+    public void createIndexes() {
+
+        if (!ViewManager.designDocExists()) ViewManager.createViews();
+    }
+
+    @Override
+    public void createKeyIndex(String type, String key) {
+
+        //The key is embedded as JSON in order to escape it
+        String map = "function (doc, meta) { var key = " + JsonArray.from(key) + "[0]; "
+                + "if (doc.type === '" + type + "' && doc.props && typeof(doc.props[key]) !== 'undefined') { emit([doc.props[key]], null); } }";
+
+        DesignDocument designDoc = DesignDocument.create(KeyIndexManager.genDesignDocName(key, type), Arrays.asList(DefaultView.create(KeyIndexManager.VIEW_BY_VALUE, map)));
+
+        client.bucketManager().upsertDesignDocument(designDoc);
+    }
+
+    @Override
+    public void dropKeyIndex(String type, String key) {
+
+        client.bucketManager().removeDesignDocument(KeyIndexManager.genDesignDocName(key, type));
+    }
+
+    @Override
+    public void registerKey(String type, String key) {
+
+        //The index is maintained by Couchbase
+    }
+
+    @Override
+    public void registerKeys(String type, Collection<String> keys) {
+
+        //The index is maintained by Couchbase
+    }
+
+    @Override
+    public void unregisterKey(String type, String key) {
+
+        //The index is maintained by Couchbase
+    }
+
+    @Override
+    public <T> Iterable<T> queryAll(String type, Function<JsonDocument, T> mapper, ViewConsistency consistency) {
+
+        int pageSize = ConfigManager.getCbConfig().getViewPageSize();
+
+        String viewName = CBModel.VAL_TYPE_VERTEX.equals(type) ? getAllVerticesViewDef().name() : getAllEdgesViewDef().name();
+
+        return new ViewPagedIterable<>(DESIGN_DOC, viewName, null, null, pageSize, mapper, consistency);
+    }
+
+    /**
+     * The view is split into key ranges of about the same number of rows. The
+     * boundaries are the keys at the positions 'total rows * i / partitions',
+     * and are queried in parallel.
+     *
+     * @param <T>
+     * @param type
+     * @param partitions
+     * @param mapper
+     * @param consistency
+     * @return
+     */
+    @Override
+    public <T> List<Iterable<T>> queryPartitions(String type, int partitions, Function<JsonDocument, T> mapper, ViewConsistency consistency) {
+
+        int pageSize = ConfigManager.getCbConfig().getViewPageSize();
+
+        String viewName = CBModel.VAL_TYPE_VERTEX.equals(type) ? getAllVerticesViewDef().name() : getAllEdgesViewDef().name();
+
+        //The first query waits for the indexer if required, so the others don't need to
+        long seq = writeSequence();
+        Stale stale = resolveStale(consistency, seq);
+        int total = client.query(createQuery(DESIGN_DOC, viewName, null, null, stale).limit(1)).totalRows();
+        waited(stale, seq);
+
+        List<String> bounds = Observable.range(1, Math.max(Math.min(partitions, total) - 1, 0))
+                .concatMapEager(i -> client.async().query(createQuery(DESIGN_DOC, viewName, null, null, Stale.TRUE)
+                        .skip((int) ((long) total * i / partitions))
+                        .limit(1)))
+                .flatMap(AsyncViewResult::rows)
+                .map(row -> row.key().toString())
+                .distinct()
+                .toList()
+                .toBlocking()
+                .single();
+
+        List<Iterable<T>> result = new ArrayList<>();
+
+        //Each range ends right before the start key of the next one
+        for (int i = 0; i <= bounds.size(); i++) {
+
+            String startKey = i == 0 ? null : bounds.get(i - 1);
+            String endKey = i == bounds.size() ? null : bounds.get(i);
+
+            result.add(new ViewPagedIterable<>(DESIGN_DOC, viewName, startKey, endKey, false, pageSize, mapper, consistency));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Set<String> queryIds(String type, String key, Predicate predicate, Object value, int limit, ViewConsistency consistency) {
+
+        PropIndex index = KeyIndexManager.getPropIndex(key, toClass(type));
+
+        if (index == null) return null;
+
+        if (predicate == Compare.EQUAL && value != null) {
+
+            JsonArray viewKey = index.genKey(value);
+
+            return queryIds(index, viewKey, viewKey, limit, consistency);
+        }
+
+        if (predicate == Contains.IN && value instanceof Collection) {
+
+            Set<String> result = new LinkedHashSet<>();
+
+            for (Object v : (Collection) value) {
+
+                JsonArray viewKey = index.genKey(v);
+
+                result.addAll(queryIds(index, viewKey, viewKey, limit, consistency));
+            }
+
+            return result;
+        }
+
+        //has(key), so all elements with this key
+        if (predicate == Compare.NOT_EQUAL && value == null) {
+
+            JsonArray[] range = index.genRange();
+
+            return queryIds(index, range[0], range[1], limit, consistency);
+        }
+
+        if (predicate instanceof Compare && value != null) {
+
+            JsonArray[] range = index.genRange(value);
+
+            switch ((Compare) predicate) {
+
+                case GREATER_THAN:
+                case GREATER_THAN_EQUAL:
+                    return queryIds(index, index.genKey(value), range[1], Integer.MAX_VALUE, consistency);
+
+                case LESS_THAN:
+                case LESS_THAN_EQUAL:
+                    return queryIds(index, range[0], index.genKey(value), Integer.MAX_VALUE, consistency);
+
+                default:
+                    //NOT_EQUAL also matches the elements without this key or
+                    //with a value of another type, so the elements are scanned
+                    return null;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public Set<String> queryEdgeLabels(ViewConsistency consistency) {
+
+        Set<String> result = new HashSet<>();
+
+        ViewResult viewResult = ViewManager.query(DESIGN_DOC, getAllEdgeLabelsViewDef().name(), null, null, consistency);
+
+        for (ViewRow viewRow : viewResult) {
+
+            result.add(viewRow.key().toString());
+        }
+
+        return result;
+    }
+
+    /**
+     * To query the ids of a view key range
+     *
+     * @param index
+     * @param startKey
+     * @param endKey
+     * @param limit
+     * @param consistency
+     * @return
+     */
+    private Set<String> queryIds(PropIndex index, JsonArray startKey, JsonArray endKey, int limit, ViewConsistency consistency) {
+
+        Set<String> result = new LinkedHashSet<>();
+
+        ViewResult viewResult = ViewManager.query(index.getDesignDocName(), index.getViewName(), startKey, endKey, consistency, limit);
+
+        for (ViewRow viewRow : viewResult) {
+
+            result.add(viewRow.id());
+        }
+
+        return result;
+    }
+
+    /**
+     * To get the element class of a document type
+     *
+     * @param type
+     * @return
+     */
+    private Class<? extends Element> toClass(String type) {
+
+        return CBModel.VAL_TYPE_VERTEX.equals(type) ? Vertex.class : Edge.class;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters of the optimistic (CAS based) updates
+ * 
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CASStats {
+    
+    /**
+     * The number of updates those were rejected because of a CAS mismatch
+     */
+    private static final AtomicLong conflicts = new AtomicLong();
+    
+    /**
+     * The number of updates those were retried after a conflict
+     */
+    private static final AtomicLong retries = new AtomicLong();
+    
+    /**
+     * The number of updates those were given up after the last retry
+     */
+    private static final AtomicLong failures = new AtomicLong();
+    
+    
+    public static void conflict() {
+        conflicts.incrementAndGet();
+    }
+    
+    public static void retry() {
+        retries.incrementAndGet();
+    }
+    
+    public static void failure() {
+        failures.incrementAndGet();
+    }
+
+    public static long getConflicts() {
+        return conflicts.get();
+    }
+
+    public static long getRetries() {
+        return retries.get();
+    }
+
+    public static long getFailures() {
+        return failures.get();
+    }
+    
+    /**
+     * To reset all counters
+     */
+    public static void reset() {
+        
+        conflicts.set(0);
+        retries.set(0);
+        failures.set(0);
+    }
+
+    /**
+     * A readable summary of the counters
+     * 
+     * @return 
+     */
+    public static String toStatsString() {
+        
+        return "conflicts = " + getConflicts() + ", retries = " + getRetries() + ", failures = " + getFailures();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.graph.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters of the document cache
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class CacheStats {
+
+    /**
+     * The number of lookups those were served by the cache
+     */
+    private static final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of lookups those had to fetch the document
+     */
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The number of entries those were evicted because of the size limit
+     */
+    private static final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * The number of entries those were dropped because they expired
+     */
+    private static final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * The number of entries those were invalidated by own writes
+     */
+    private static final AtomicLong invalidations = new AtomicLong();
+
+
+    public static void hit() {
+        hits.incrementAndGet();
+    }
+
+    public static void miss() {
+        misses.incrementAndGet();
+    }
+
+    public static void eviction() {
+        evictions.incrementAndGet();
+    }
+
+    public static void expiration() {
+        expirations.incrementAndGet();
+    }
+
+    public static void invalidation() {
+        invalidations.incrementAndGet();
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static long getEvictions() {
+        return evictions.get();
+    }
+
+    public static long getExpirations() {
+        return expirations.get();
+    }
+
+    public static long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * To reset all counters
+     */
+    public static void reset() {
+
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        expirations.set(0);
+        invalidations.set(0);
+    }
+
+    /**
+     * A readable summary of the counters
+     *
+     * @return
+     */
+    public static String toStatsString() {
+
+        return "hits = " + getHits() + ", misses = " + getMisses() + ", evictions = " + getEvictions()
+                + ", expirations = " + getExpirations() + ", invalidations = " + getInvalidations();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.graph.stats;
+
+import com.couchbase.client.java.view.Stale;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide timings of the view queries per stale mode
+ *
+ * Only the most recent samples are kept per mode.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class ViewStats {
+
+    /**
+     * The max. number of samples per mode
+     */
+    private static final int MAX_SAMPLES = 10000;
+
+    /**
+     * The query times in nanoseconds per mode
+     */
+    private static final Map<Stale, ArrayDeque<Long>> timings = new EnumMap<>(Stale.class);
+
+
+    /**
+     * To record the time of a query
+     *
+     * @param stale
+     * @param nanos
+     */
+    public static synchronized void record(Stale stale, long nanos) {
+
+        ArrayDeque<Long> samples = timings.computeIfAbsent(stale, s -> new ArrayDeque<>());
+
+        if (samples.size() == MAX_SAMPLES) samples.pollFirst();
+
+        samples.addLast(nanos);
+    }
+
+    /**
+     * To get the number of recorded samples of a mode
+     *
+     * @param stale
+     * @return
+     */
+    public static synchronized int getCount(Stale stale) {
+
+        ArrayDeque<Long> samples = timings.get(stale);
+
+        return samples == null ? 0 : samples.size();
+    }
+
+    /**
+     * To get a percentile of the query times of a mode in microseconds
+     *
+     * @param stale
+     * @param percentile E.g. 50 or 99
+     * @return The time or -1 if there are no samples
+     */
+    public static synchronized long getPercentile(Stale stale, double percentile) {
+
+        ArrayDeque<Long> samples = timings.get(stale);
+
+        if (samples == null || samples.isEmpty()) return -1;
+
+        long[] sorted = new long[samples.size()];
+
+        int i = 0;
+
+        for (long sample : samples) {
+            sorted[i++] = sample;
+        }
+
+        Arrays.sort(sorted);
+
+        int idx = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, idx)]);
+    }
+
+    /**
+     * To reset all timings
+     */
+    public static synchronized void reset() {
+
+        timings.clear();
+    }
+
+    /**
+     * A readable summary of the timings
+     *
+     * @return
+     */
+    public static String toStatsString() {
+
+        StringBuilder result = new StringBuilder();
+
+        for (Stale stale : Stale.values()) {
+
+            if (getCount(stale) == 0) continue;
+
+            if (result.length() > 0) result.append(", ");
+
+            result.append(stale).append(" = { count = ").append(getCount(stale))
+                    .append(", p50 = ").append(getPercentile(stale, 50)).append("us")
+                    .append(", p99 = ").append(getPercentile(stale, 99)).append("us }");
+        }
+
+        return result.toString();
+    }
+}
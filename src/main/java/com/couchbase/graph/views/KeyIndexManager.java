@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.views;
+
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.CASMismatchException;
+import com.couchbase.client.java.error.DocumentAlreadyExistsException;
+import com.couchbase.graph.CBModel;
+import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.GraphConfig;
+import com.couchbase.graph.query.QueryBackendFactory;
+import static com.couchbase.graph.views.ViewManager.*;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.ExceptionFactory;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Manages the user declared key indices
+ *
+ * The index itself is created by the query backend. In view mode each key
+ * index is a view 'by_value' in its own design document, so creating or
+ * dropping a key index doesn't cause the other views to be rebuilt. The view
+ * emits [value] for each vertex or edge which has the property. In N1QL mode
+ * it is a global secondary index. The indexed keys are registered in the
+ * document 'key_indices':
+ *
+ * {
+ *   'type' : 'key_indices',
+ *   'vertex' : ['name', 'age'],
+ *   'edge' : ['weight']
+ * }
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class KeyIndexManager {
+
+    /**
+     * The name of the view within the design document of a key index
+     */
+    public static final String VIEW_BY_VALUE = "by_value";
+
+    /**
+     * The cached registry, null if not yet loaded
+     */
+    private static volatile JsonObject registry;
+
+
+    /**
+     * To create a key index, this is a no-op if the key is already indexed
+     *
+     * @param <T>
+     * @param key
+     * @param elementClass
+     */
+    public static <T extends Element> void createKeyIndex(String key, Class<T> elementClass) {
+
+        String type = toType(elementClass);
+
+        if (getIndexedKeys(elementClass).contains(key)) return;
+
+        QueryBackendFactory.getBackend().createKeyIndex(type, key);
+
+        updateRegistry(type, key, true);
+    }
+
+    /**
+     * To drop a key index
+     *
+     * @param <T>
+     * @param key
+     * @param elementClass
+     */
+    public static <T extends Element> void dropKeyIndex(String key, Class<T> elementClass) {
+
+        String type = toType(elementClass);
+
+        if (!getIndexedKeys(elementClass).contains(key)) return;
+
+        updateRegistry(type, key, false);
+
+        QueryBackendFactory.getBackend().dropKeyIndex(type, key);
+    }
+
+    /**
+     * To get the indexed keys
+     *
+     * @param <T>
+     * @param elementClass
+     * @return
+     */
+    public static <T extends Element> Set<String> getIndexedKeys(Class<T> elementClass) {
+
+        Set<String> result = new HashSet<>();
+
+        JsonArray keys = getRegistry().getArray(toType(elementClass));
+
+        if (keys != null) {
+
+            for (Object key : keys) {
+
+                result.add(key.toString());
+            }
+        }
+
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * To get the view which can be used to look a property up. This is the
+     * key index if one exists, otherwise the generic property index if all
+     * properties are indexed.
+     *
+     * @param <T>
+     * @param key
+     * @param elementClass
+     * @return The index, or null if the property is not indexed
+     */
+    public static <T extends Element> PropIndex getPropIndex(String key, Class<T> elementClass) {
+
+        String type = toType(elementClass);
+
+        if (getIndexedKeys(elementClass).contains(key)) {
+
+            return new PropIndex(genDesignDocName(key, type), VIEW_BY_VALUE, key, true);
+        }
+
+        if (ConfigManager.getGraphConfig().getPropIndexMode() == GraphConfig.PropIndexMode.ALL) {
+
+            ViewDef viewDef = Vertex.class.isAssignableFrom(elementClass) ? getVertexPropIndexViewDef() : getEdgePropIndexViewDef();
+
+            return new PropIndex(DESIGN_DOC, viewDef.name(), key, false);
+        }
+
+        return null;
+    }
+
+    /**
+     * To invalidate the cached registry, e.g. if another client created a key
+     * index
+     */
+    public static void invalidate() {
+
+        registry = null;
+    }
+
+    /**
+     * To get the registry of the key indices
+     *
+     * @return
+     */
+    private static JsonObject getRegistry() {
+
+        JsonObject result = registry;
+
+        if (result == null) {
+
+            JsonDocument doc = client.get(CBModel.KEY_INDICES_KEY);
+
+            result = doc == null ? JsonObject.empty() : doc.content();
+            registry = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * To add or remove a key from the registry
+     *
+     * @param type
+     * @param key
+     * @param add
+     */
+    private static void updateRegistry(String type, String key, boolean add) {
+
+        while (true) {
+
+            try {
+
+                JsonDocument doc = client.get(CBModel.KEY_INDICES_KEY);
+
+                if (doc == null) {
+
+                    JsonObject content = JsonObject.create().put(CBModel.PROP_TYPE, CBModel.VAL_TYPE_KEY_INDICES);
+                    doc = client.insert(JsonDocument.create(CBModel.KEY_INDICES_KEY, content));
+                }
+
+                JsonObject content = doc.content();
+                JsonArray keys = content.getArray(type);
+
+                Set<Object> updated = new HashSet<>(keys == null ? Collections.emptyList() : keys.toList());
+
+                if (add) updated.add(key);
+                else updated.remove(key);
+
+                content.put(type, JsonArray.from(updated.toArray()));
+
+                client.replace(JsonDocument.create(CBModel.KEY_INDICES_KEY, content, doc.cas()));
+
+                registry = content;
+
+                return;
+
+            } catch (CASMismatchException | DocumentAlreadyExistsException e) {
+
+                //Another client modified the registry, so try again
+            }
+        }
+    }
+
+    /**
+     * To generate the name of the design document of a key index
+     *
+     * @param key
+     * @param type
+     * @return
+     */
+    public static String genDesignDocName(String key, String type) {
+
+        String name = key.replaceAll("[^A-Za-z0-9_]", "_");
+
+        //Avoid that different keys share one design document
+        if (!name.equals(key)) name = name + "_" + Integer.toHexString(key.hashCode());
+
+        return DESIGN_DOC + "_" + type + "_" + name;
+    }
+
+    /**
+     * To get the document type of an element class
+     *
+     * @param <T>
+     * @param elementClass
+     * @return
+     */
+    private static <T extends Element> String toType(Class<T> elementClass) {
+
+        if (elementClass == null) throw ExceptionFactory.classForElementCannotBeNull();
+
+        if (Vertex.class.isAssignableFrom(elementClass)) return CBModel.VAL_TYPE_VERTEX;
+
+        if (Edge.class.isAssignableFrom(elementClass)) return CBModel.VAL_TYPE_EDGE;
+
+        throw ExceptionFactory.classIsNotIndexable(elementClass);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.views;
+
+import com.couchbase.client.java.document.json.JsonArray;
+
+/**
+ * A view which can be used to look a property up
+ *
+ * The generic property index views emit [key, value], the views of key
+ * indices emit [value]. This class hides the difference.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class PropIndex {
+
+    /**
+     * The design document
+     */
+    private final String designDocName;
+
+    /**
+     * The view
+     */
+    private final String viewName;
+
+    /**
+     * The property key
+     */
+    private final String key;
+
+    /**
+     * If the view only indexes this property key
+     */
+    private final boolean perKey;
+
+
+    /**
+     * The constructor
+     *
+     * @param designDocName
+     * @param viewName
+     * @param key
+     * @param perKey
+     */
+    public PropIndex(String designDocName, String viewName, String key, boolean perKey) {
+
+        this.designDocName = designDocName;
+        this.viewName = viewName;
+        this.key = key;
+        this.perKey = perKey;
+    }
+
+    public String getDesignDocName() {
+        return designDocName;
+    }
+
+    public String getViewName() {
+        return viewName;
+    }
+
+    /**
+     * To get the view key of a value
+     *
+     * @param value
+     * @return
+     */
+    public JsonArray genKey(Object value) {
+
+        return strip(ViewManager.genTypedKey(key, value));
+    }
+
+    /**
+     * To get the range of all values
+     *
+     * @return The start and the end key
+     */
+    public JsonArray[] genRange() {
+
+        return strip(ViewManager.genTypedKeyRange(key));
+    }
+
+    /**
+     * To get the range of all values with the same type as the given value
+     *
+     * @param value
+     * @return The start and the end key
+     */
+    public JsonArray[] genRange(Object value) {
+
+        return strip(ViewManager.genTypedKeyRange(key, value));
+    }
+
+    /**
+     * To remove the property key from the view keys of a key index
+     *
+     * @param keys
+     * @return
+     */
+    private JsonArray[] strip(JsonArray[] keys) {
+
+        return new JsonArray[] { strip(keys[0]), strip(keys[1]) };
+    }
+
+    /**
+     * To remove the property key from the view key of a key index
+     *
+     * @param typedKey
+     * @return
+     */
+    private JsonArray strip(JsonArray typedKey) {
+
+        if (!perKey) return typedKey;
+
+        JsonArray result = JsonArray.empty();
+
+        for (int i = 1; i < typedKey.size(); i++) {
+
+            result.add(typedKey.get(i));
+        }
+
+        return result;
+    }
+}
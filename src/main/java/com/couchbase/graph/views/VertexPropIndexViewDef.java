@@ -1,5 +1,5 @@
 /*
- * Copyright 2014 Couchbase, Inc.
+ * Copyright 2016 Couchbase, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -19,16 +19,17 @@ package com.couchbase.graph.views;
 import com.couchbase.graph.cfg.ConfigManager;
 
 /**
- * The view definition which is used to index all vertices
+ * The view definition which is used to index the vertex properties by using
+ * typed [key, value] keys
  * 
  * @author David Maier <david.maier at couchbase.com>
  */
-public class AllVertexPropsViewDef extends ViewDef {
+public class VertexPropIndexViewDef extends ViewDef {
     
-    public static final String MAP_FUNC_FILE_NAME = "func_map_all_vertex_props.js";
-    public static final String VIEW_ALL_VERTICES = ConfigManager.getCbConfig().getAllVertexPropsView();
+    public static final String MAP_FUNC_FILE_NAME = "func_map_vertex_prop_index.js";
+    public static final String VIEW_VERTEX_PROP_INDEX = ConfigManager.getCbConfig().getVertexPropIndexView();
     
-    public AllVertexPropsViewDef() {
-        super(VIEW_ALL_VERTICES, MAP_FUNC_FILE_NAME);
+    public VertexPropIndexViewDef() {
+        super(VIEW_VERTEX_PROP_INDEX, MAP_FUNC_FILE_NAME);
     }
 }
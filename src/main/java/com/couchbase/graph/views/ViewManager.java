@@ -17,15 +17,21 @@
 package com.couchbase.graph.views;
 
 import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
 import com.couchbase.client.java.view.DesignDocument;
 import com.couchbase.client.java.view.Stale;
 import com.couchbase.client.java.view.View;
 import com.couchbase.client.java.view.ViewQuery;
 import com.couchbase.client.java.view.ViewResult;
 import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.CouchbaseConfig.ViewConsistency;
+import com.couchbase.graph.cfg.GraphConfig;
 import com.couchbase.graph.conn.ConnectionFactory;
+import com.couchbase.graph.stats.ViewStats;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
@@ -47,14 +53,30 @@ public class ViewManager {
      * The default design document name
      */
     public static final String DESIGN_DOC = ConfigManager.getCbConfig().getDesignDoc();
+    
+    /**
+     * The default consistency of the queries
+     */
+    public static final ViewConsistency CONSISTENCY = ConfigManager.getCbConfig().getViewConsistency();
+    
+    /**
+     * The sequence number of the last write of this process
+     */
+    private static final AtomicLong writeSeq = new AtomicLong(1);
+    
+    /**
+     * The highest write sequence number which a completed view query with
+     * Stale.FALSE has waited for
+     */
+    private static final AtomicLong waitedSeq = new AtomicLong(0);
  
    
     //Available view definitions
     private static ViewDef allEdgesViewDef;
     private static ViewDef allEdgeLabelsViewDef;
     private static ViewDef allVerticesViewDef;
-    private static ViewDef allVertexPropsViewDef;
-    private static ViewDef allEdgePropsViewDef;
+    private static ViewDef vertexPropIndexViewDef;
+    private static ViewDef edgePropIndexViewDef;
     
     
     /**
@@ -106,8 +128,13 @@ public class ViewManager {
         defs.add(getAllEdgesViewDef());
         defs.add(getAllVerticesViewDef());
         defs.add(getAllEdgeLabelsViewDef());
-        defs.add(getAllVertexPropsViewDef());
-        defs.add(getAllEdgePropsViewDef());
+        
+        //Otherwise only the keys with a key index are indexed
+        if (ConfigManager.getGraphConfig().getPropIndexMode() == GraphConfig.PropIndexMode.ALL) {
+            
+            defs.add(getVertexPropIndexViewDef());
+            defs.add(getEdgePropIndexViewDef());
+        }
         
         createViews(defs);
     }
@@ -199,25 +226,25 @@ public class ViewManager {
     }
 
     /**
-     * To get the all vertex properties view definition
+     * To get the typed vertex property index view definition
      * @return 
      */
-    public static ViewDef getAllVertexPropsViewDef() {
-        if (allVertexPropsViewDef == null)
-            allVertexPropsViewDef = new AllVertexPropsViewDef();
+    public static ViewDef getVertexPropIndexViewDef() {
+        if (vertexPropIndexViewDef == null)
+            vertexPropIndexViewDef = new VertexPropIndexViewDef();
         
-        return allVertexPropsViewDef;
+        return vertexPropIndexViewDef;
     }
     
     /**
-     * To get the all edge properties view definition
+     * To get the typed edge property index view definition
      * @return 
      */
-    public static ViewDef getAllEdgePropsViewDef() {
-        if (allEdgePropsViewDef == null)
-            allEdgePropsViewDef = new AllEdgePropsViewDef();
+    public static ViewDef getEdgePropIndexViewDef() {
+        if (edgePropIndexViewDef == null)
+            edgePropIndexViewDef = new EdgePropIndexViewDef();
         
-        return allEdgePropsViewDef;
+        return edgePropIndexViewDef;
     }
 
     
@@ -231,12 +258,88 @@ public class ViewManager {
      * @return 
      */
     public static ViewResult query(String designDocName, String viewName, String startKey, String endKey)
+    {
+        return query(designDocName, viewName, startKey, endKey, CONSISTENCY);
+    }
+    
+    /**
+     * Queries all documents of a view with an optional range parameter and
+     * the given consistency
+     * 
+     * @param designDocName
+     * @param viewName
+     * @param startKey
+     * @param endKey
+     * @param consistency
+     * @return 
+     */
+    public static ViewResult query(String designDocName, String viewName, String startKey, String endKey, ViewConsistency consistency)
+    {
+        return query(designDocName, viewName, startKey, endKey, consistency, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Queries at most 'limit' documents of a view with an optional range 
+     * parameter and the given consistency
+     * 
+     * @param designDocName
+     * @param viewName
+     * @param startKey
+     * @param endKey
+     * @param consistency
+     * @param limit
+     * @return 
+     */
+    public static ViewResult query(String designDocName, String viewName, String startKey, String endKey, ViewConsistency consistency, int limit)
     {
         ViewResult result;
         
+        long seq = writeSequence();
+        
+        Stale stale = resolveStale(consistency, seq);
+        
         //Perform the query
-        ViewQuery query = ViewQuery.from(designDocName, viewName).inclusiveEnd(true).stale(Stale.FALSE);
-                
+        ViewQuery query = createQuery(designDocName, viewName, startKey, endKey, stale);
+        
+        if (limit < Integer.MAX_VALUE)
+        {
+            query = query.limit(limit);
+        }
+        
+        long start = System.nanoTime();
+        
+        result = client.query(query);
+        
+        ViewStats.record(stale, System.nanoTime() - start);
+        
+        waited(stale, seq);
+        
+        return result;
+    }
+    
+    /**
+     * Queries at most 'limit' documents of a view with an optional range of
+     * JSON array keys and the given consistency
+     * 
+     * @param designDocName
+     * @param viewName
+     * @param startKey
+     * @param endKey
+     * @param consistency
+     * @param limit
+     * @return 
+     */
+    public static ViewResult query(String designDocName, String viewName, JsonArray startKey, JsonArray endKey, ViewConsistency consistency, int limit)
+    {
+        ViewResult result;
+        
+        long seq = writeSequence();
+        
+        Stale stale = resolveStale(consistency, seq);
+        
+        //Perform the query
+        ViewQuery query = ViewQuery.from(designDocName, viewName).inclusiveEnd(true).stale(stale);
+        
         if (startKey != null)
         {
             query = query.startKey(startKey);
@@ -247,20 +350,168 @@ public class ViewManager {
             query = query.endKey(endKey);
         }
         
+        if (limit < Integer.MAX_VALUE)
+        {
+            query = query.limit(limit);
+        }
+        
+        long start = System.nanoTime();
+        
         result = client.query(query);
         
+        ViewStats.record(stale, System.nanoTime() - start);
+        
+        waited(stale, seq);
+        
         return result;
     }
     
     /**
-     * To generate a compound key from a KV-pair
+     * Creates a query with an optional range parameter
+     * 
+     * @param designDocName
+     * @param viewName
+     * @param startKey
+     * @param endKey
+     * @param stale
+     * @return 
+     */
+    public static ViewQuery createQuery(String designDocName, String viewName, String startKey, String endKey, Stale stale)
+    {
+        ViewQuery query = ViewQuery.from(designDocName, viewName).inclusiveEnd(true).stale(stale);
+                
+        if (startKey != null)
+        {
+            query = query.startKey(startKey);
+        }
+        
+        if (endKey != null)
+        {
+            query = query.endKey(endKey);
+        }
+        
+        return query;
+    }
+    
+    /**
+     * To remember that this process has written. The write sequence is shared
+     * by all threads and graphs of the process.
+     */
+    public static void markDirty()
+    {
+        writeSeq.incrementAndGet();
+    }
+    
+    /**
+     * The sequence number of the last write. A query captures it before it
+     * is executed and records it via 'waited' after it completed.
+     * 
+     * @return 
+     */
+    public static long writeSequence()
+    {
+        return writeSeq.get();
+    }
+    
+    /**
+     * To determine the stale parameter of a view query. In read your own writes
+     * mode the index is only updated as long as no completed query with
+     * Stale.FALSE has waited for the given write sequence.
+     * 
+     * @param consistency
+     * @param seq The write sequence captured before the query
+     * @return 
+     */
+    public static Stale resolveStale(ViewConsistency consistency, long seq)
+    {
+        return resolveStale(consistency, seq, waitedSeq.get());
+    }
+    
+    /**
+     * To determine the stale parameter of a query against the last write
+     * sequence which an index has waited for
+     * 
+     * @param consistency
+     * @param seq The write sequence captured before the query
+     * @param waited The highest write sequence the index has waited for
+     * @return 
+     */
+    public static Stale resolveStale(ViewConsistency consistency, long seq, long waited)
+    {
+        switch (consistency) {
+            
+            case UPDATE_AFTER : return Stale.UPDATE_AFTER;
+            case OK : return Stale.TRUE;
+            case READ_YOUR_OWN_WRITES : return seq > waited ? Stale.FALSE : Stale.TRUE;
+            default : return Stale.FALSE;
+        }
+    }
+    
+    /**
+     * To record that a view query completed. If it used Stale.FALSE then all
+     * writes up to the captured sequence are indexed.
+     * 
+     * @param stale
+     * @param seq The write sequence captured before the query
+     */
+    public static void waited(Stale stale, long seq)
+    {
+        if (stale == Stale.FALSE)
+        {
+            waitedSeq.accumulateAndGet(seq, Math::max);
+        }
+    }
+    
+    /**
+     * To generate a typed key from a KV-pair. Values those are not supported
+     * by JSON are converted into strings.
      * 
      * @param key
      * @param value
      * @return 
      */
-    public static String genCompKey(String key, String value)
+    public static JsonArray genTypedKey(String key, Object value)
+    {
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean)
+        {
+            return JsonArray.from(key, value);
+        }
+        
+        return JsonArray.from(key, value.toString());
+    }
+    
+    /**
+     * To generate the range of all typed keys of a property key. Objects are
+     * collated after all other values.
+     * 
+     * @param key
+     * @return The start and the end key
+     */
+    public static JsonArray[] genTypedKeyRange(String key)
     {
-        return "[" + key + "," + value + "]";
+        return new JsonArray[] { JsonArray.from(key), JsonArray.from(key, JsonObject.empty()) };
+    }
+    
+    /**
+     * To generate the range of all typed keys of a property key those values
+     * have the same type as the given value
+     * 
+     * @param key
+     * @param value
+     * @return The start and the end key
+     */
+    public static JsonArray[] genTypedKeyRange(String key, Object value)
+    {
+        if (value instanceof Number)
+        {
+            return new JsonArray[] { JsonArray.from(key, -Double.MAX_VALUE), JsonArray.from(key, Double.MAX_VALUE) };
+        }
+        
+        if (value instanceof String)
+        {
+            return new JsonArray[] { JsonArray.from(key, ""), JsonArray.from(key, "\uefff") };
+        }
+        
+        return genTypedKeyRange(key);
     }
 }
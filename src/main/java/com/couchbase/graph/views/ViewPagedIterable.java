@@ -0,0 +1,273 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.graph.views;
+
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.view.AsyncViewResult;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.graph.cfg.CouchbaseConfig.ViewConsistency;
+import com.couchbase.graph.stats.ViewStats;
+import static com.couchbase.graph.views.ViewManager.client;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import rx.Observable;
+
+/**
+ * A lazy iterable over the documents of a view
+ *
+ * The view is paged by using the limit and the key/document id of the last
+ * row of the previous page. As soon as a page is consumed, the next page
+ * (view rows and documents) is fetched asynchronously. So at most two pages
+ * are kept in memory per iterator.
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ * @param <T> The type of the elements
+ */
+public class ViewPagedIterable<T> implements Iterable<T> {
+
+    /**
+     * The design document
+     */
+    private final String designDocName;
+
+    /**
+     * The view
+     */
+    private final String viewName;
+
+    /**
+     * The optional start key
+     */
+    private final String startKey;
+
+    /**
+     * The optional end key
+     */
+    private final String endKey;
+
+    /**
+     * If the end key is part of the range
+     */
+    private final boolean inclusiveEnd;
+
+    /**
+     * The number of rows per page
+     */
+    private final int pageSize;
+
+    /**
+     * To create an element from a fetched document
+     */
+    private final Function<JsonDocument, T> mapper;
+
+    /**
+     * The consistency of the page queries
+     */
+    private final ViewConsistency consistency;
+
+
+    /**
+     * The constructor
+     *
+     * @param designDocName
+     * @param viewName
+     * @param startKey
+     * @param endKey
+     * @param pageSize
+     * @param mapper
+     */
+    public ViewPagedIterable(String designDocName, String viewName, String startKey, String endKey, int pageSize, Function<JsonDocument, T> mapper) {
+
+        this(designDocName, viewName, startKey, endKey, pageSize, mapper, ViewManager.CONSISTENCY);
+    }
+
+    /**
+     * The constructor which takes the consistency of the page queries
+     *
+     * @param designDocName
+     * @param viewName
+     * @param startKey
+     * @param endKey
+     * @param pageSize
+     * @param mapper
+     * @param consistency
+     */
+    public ViewPagedIterable(String designDocName, String viewName, String startKey, String endKey, int pageSize, Function<JsonDocument, T> mapper, ViewConsistency consistency) {
+
+        this(designDocName, viewName, startKey, endKey, true, pageSize, mapper, consistency);
+    }
+
+    /**
+     * The constructor which takes if the end key is part of the range
+     *
+     * @param designDocName
+     * @param viewName
+     * @param startKey
+     * @param endKey
+     * @param inclusiveEnd
+     * @param pageSize
+     * @param mapper
+     * @param consistency
+     */
+    public ViewPagedIterable(String designDocName, String viewName, String startKey, String endKey, boolean inclusiveEnd, int pageSize, Function<JsonDocument, T> mapper, ViewConsistency consistency) {
+
+        this.consistency = consistency;
+        this.inclusiveEnd = inclusiveEnd;
+        this.designDocName = designDocName;
+        this.viewName = viewName;
+        this.startKey = startKey;
+        this.endKey = endKey;
+        this.pageSize = pageSize;
+        this.mapper = mapper;
+    }
+
+
+    @Override
+    public Iterator<T> iterator() {
+
+        return new PagedIterator();
+    }
+
+    /**
+     * To fetch a page and its documents asynchronously. The fetch is started
+     * immediately.
+     *
+     * @param fromKey The key of the last row of the previous page
+     * @param fromDocId The id of the last row of the previous page
+     * @return
+     */
+    private Observable<Page> prefetch(String fromKey, String fromDocId) {
+
+        long seq = ViewManager.writeSequence();
+
+        Stale stale = ViewManager.resolveStale(consistency, seq);
+
+        ViewQuery query = ViewManager.createQuery(designDocName, viewName, fromDocId == null ? startKey : fromKey, endKey, stale)
+                .inclusiveEnd(inclusiveEnd)
+                .limit(pageSize);
+
+        //Continue right after the last row of the previous page
+        if (fromDocId != null) query = query.startKeyDocId(fromDocId).skip(1);
+
+        long start = System.nanoTime();
+
+        Observable<Page> page = client.async().query(query)
+                .flatMap(AsyncViewResult::rows)
+                .toList()
+                .doOnNext(rows -> ViewStats.record(stale, System.nanoTime() - start))
+                .doOnNext(rows -> ViewManager.waited(stale, seq))
+                .flatMap(rows -> Observable.from(rows)
+                        .flatMap(row -> client.async().get(row.id()))
+                        .toMap(JsonDocument::id)
+                        .map(docs -> new Page(rows, docs)))
+                .cache();
+
+        page.subscribe(p -> {}, e -> {});
+
+        return page;
+    }
+
+    /**
+     * A fetched page
+     */
+    private class Page {
+
+        /**
+         * The documents in the order of the view rows
+         */
+        private final List<JsonDocument> docs = new ArrayList<>();
+
+        /**
+         * The key of the last row
+         */
+        private String lastKey;
+
+        /**
+         * The document id of the last row
+         */
+        private String lastDocId;
+
+        /**
+         * If this is the last page
+         */
+        private final boolean last;
+
+
+        public Page(List<AsyncViewRow> rows, Map<String, JsonDocument> fetched) {
+
+            for (AsyncViewRow row : rows) {
+
+                JsonDocument doc = fetched.get(row.id());
+
+                //The document was removed in the meantime
+                if (doc != null) docs.add(doc);
+
+                lastKey = row.key().toString();
+                lastDocId = row.id();
+            }
+
+            this.last = rows.size() < pageSize;
+        }
+    }
+
+    /**
+     * The iterator which walks through the pages
+     */
+    private class PagedIterator implements Iterator<T> {
+
+        /**
+         * The documents of the current page
+         */
+        private Iterator<JsonDocument> current = Collections.emptyIterator();
+
+        /**
+         * The next page which is already being fetched, null if there is none
+         */
+        private Observable<Page> next = prefetch(null, null);
+
+
+        @Override
+        public boolean hasNext() {
+
+            while (!current.hasNext()) {
+
+                if (next == null) return false;
+
+                Page page = next.toBlocking().single();
+
+                current = page.docs.iterator();
+                next = page.last ? null : prefetch(page.lastKey, page.lastDocId);
+            }
+
+            return true;
+        }
+
+        @Override
+        public T next() {
+
+            if (!hasNext()) throw new NoSuchElementException();
+
+            return mapper.apply(current.next());
+        }
+    }
+}
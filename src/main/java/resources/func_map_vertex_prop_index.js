@@ -1,5 +1,5 @@
 /*
- * Copyright 2014 Couchbase, Inc.
+ * Copyright 2016 Couchbase, Inc.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,8 @@
 /* 
  * A map function which implements a general purpose index on properties.
  * 
+ * The key is the JSON array [key, value], so the values keep their type and
+ * are collated correctly (e.g. numbers are sorted numerically).
  * 
  * @author David Maier <david.maier at couchbase.com>
  */
@@ -26,9 +28,7 @@ function map(doc, meta)
     {
         for (var key in doc.props)
         {
-            var val = doc.props[key];
-            
-            emit("[" + key + "," + val + "]", null);
+            emit([key, doc.props[key]], null);
         }
     }
-}
\ No newline at end of file
+}
@@ -16,14 +16,22 @@ package com.couchbase.graph;
  * limitations under the License.
  */
 import com.couchbase.client.java.Bucket;
+import com.couchbase.graph.cfg.CouchbaseConfig.ViewConsistency;
 import com.couchbase.graph.conn.ConnectionFactory;
 import com.couchbase.graph.deps.annotation.RunIf;
 import com.couchbase.graph.deps.checker.PerfEnabledChecker;
 import com.couchbase.graph.deps.runner.JUnitExtRunner;
+import com.couchbase.graph.helper.CollectionHelper;
+import com.couchbase.graph.query.N1qlQueryBackend;
+import com.couchbase.graph.query.QueryBackend;
+import com.couchbase.graph.query.ViewQueryBackend;
+import com.couchbase.graph.stats.ViewStats;
 import com.couchbase.graph.views.ViewManager;
+import com.tinkerpop.blueprints.Compare;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Graph;
 import com.tinkerpop.blueprints.Vertex;
+import java.util.Set;
 import java.util.UUID;
 import org.apache.commons.lang.time.StopWatch;
 import org.junit.After;
@@ -194,6 +202,56 @@ public class CBGraphPerfTest {
     }
     
     
+    /**
+     * To compare adding edges by replacing the whole vertices with adding
+     * them by appending the edge keys in place
+     */
+    @Test
+    @RunIf(value = PerfEnabledChecker.class)
+    public void testAdd1000EdgesByReplaceVsAppend()
+    {
+        System.out.println("-- testAdd1000EdgesByReplaceVsAppend");
+        
+        int COUNT = 1000;
+        CBGraph cbGraph = (CBGraph) graph;
+        
+        Vertex[] targets = new Vertex[COUNT];
+        
+        for (int i = 0; i < COUNT; i++) {
+            
+            targets[i] = graph.addVertex(UUID.randomUUID().toString());
+        }
+        
+        Vertex replaceRoot = graph.addVertex(UUID.randomUUID().toString());
+        
+        StopWatch sw = new StopWatch();
+        sw.start();
+        
+        for (Vertex target : targets) {
+            
+            cbGraph.addEdgeByReplace(null, replaceRoot, target, "replaced");
+        }
+        
+        sw.stop();
+        System.out.println(COUNT + " edges added by replace in " + sw.getTime() + " ms");
+        
+        Vertex appendRoot = graph.addVertex(UUID.randomUUID().toString());
+        
+        sw = new StopWatch();
+        sw.start();
+        
+        for (Vertex target : targets) {
+            
+            cbGraph.addEdgeByAppend(null, appendRoot, target, "appended");
+        }
+        
+        sw.stop();
+        System.out.println(COUNT + " edges added by append in " + sw.getTime() + " ms");
+        
+        Vertex v = graph.getVertex(appendRoot.getId());
+        assertEquals(COUNT, CollectionHelper.copyIterator(v.getEdges(Direction.OUT, "appended").iterator()).size());
+    }
+    
     /**
      * A helper method to add 2 vertices to a root vertex
      * 
@@ -224,4 +282,67 @@ public class CBGraphPerfTest {
             add2Vertices(v_r, currDepth, maxDepth);
         }
     }
+    
+    @Test
+    @RunIf(value = PerfEnabledChecker.class)
+    public void testViewConsistencyTimings()
+    {
+        System.out.println("-- testViewConsistencyTimings");
+        
+        int COUNT = 100;
+        CBGraph cbGraph = (CBGraph) graph;
+        
+        ViewStats.reset();
+        
+        for (ViewConsistency consistency : ViewConsistency.values()) {
+            
+            for (int i = 0; i < COUNT; i++) {
+            
+                //Write while querying
+                Vertex v = graph.addVertex(UUID.randomUUID().toString());
+                v.setProperty("tvct", consistency.toString());
+                
+                cbGraph.getVertices("tvct", consistency.toString(), consistency);
+            }
+            
+            System.out.println(consistency + " : " + ViewStats.toStatsString());
+            ViewStats.reset();
+        }
+    }
+    
+    @Test
+    @RunIf(value = PerfEnabledChecker.class)
+    public void testQueryBackendTimings()
+    {
+        System.out.println("-- testQueryBackendTimings");
+        
+        int COUNT = 100;
+        
+        for (int i = 0; i < COUNT; i++) {
+            
+            Vertex v = graph.addVertex(UUID.randomUUID().toString());
+            v.setProperty("tqbt", i % 10);
+        }
+        
+        QueryBackend[] backends = { new ViewQueryBackend(), new N1qlQueryBackend() };
+        
+        for (QueryBackend backend : backends) {
+            
+            backend.createIndexes();
+            
+            StopWatch sw = new StopWatch();
+            sw.start();
+            
+            for (int i = 0; i < COUNT; i++) {
+            
+                Set<String> ids = backend.queryIds(CBModel.VAL_TYPE_VERTEX, "tqbt", Compare.EQUAL, i % 10, Integer.MAX_VALUE, ViewConsistency.OK);
+                
+                assertNotNull(ids);
+            }
+            
+            sw.stop();
+            
+            System.out.println(backend.getClass().getSimpleName() + " : " + sw.getTime() + " ms");
+        }
+    }
 }
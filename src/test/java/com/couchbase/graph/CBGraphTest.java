@@ -16,18 +16,41 @@ package com.couchbase.graph;
  * limitations under the License.
  */
 import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.graph.bulk.BulkLoader;
+import com.couchbase.graph.cache.LabelCatalog;
+import com.couchbase.graph.cfg.ConfigManager;
 import com.couchbase.graph.conn.ConnectionFactory;
 import com.couchbase.graph.deps.annotation.RunIf;
 import com.couchbase.graph.deps.checker.GraphEnabledChecker;
 import com.couchbase.graph.deps.runner.JUnitExtRunner;
+import com.couchbase.graph.error.IdGenException;
+import com.couchbase.graph.error.WriteBufferException;
+import com.couchbase.graph.helper.CollectionHelper;
+import com.couchbase.graph.id.IdAllocator;
+import com.couchbase.graph.io.GraphMLExporter;
+import com.couchbase.graph.io.GraphSONExporter;
+import com.couchbase.graph.io.GraphSONImporter;
+import com.couchbase.graph.query.LookupQueryBackend;
+import com.couchbase.graph.stats.CASStats;
 import com.couchbase.graph.views.ViewManager;
+import com.couchbase.graph.views.ViewPagedIterable;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Compare;
+import com.tinkerpop.blueprints.KeyIndexableGraph;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+import com.tinkerpop.blueprints.util.io.graphml.GraphMLReader;
+import com.tinkerpop.blueprints.util.io.graphson.GraphSONWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.junit.After;
 import org.junit.AfterClass;
 import static org.junit.Assert.*;
@@ -382,4 +405,649 @@ public class CBGraphTest {
          Iterable<Vertex> cb_v3 = cb_tgvv_moe.getVertices(Direction.BOTH, "guest_of");
          assertEquals("tgvv_barney", cb_v3.iterator().next().getId().toString());
     }
+    
+    /**
+     * Multiple threads are adding edges to the same vertex concurrently. No
+     * edge should get lost.
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testConcurrentAddEdgeToHub() throws Exception {
+        
+        System.out.println("-- testConcurrentAddEdgeToHub");
+        
+        final int NUM_OF_THREADS = 8;
+        final int NUM_OF_EDGES = 25;
+        
+        final CBGraph cbGraph = (CBGraph) graph;
+        final Vertex hub = graph.addVertex("tcaeth_hub");
+        
+        List<Thread> threads = new ArrayList<>();
+        
+        for (int t = 0; t < NUM_OF_THREADS; t++) {
+            
+            final int tId = t;
+            
+            threads.add(new Thread(() -> {
+                
+                //Every thread works with it's own instance of the hub
+                Vertex myHub = graph.getVertex("tcaeth_hub");
+                
+                for (int i = 0; i < NUM_OF_EDGES; i++) {
+                    
+                    Vertex v = graph.addVertex("tcaeth_" + tId + "_" + i);
+                    cbGraph.addEdgeByReplace(null, myHub, v, "hub of");
+                }
+            }));
+        }
+        
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        
+        System.out.println(CASStats.toStatsString());
+        
+        Vertex v = graph.getVertex(hub.getId());
+        assertEquals(NUM_OF_THREADS * NUM_OF_EDGES, CollectionHelper.copyIterator(v.getEdges(Direction.OUT, "hub of").iterator()).size());
+    }
+    
+    /**
+     * To get the edges of a vertex without labels and to use the label catalog
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testGetEdgesWithoutLabels()
+    {
+        System.out.println("-- testGetEdgesWithoutLabels");
+        
+        Vertex v = graph.addVertex("tgewl");
+        Vertex v2 = graph.addVertex("2_tgewl");
+        
+        v.addEdge("tgewl_knows", v2);
+        v.addEdge("tgewl_likes", v2);
+        v2.addEdge("tgewl_knows", v);
+        
+        assertEquals(2, CollectionHelper.copyIterator(v.getEdges(Direction.OUT).iterator()).size());
+        assertEquals(1, CollectionHelper.copyIterator(v.getEdges(Direction.IN).iterator()).size());
+        assertEquals(3, CollectionHelper.copyIterator(v.getEdges(Direction.BOTH).iterator()).size());
+        
+        LabelCatalog.invalidate();
+        assertTrue(LabelCatalog.getLabels().contains("tgewl_likes"));
+        
+        v.addEdge("tgewl_hates", v2);
+        assertTrue(LabelCatalog.getLabels().contains("tgewl_hates"));
+    }
+    
+    /**
+     * To get the adjacent vertices of a vertex with generated and custom edge ids
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testGetAdjacentVertices()
+    {
+        System.out.println("-- testGetAdjacentVertices");
+        
+        Vertex v = graph.addVertex("tgav");
+        Vertex v2 = graph.addVertex("2_tgav");
+        Vertex v3 = graph.addVertex("3_tgav");
+        
+        v.addEdge("tgav_knows", v2);
+        graph.addEdge("tgav_custom", v3, v, "tgav_knows");
+        graph.addEdge(null, v, v, "tgav_self");
+        
+        List<Vertex> out = CollectionHelper.copyIterator(v.getVertices(Direction.OUT, "tgav_knows").iterator());
+        assertEquals(1, out.size());
+        assertEquals("2_tgav", out.get(0).getId().toString());
+        
+        List<Vertex> in = CollectionHelper.copyIterator(v.getVertices(Direction.IN, "tgav_knows").iterator());
+        assertEquals(1, in.size());
+        assertEquals("3_tgav", in.get(0).getId().toString());
+        
+        assertEquals(4, CollectionHelper.copyIterator(v.getVertices(Direction.BOTH).iterator()).size());
+    }
+    
+    /**
+     * To iterate over all vertices with a small page size
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testGetVerticesPaged()
+    {
+        System.out.println("-- testGetVerticesPaged");
+        
+        final String PREFIX = "tgvp_";
+        final int NUM_OF_VERTICES = 7;
+        
+        for (int i = 0; i < NUM_OF_VERTICES; i++) {
+
+           graph.addVertex(PREFIX + i);
+        }
+        
+        Iterable<Vertex> vertices = new ViewPagedIterable<>(ViewManager.DESIGN_DOC, ViewManager.getAllVerticesViewDef().name(), 
+                CBVertex.genVertexKey(PREFIX), CBVertex.genVertexKey(PREFIX + "z"), 2, doc -> (Vertex) new CBVertex(doc, graph));
+        
+        List<String> ids = new ArrayList<>();
+        
+        for (Vertex vertex : vertices) {
+            
+            ids.add(vertex.getId().toString());
+        }
+        
+        System.out.println("ids = " + ids);
+        
+        assertEquals(NUM_OF_VERTICES, ids.size());
+        assertEquals(PREFIX + "0", ids.get(0));
+        assertEquals(PREFIX + (NUM_OF_VERTICES - 1), ids.get(NUM_OF_VERTICES - 1));
+    }
+    
+    /**
+     * To query the edges and adjacent vertices of a vertex
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testVertexQuery()
+    {
+        System.out.println("-- testVertexQuery");
+        
+        Vertex v = graph.addVertex("tvq");
+        
+        for (int i = 0; i < 20; i++) {
+            
+            Vertex target = graph.addVertex("tvq_" + i);
+            Edge e = v.addEdge(i % 2 == 0 ? "tvq_even" : "tvq_odd", target);
+            e.setProperty("weight", i);
+        }
+        
+        assertEquals(10, v.query().direction(Direction.OUT).labels("tvq_even").count());
+        assertEquals(3, CollectionHelper.copyIterator(v.query().labels("tvq_odd").limit(3).vertices().iterator()).size());
+        assertEquals(20, v.query().direction(Direction.OUT).count());
+        assertEquals(0, v.query().direction(Direction.IN).count());
+        
+        List<Edge> heavy = CollectionHelper.copyIterator(v.query().direction(Direction.OUT).interval("weight", 10, 15).edges().iterator());
+        assertEquals(5, heavy.size());
+        
+        List<Edge> limited = CollectionHelper.copyIterator(v.query().direction(Direction.OUT).labels("tvq_even").has("weight", Compare.GREATER_THAN, 5).limit(2).edges().iterator());
+        assertEquals(2, limited.size());
+        assertTrue((Integer) limited.get(0).getProperty("weight") > 5);
+    }
+    
+    /**
+     * To query vertices by their properties
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testGraphQuery()
+    {
+        System.out.println("-- testGraphQuery");
+        
+        for (int i = 0; i < 10; i++) {
+            
+            Vertex v = graph.addVertex("tgq_" + i);
+            v.setProperty("tgq_city", i < 5 ? "Springfield" : "Shelbyville");
+            v.setProperty("tgq_age", i);
+        }
+        
+        assertEquals(5, CollectionHelper.copyIterator(graph.query().has("tgq_city", "Springfield").vertices().iterator()).size());
+        assertEquals(2, CollectionHelper.copyIterator(graph.query().has("tgq_city", "Springfield").limit(2).vertices().iterator()).size());
+        assertEquals(10, CollectionHelper.copyIterator(graph.query().has("tgq_age").vertices().iterator()).size());
+        
+        List<Vertex> result = CollectionHelper.copyIterator(graph.query().has("tgq_city", "Shelbyville").interval("tgq_age", 6, 8).vertices().iterator());
+        assertEquals(2, result.size());
+        
+        result = CollectionHelper.copyIterator(graph.query().has("tgq_age", Compare.LESS_THAN, 2).vertices().iterator());
+        assertEquals(2, result.size());
+        
+        //NOT_EQUAL also matches a vertex without the property
+        graph.addVertex("tgq_10").setProperty("tgq_city", "Springfield");
+        
+        result = CollectionHelper.copyIterator(graph.query().has("tgq_city", "Springfield").has("tgq_age", Compare.NOT_EQUAL, 3).vertices().iterator());
+        assertEquals(5, result.size());
+        assertTrue(result.stream().anyMatch(v -> v.getId().equals("tgq_10")));
+        assertFalse(result.stream().anyMatch(v -> v.getId().equals("tgq_3")));
+    }
+    
+    /**
+     * To query typed property values
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testTypedPropertyIndex()
+    {
+        System.out.println("-- testTypedPropertyIndex");
+        
+        for (int i = 0; i < 12; i++) {
+            
+            Vertex v = graph.addVertex("ttpi_" + i);
+            v.setProperty("ttpi_age", i);
+            v.setProperty("ttpi_name", "Simpson, " + i);
+        }
+        
+        assertEquals(1, CollectionHelper.copyIterator(graph.getVertices("ttpi_age", 9).iterator()).size());
+        assertEquals(0, CollectionHelper.copyIterator(graph.getVertices("ttpi_age", "9").iterator()).size());
+        assertEquals(1, CollectionHelper.copyIterator(graph.getVertices("ttpi_name", "Simpson, 9").iterator()).size());
+        
+        //Numbers are collated numerically, so 10 and 11 are greater than 9
+        List<Vertex> result = CollectionHelper.copyIterator(graph.query().has("ttpi_age", Compare.GREATER_THAN_EQUAL, 9).vertices().iterator());
+        assertEquals(3, result.size());
+    }
+    
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testKeyIndex()
+    {
+        System.out.println("-- testKeyIndex");
+        
+        for (int i = 0; i < 5; i++) {
+            
+            Vertex v = graph.addVertex("tki_" + i);
+            v.setProperty("tki_color", i % 2 == 0 ? "red" : "blue");
+        }
+        
+        KeyIndexableGraph kiGraph = (KeyIndexableGraph) graph;
+        
+        kiGraph.createKeyIndex("tki_color", Vertex.class);
+        
+        assertTrue(kiGraph.getIndexedKeys(Vertex.class).contains("tki_color"));
+        assertFalse(kiGraph.getIndexedKeys(Edge.class).contains("tki_color"));
+        
+        assertEquals(3, CollectionHelper.copyIterator(graph.getVertices("tki_color", "red").iterator()).size());
+        assertEquals(2, CollectionHelper.copyIterator(graph.query().has("tki_color", "blue").vertices().iterator()).size());
+        
+        kiGraph.dropKeyIndex("tki_color", Vertex.class);
+        
+        assertFalse(kiGraph.getIndexedKeys(Vertex.class).contains("tki_color"));
+    }
+    
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testLookupQueryBackend()
+    {
+        System.out.println("-- testLookupQueryBackend");
+        
+        LookupQueryBackend backend = new LookupQueryBackend();
+        String type = "tlqb_" + System.currentTimeMillis();
+        
+        for (int i = 0; i < 5; i++) {
+            
+            backend.registerKey(type, "tlqb_" + i);
+        }
+        
+        backend.unregisterKey(type, "tlqb_3");
+        
+        List<String> keys = backend.queryKeys(type);
+        assertEquals(4, keys.size());
+        assertFalse(keys.contains("tlqb_3"));
+        
+        //A removed key can be added again
+        backend.registerKey(type, "tlqb_3");
+        backend.compact(type);
+        
+        assertEquals(5, backend.queryKeys(type).size());
+    }
+    
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testLookupAutoCompaction()
+    {
+        System.out.println("-- testLookupAutoCompaction");
+        
+        LookupQueryBackend backend = new LookupQueryBackend();
+        String type = "tlac_" + System.currentTimeMillis();
+        String key = "tlac_0";
+        
+        int threshold = ConfigManager.getGraphConfig().getLookupCompactThreshold();
+        int shard = Math.floorMod(key.hashCode(), ConfigManager.getGraphConfig().getLookupShards());
+        String lookupKey = CBModel.LOOKUP_KEY.replace("{1}", type).replace("{2}", String.valueOf(shard));
+        
+        //The duplicate entries are removed as soon as the threshold is reached
+        backend.registerKeys(type, Collections.nCopies(threshold, key));
+        
+        Bucket client = ConnectionFactory.getBucketCon();
+        assertEquals(1, client.get(lookupKey).content().getArray(CBModel.PROP_KEYS).size());
+        assertEquals(1, backend.queryKeys(type).size());
+    }
+    
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testIdAllocator() throws Exception
+    {
+        System.out.println("-- testIdAllocator");
+        
+        Bucket client = ConnectionFactory.getBucketCon();
+        String counterKey = "tia_" + System.currentTimeMillis();
+        IdAllocator allocator = new IdAllocator(client, counterKey, 10, 3);
+        
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        
+        for (int i = 0; i < 4; i++) {
+            
+            Thread t = new Thread(() -> {
+                
+                for (int j = 0; j < 250; j++) {
+                    
+                    try {
+                        
+                        ids.add(allocator.next());
+                        
+                    } catch (IdGenException e) {
+                        
+                        fail(e.toString());
+                    }
+                }
+            });
+            
+            threads.add(t);
+            t.start();
+        }
+        
+        for (Thread t : threads) {
+            
+            t.join();
+        }
+        
+        //All ids are unique
+        assertEquals(1000, ids.size());
+        
+        //Another number of stripes would reuse the ids
+        try {
+            
+            new IdAllocator(client, counterKey, 10, 2).next();
+            fail("The number of stripes should be checked");
+            
+        } catch (IdGenException e) {
+            
+            System.out.println(e.toString());
+        }
+    }
+    
+    /**
+     * Properties are written via sub-document operations without overriding
+     * the adjacency lists which were modified by another instance
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testSubDocProperties()
+    {
+        System.out.println("-- testSubDocProperties");
+        
+        if (!ConfigManager.getGraphConfig().isSubDocEnabled()) {
+            
+            System.out.println("Skipping test because sub-document operations are not enabled.");
+            return;
+        }
+        
+        Vertex v = graph.addVertex("tsdp_1");
+        v.setProperty("name", "tsdp");
+        
+        //Another instance adds an edge
+        graph.addEdge(null, graph.getVertex("tsdp_1"), graph.addVertex("tsdp_2"), "knows");
+        
+        v.setProperty("a.b", 42);
+        assertEquals("tsdp", v.removeProperty("name"));
+        assertNull(v.removeProperty("unknown"));
+        
+        v = graph.getVertex("tsdp_1");
+        
+        assertEquals(42, (int) v.getProperty("a.b"));
+        assertNull(v.getProperty("name"));
+        assertEquals(1, CollectionHelper.copyIterator(v.getEdges(Direction.OUT, "knows").iterator()).size());
+    }
+    
+    /**
+     * Properties are written by replacing the document with its CAS value, so
+     * the adjacency lists which were modified by another instance are kept
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testReplaceProperties()
+    {
+        System.out.println("-- testReplaceProperties");
+        
+        Vertex v = graph.addVertex("trp_1");
+        v.setProperty("name", "trp");
+        
+        //Another instance adds an edge
+        graph.addEdge(null, graph.getVertex("trp_1"), graph.addVertex("trp_2"), "knows");
+        
+        v.setProperty("age", 42);
+        assertEquals("trp", v.removeProperty("name"));
+        assertNull(v.removeProperty("unknown"));
+        
+        v = graph.getVertex("trp_1");
+        
+        assertEquals(42, (int) v.getProperty("age"));
+        assertNull(v.getProperty("name"));
+        assertEquals(1, CollectionHelper.copyIterator(v.getEdges(Direction.OUT, "knows").iterator()).size());
+    }
+    
+    /**
+     * The vertices and edges are only written on commit, multiple edges of
+     * the same vertex are causing one adjacency list update
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testWriteBuffer()
+    {
+        System.out.println("-- testWriteBuffer");
+        
+        CBGraph cbGraph = (CBGraph) graph;
+        Bucket client = ConnectionFactory.getBucketCon();
+        
+        cbGraph.setBuffered(true);
+        
+        try {
+            
+            Vertex hub = graph.addVertex("twb_hub");
+            hub.setProperty("name", "hub");
+            
+            for (int i = 0; i < 100; i++) {
+                
+                graph.addEdge(null, hub, graph.addVertex("twb_" + i), "knows");
+            }
+            
+            //Buffered but not yet written
+            assertNotNull(graph.getVertex("twb_hub"));
+            assertNull(client.get("v_twb_hub"));
+            
+            cbGraph.commit();
+            
+            //Discarded before it was written
+            LabelCatalog.getLabels();
+            graph.addEdge(null, graph.addVertex("twb_rollback"), hub, "twb_rolled_back");
+            cbGraph.rollback();
+            assertFalse(LabelCatalog.getLabels().contains("twb_rolled_back"));
+            cbGraph.commit();
+            
+            assertNull(client.get("v_twb_rollback"));
+            
+            //The vertex already exists, so its edge is kept back
+            Vertex dup = graph.addVertex("twb_0");
+            graph.addEdge(null, dup, graph.addVertex("twb_new"), "knows");
+            
+            try {
+                
+                cbGraph.commit();
+                fail("The commit should fail");
+                
+            } catch (WriteBufferException e) {
+                
+                assertTrue(e.getFailures().containsKey("v_twb_0"));
+            }
+            
+            assertNotNull(client.get("v_twb_new"));
+            assertEquals(0, CollectionHelper.copyIterator(graph.getVertex("twb_new").getEdges(Direction.IN).iterator()).size());
+            
+            cbGraph.rollback();
+            
+        } finally {
+            
+            cbGraph.setBuffered(false);
+        }
+        
+        Vertex hub = graph.getVertex("twb_hub");
+        
+        assertEquals("hub", hub.getProperty("name"));
+        assertEquals(100, CollectionHelper.copyIterator(hub.getEdges(Direction.OUT, "knows").iterator()).size());
+        assertEquals(1, CollectionHelper.copyIterator(graph.getVertex("twb_42").getEdges(Direction.IN, "knows").iterator()).size());
+    }
+    
+    /**
+     * Loads the vertices and edges of another graph, each vertex document is
+     * written once
+     * 
+     * @throws Exception 
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testBulkLoader() throws Exception
+    {
+        System.out.println("-- testBulkLoader");
+        
+        TinkerGraph source = new TinkerGraph();
+        
+        Vertex hub = source.addVertex("tbl_hub");
+        hub.setProperty("name", "hub");
+        
+        for (int i = 0; i < 100; i++) {
+            
+            Vertex v = source.addVertex("tbl_" + i);
+            v.setProperty("idx", i);
+            source.addEdge(null, hub, v, "knows").setProperty("weight", i);
+        }
+        
+        BulkLoader loader = new BulkLoader();
+        loader.addVertices(source.getVertices());
+        loader.addEdges(source.getEdges());
+        
+        assertEquals(100 + 101, loader.finish());
+        assertEquals(0, loader.getFailed());
+        
+        System.out.println(loader.toStatsString());
+        
+        Vertex loaded = graph.getVertex("tbl_hub");
+        
+        assertEquals("hub", loaded.getProperty("name"));
+        
+        List<Edge> edges = CollectionHelper.copyIterator(loaded.getEdges(Direction.OUT, "knows").iterator());
+        
+        assertEquals(100, edges.size());
+        assertEquals(42, (int) graph.getVertex("tbl_42").getProperty("idx"));
+        assertEquals(1, CollectionHelper.copyIterator(graph.getVertex("tbl_42").getEdges(Direction.IN, "knows").iterator()).size());
+    }
+    
+    /**
+     * Imports a GraphSON document which was written by Blueprints and
+     * exports the graph as GraphSON and GraphML
+     * 
+     * @throws Exception 
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testImportExport() throws Exception
+    {
+        System.out.println("-- testImportExport");
+        
+        TinkerGraph source = new TinkerGraph();
+        
+        Vertex hub = source.addVertex("tie_hub");
+        hub.setProperty("name", "hub");
+        hub.setProperty("weight", 1.5);
+        
+        for (int i = 0; i < 10; i++) {
+            
+            source.addEdge(null, hub, source.addVertex("tie_" + i), "knows").setProperty("weight", i);
+        }
+        
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        GraphSONWriter.outputGraph(source, json);
+        
+        GraphSONImporter importer = new GraphSONImporter();
+        
+        assertEquals(11 + 10, importer.load(new ByteArrayInputStream(json.toByteArray())));
+        System.out.println(importer.toStatsString());
+        
+        assertEquals("hub", graph.getVertex("tie_hub").getProperty("name"));
+        assertEquals(10, CollectionHelper.copyIterator(graph.getVertex("tie_hub").getEdges(Direction.OUT, "knows").iterator()).size());
+        
+        //GraphSON, the edges of the hub are written with their properties
+        GraphSONExporter jsonExporter = new GraphSONExporter((CBGraph) graph);
+        ByteArrayOutputStream jsonOut = new ByteArrayOutputStream();
+        jsonExporter.export(jsonOut);
+        System.out.println(jsonExporter.toStatsString());
+        
+        JsonObject exported = JsonObject.fromJson(jsonOut.toString("UTF-8"));
+        
+        int hubEdges = 0;
+        
+        for (Object e : exported.getArray("edges")) {
+            
+            JsonObject edge = (JsonObject) e;
+            
+            if ("tie_hub".equals(edge.getString("_outV"))) {
+                
+                assertEquals("knows", edge.getString("_label"));
+                assertNotNull(edge.getInt("weight"));
+                hubEdges++;
+            }
+        }
+        
+        assertEquals(10, hubEdges);
+        
+        //GraphML, the edges are derived from the keys
+        GraphMLExporter xmlExporter = new GraphMLExporter((CBGraph) graph);
+        xmlExporter.setEdgeProperties(false);
+        ByteArrayOutputStream xmlOut = new ByteArrayOutputStream();
+        xmlExporter.export(xmlOut);
+        System.out.println(xmlExporter.toStatsString());
+        
+        String xml = xmlOut.toString("UTF-8");
+        
+        assertTrue(xml.contains("<data key=\"v_name\">hub</data>"));
+        assertEquals(10, xml.split("source=\"tie_hub\"", -1).length - 1);
+        
+        //GraphML, a vertex and an edge property with the same name are declared separately
+        xmlExporter.setEdgeProperties(true);
+        xmlOut = new ByteArrayOutputStream();
+        xmlExporter.export(xmlOut);
+        
+        TinkerGraph target = new TinkerGraph();
+        GraphMLReader.inputGraph(target, new ByteArrayInputStream(xmlOut.toByteArray()));
+        
+        assertEquals(1.5, (double) target.getVertex("tie_hub").getProperty("weight"), 0);
+        assertTrue(target.getVertex("tie_hub").getEdges(Direction.OUT, "knows").iterator().next().getProperty("weight") instanceof Integer);
+    }
+    
+    /**
+     * Each vertex and edge is passed exactly once to the callback, no matter
+     * how many partitions are scanned
+     */
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testPartitionedScan()
+    {
+        System.out.println("-- testPartitionedScan");
+        
+        CBGraph cbGraph = (CBGraph) graph;
+        
+        Vertex hub = graph.addVertex("tps_hub");
+        
+        for (int i = 0; i < 20; i++) {
+            
+            graph.addEdge(null, hub, graph.addVertex("tps_" + i), "knows");
+        }
+        
+        Set<Object> ids = ConcurrentHashMap.newKeySet();
+        
+        long scanned = cbGraph.scanVertices(4, null, v -> assertTrue(ids.add(v.getId())));
+        
+        assertEquals(ids.size(), scanned);
+        assertEquals(CollectionHelper.copyIterator(graph.getVertices().iterator()).size(), scanned);
+        assertTrue(ids.contains("tps_hub"));
+        assertTrue(ids.contains("tps_19"));
+        
+        Set<Object> edgeIds = ConcurrentHashMap.newKeySet();
+        
+        assertEquals(CollectionHelper.copyIterator(graph.getEdges().iterator()).size(), cbGraph.scanEdges(3, null, e -> edgeIds.add(e.getId())));
+        assertTrue(edgeIds.contains(CBEdge.genEdgeId("tps_hub", "knows", "tps_7")));
+    }
 }
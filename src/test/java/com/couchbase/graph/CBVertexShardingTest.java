@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.couchbase.graph;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.GraphConfig;
+import com.couchbase.graph.conn.ConnectionFactory;
+import com.couchbase.graph.deps.annotation.RunIf;
+import com.couchbase.graph.deps.checker.GraphEnabledChecker;
+import com.couchbase.graph.deps.runner.JUnitExtRunner;
+import com.couchbase.graph.helper.CollectionHelper;
+import com.couchbase.graph.views.ViewManager;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.runner.RunWith;
+
+/**
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+@RunWith(JUnitExtRunner.class)
+public class CBVertexShardingTest {
+    
+    /**
+     * The graph instance to test
+     */
+    private static Graph graph;
+    
+    private static Bucket client;
+    
+    private static final GraphConfig CFG = ConfigManager.getGraphConfig();
+    
+    
+    /**
+     * Flush the test bucket and delete the views before running the tests
+     * 
+     * @throws Exception 
+     */
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+
+        client = ConnectionFactory.getBucketCon();
+        assertTrue(client.bucketManager().flush());
+        assertTrue(ViewManager.deleteDesignDoc());
+      
+        //Init the graph
+        graph = new CBGraph();
+    }
+    
+    
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testShardKeyEscaping() {
+    
+        System.out.println("-- testShardKeyEscaping");
+        
+        assertFalse(ShardedAdjacencyList.genShardKey("a", Direction.OUT, "out_x", 0).equals(ShardedAdjacencyList.genShardKey("a_out", Direction.OUT, "x", 0)));
+        assertFalse(ShardedAdjacencyList.genLabelKey("a", Direction.OUT, "out_x").equals(ShardedAdjacencyList.genLabelKey("a_out", Direction.OUT, "x")));
+        assertEquals("al_a%5Fb_out_friend of_1", ShardedAdjacencyList.genShardKey("a_b", Direction.OUT, "friend of", 1));
+    }
+    
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testShardedAdjacencyList() {
+    
+        System.out.println("-- testShardedAdjacencyList");
+        
+        if (CFG.getAdjacencyMode() == GraphConfig.AdjacencyMode.SHARDED) {
+        
+            //Add a vertex and an edge
+            Vertex v = graph.addVertex("tsal");
+            Vertex v2 = graph.addVertex("2_tsal");
+            v.addEdge("friend of", v2);
+           
+            v = graph.getVertex("tsal");
+            v2 = graph.getVertex("2_tsal");
+           
+            System.out.println("v = " + v.toString());
+            System.out.println("v2 = " + v2.toString());
+            
+            assertEquals("{edges={in={}, out={friend of=1}}, props={}, type=vertex}", v.toString());
+            assertEquals("{edges={in={friend of=1}, out={}}, props={}, type=vertex}", v2.toString());
+            
+            JsonDocument shard = client.get(ShardedAdjacencyList.genShardKey("tsal", Direction.OUT, "friend of", 0));
+            assertEquals("[\"e_tsal->|friend of|->2_tsal\"]", shard.content().getArray(CBModel.PROP_EDGES).toString());
+            
+            assertEquals("2_tsal", v.getVertices(Direction.OUT, "friend of").iterator().next().getId().toString());
+            assertEquals("tsal", v2.getVertices(Direction.IN, "friend of").iterator().next().getId().toString());
+            
+            //Remove the edge again
+            Edge e = v.getEdges(Direction.OUT, "friend of").iterator().next();
+            e.remove();
+            
+            assertEquals(0, CollectionHelper.copyIterator(v.getEdges(Direction.OUT, "friend of").iterator()).size());
+            
+        } else {
+            
+            System.out.println("Skipping test because the adjacency lists are not sharded.");
+        } 
+    }
+    
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testShardSplit() {
+    
+        System.out.println("-- testShardSplit");
+        
+        if (CFG.getAdjacencyMode() == GraphConfig.AdjacencyMode.SHARDED) {
+            
+            int shardSize = CFG.getAdjacencyShardSize();
+            int numOfEdges = shardSize + 1;
+            
+            Vertex hub = graph.addVertex("tss_hub");
+            
+            for (int i = 0; i < numOfEdges; i++) {
+                
+                hub.addEdge("hub of", graph.addVertex("tss_" + i));
+            }
+            
+            hub = graph.getVertex("tss_hub");
+            
+            System.out.println("hub = " + hub.toString());
+            assertEquals("{edges={in={}, out={hub of=2}}, props={}, type=vertex}", hub.toString());
+            assertEquals(numOfEdges, CollectionHelper.copyIterator(hub.getEdges(Direction.OUT, "hub of").iterator()).size());
+            
+        } else {
+            
+            System.out.println("Skipping test because the adjacency lists are not sharded.");
+        } 
+    }
+    
+    @Test
+    @RunIf(value = GraphEnabledChecker.class)
+    public void testPerLabelAdjacencyList() {
+    
+        System.out.println("-- testPerLabelAdjacencyList");
+        
+        if (CFG.getAdjacencyMode() == GraphConfig.AdjacencyMode.LABEL) {
+        
+            Vertex v = graph.addVertex("tplal");
+            Vertex v2 = graph.addVertex("2_tplal");
+            v.addEdge("follows", v2);
+            v.addEdge("likes", v2);
+            
+            JsonDocument al = client.get(ShardedAdjacencyList.genLabelKey("tplal", Direction.OUT, "follows"));
+            assertEquals("[\"e_tplal->|follows|->2_tplal\"]", al.content().getArray(CBModel.PROP_EDGES).toString());
+            
+            v = graph.getVertex("tplal");
+            System.out.println("v = " + v.toString());
+            assertEquals("{edges={in={}, out={follows=1, likes=1}}, props={}, type=vertex}", v.toString());
+            
+            assertEquals(1, CollectionHelper.copyIterator(v.getEdges(Direction.OUT, "follows").iterator()).size());
+            assertEquals(2, CollectionHelper.copyIterator(v.getEdges(Direction.OUT).iterator()).size());
+            assertEquals("tplal", v2.getVertices(Direction.IN, "likes").iterator().next().getId().toString());
+            
+        } else {
+            
+            System.out.println("Skipping test because the adjacency lists are not stored per label.");
+        } 
+    }
+}
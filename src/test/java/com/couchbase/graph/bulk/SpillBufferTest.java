@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.bulk;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the grouping of the bulk load records, no cluster is required
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class SpillBufferTest {
+
+    @Test
+    public void testGroupsAcrossRuns() throws Exception {
+
+        System.out.println("-- testGroupsAcrossRuns");
+
+        SpillBuffer buffer = new SpillBuffer(7, null);
+
+        for (int i = 0; i < 50; i++) {
+
+            buffer.add(new SpillBuffer.Record("v_" + (i % 5), SpillBuffer.KIND_OUT, "knows", "e_" + i));
+        }
+
+        buffer.add(new SpillBuffer.Record("v_3", SpillBuffer.KIND_VERTEX, "", "{\"name\":\"tuc\"}"));
+
+        assertEquals(7, buffer.getSpills());
+
+        List<String> keys = new ArrayList<>();
+
+        buffer.forEachGroup((vKey, records) -> {
+
+            keys.add(vKey);
+
+            assertEquals(vKey.equals("v_3") ? 11 : 10, records.size());
+
+            //The records keep the order in which they were added
+            for (int i = 0; i < 10; i++) {
+
+                assertEquals("e_" + (i * 5 + Integer.parseInt(vKey.substring(2))), records.get(i).value);
+            }
+        });
+
+        assertEquals(5, keys.size());
+        assertEquals("v_0", keys.get(0));
+        assertEquals("v_4", keys.get(4));
+
+        //The buffer is empty afterwards
+        buffer.forEachGroup((vKey, records) -> fail());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.cache;
+
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.graph.cfg.ConfigManager;
+import com.couchbase.graph.cfg.GraphConfig;
+import com.couchbase.graph.stats.CacheStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the document cache, no cluster is required
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class DocumentCacheTest {
+
+    @Before
+    public void setUp() {
+
+        DocumentCache.configure(true, 10000, 60000);
+        CacheStats.reset();
+    }
+
+    @After
+    public void tearDown() {
+
+        GraphConfig cfg = ConfigManager.getGraphConfig();
+        DocumentCache.configure(cfg.isCacheEnabled(), cfg.getCacheSize(), cfg.getCacheTTL());
+    }
+
+    @Test
+    public void testHitAndCopy() {
+
+        System.out.println("-- testHitAndCopy");
+
+        assertNull(DocumentCache.get("v_1"));
+
+        DocumentCache.put(JsonDocument.create("v_1", JsonObject.create().put("name", "tuc"), 42));
+
+        JsonDocument doc = DocumentCache.get("v_1");
+
+        assertEquals(42, doc.cas());
+        assertEquals("tuc", doc.content().getString("name"));
+
+        //Modifying the returned copy doesn't affect the cache
+        doc.content().put("name", "changed");
+        assertEquals("tuc", DocumentCache.get("v_1").content().getString("name"));
+
+        DocumentCache.invalidate("v_1");
+        assertNull(DocumentCache.get("v_1"));
+
+        System.out.println(CacheStats.toStatsString());
+
+        assertEquals(2, CacheStats.getHits());
+        assertEquals(2, CacheStats.getMisses());
+        assertEquals(1, CacheStats.getInvalidations());
+    }
+
+    @Test
+    public void testStaleFill() {
+
+        System.out.println("-- testStaleFill");
+
+        JsonDocument stale = JsonDocument.create("v_1", JsonObject.create().put("name", "old"), 1);
+
+        //The document was modified while it was fetched
+        Object token = DocumentCache.startFill("v_1");
+        DocumentCache.invalidate("v_1");
+        DocumentCache.endFill("v_1", token, stale);
+
+        assertNull(DocumentCache.get("v_1"));
+
+        //The written document is newer than the fetched one
+        token = DocumentCache.startFill("v_1");
+        DocumentCache.put(JsonDocument.create("v_1", JsonObject.create().put("name", "new"), 2));
+        DocumentCache.endFill("v_1", token, stale);
+
+        assertEquals("new", DocumentCache.get("v_1").content().getString("name"));
+
+        //Nothing happened in the meantime
+        DocumentCache.invalidate("v_1");
+        token = DocumentCache.startFill("v_1");
+        DocumentCache.endFill("v_1", token, stale);
+
+        assertEquals(1, DocumentCache.get("v_1").cas());
+    }
+
+    @Test
+    public void testEviction() {
+
+        System.out.println("-- testEviction");
+
+        String data = new String(new char[1000]).replace('\0', 'x');
+
+        for (int i = 0; i < 10; i++) {
+
+            DocumentCache.put(JsonDocument.create("v_" + i, JsonObject.create().put("data", data), i));
+
+            //Keep the first one in use
+            assertNotNull(DocumentCache.get("v_0"));
+        }
+
+        assertTrue(DocumentCache.size() <= 10000);
+        assertNotNull(DocumentCache.get("v_0"));
+        assertNull(DocumentCache.get("v_1"));
+        assertNotNull(DocumentCache.get("v_9"));
+        assertTrue(CacheStats.getEvictions() > 0);
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+
+        System.out.println("-- testExpiration");
+
+        DocumentCache.configure(true, 10000, 50);
+
+        DocumentCache.put(JsonDocument.create("v_1", JsonObject.empty(), 1));
+        assertNotNull(DocumentCache.get("v_1"));
+
+        Thread.sleep(100);
+
+        assertNull(DocumentCache.get("v_1"));
+        assertEquals(1, CacheStats.getExpirations());
+        assertEquals(0, DocumentCache.size());
+    }
+}
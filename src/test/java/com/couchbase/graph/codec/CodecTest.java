@@ -0,0 +1,338 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.codec;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.graph.deps.annotation.RunIf;
+import com.couchbase.graph.deps.checker.PerfEnabledChecker;
+import com.couchbase.graph.deps.runner.JUnitExtRunner;
+import com.couchbase.graph.helper.ZipHelper;
+import com.sun.management.ThreadMXBean;
+import com.tinkerpop.blueprints.Direction;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests the codecs, no cluster is required
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+@RunWith(JUnitExtRunner.class)
+public class CodecTest {
+
+    @Test
+    public void testLzRoundTrip() throws IOException {
+
+        System.out.println("-- testLzRoundTrip");
+
+        Codec codec = new LzCodec();
+
+        byte[] random = new byte[100000];
+        new Random(42).nextBytes(random);
+
+        byte[][] inputs = {
+            new byte[0],
+            "a".getBytes(StandardCharsets.UTF_8),
+            "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes(StandardCharsets.UTF_8),
+            genAdjacencyList(1000).getBytes(StandardCharsets.UTF_8),
+            random
+        };
+
+        for (byte[] input : inputs) {
+
+            byte[] compressed = codec.compress(input);
+
+            assertEquals(LzCodec.ID, compressed[0]);
+            assertArrayEquals(input, codec.decompress(compressed));
+        }
+    }
+
+    @Test
+    public void testLegacyGzip() throws Exception {
+
+        System.out.println("-- testLegacyGzip");
+
+        String edges = genAdjacencyList(10);
+
+        //Compressed before the codecs were introduced
+        ByteArrayOutputStream bas = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bas)) {
+
+            gzip.write(edges.getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(edges, ZipHelper.decompress(bas.toByteArray()));
+
+        //Independent of the configured codec
+        assertEquals(edges, ZipHelper.decompress(new LzCodec().compress(edges.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testUnknownCodec() {
+
+        System.out.println("-- testUnknownCodec");
+
+        try {
+
+            ZipHelper.decompress(new byte[] { 0x7f, 0x00 });
+            fail("The codec should be unknown");
+
+        } catch (ZipHelper.DecompressionException e) {
+
+            System.out.println(e);
+        }
+    }
+
+    @Test
+    public void testBinaryAdjacencyList() throws IOException {
+
+        System.out.println("-- testBinaryAdjacencyList");
+
+        JsonObject out = JsonObject.create()
+                .put("friend of", JsonArray.from("e_tuc->|friend of|->2_tuc", "e_tuc->|friend of|->1_tuc", "e_custom"))
+                .put("knows", JsonArray.from("e_tuc->|knows|->42", "e_tuc->|knows|->7", "e_tuc->|knows|->07"));
+
+        JsonObject in = JsonObject.create()
+                .put("friend of", JsonArray.from("e_3_tuc->|friend of|->tuc"))
+                .put("likes", JsonArray.empty());
+
+        JsonObject edges = JsonObject.create().put("out", out).put("in", in);
+
+        ByteBuf buffer = BinaryAdjacencyList.encode("tuc", edges);
+
+        assertTrue(BinaryAdjacencyList.isEncoded(buffer));
+
+        JsonObject decoded = BinaryAdjacencyList.decode("tuc", buffer);
+
+        //The keys are sorted by the encoding
+        for (String dir : new String[] { "out", "in" }) {
+
+            for (String label : edges.getObject(dir).getNames()) {
+
+                List<Object> expected = edges.getObject(dir).getArray(label).toList();
+                List<Object> actual = decoded.getObject(dir).getArray(label).toList();
+
+                expected.sort(Comparator.comparing(String::valueOf));
+                actual.sort(Comparator.comparing(String::valueOf));
+
+                assertEquals(expected, actual);
+            }
+
+            assertEquals(edges.getObject(dir).getNames(), decoded.getObject(dir).getNames());
+        }
+
+        //A supernode with numeric id-s
+        JsonArray knows = JsonArray.empty();
+
+        for (int i = 0; i < 10000; i++) {
+
+            knows.add("e_1->|knows|->" + (i * 3));
+        }
+
+        edges = JsonObject.create().put("out", JsonObject.create().put("knows", knows)).put("in", JsonObject.empty());
+
+        buffer = BinaryAdjacencyList.encode(1, edges);
+
+        int json = edges.toString().getBytes(StandardCharsets.UTF_8).length;
+        int gzip = new GzipCodec().compress(edges.toString().getBytes(StandardCharsets.UTF_8)).length;
+        int binary = buffer.readableBytes();
+
+        System.out.println("json = " + json + ", gzip = " + gzip + ", binary = " + binary);
+
+        assertTrue(binary * 10 < json);
+        assertEquals(edges, BinaryAdjacencyList.decode(1, buffer));
+    }
+
+    @Test
+    @RunIf(value = PerfEnabledChecker.class)
+    public void testCodecThroughput() throws IOException {
+
+        System.out.println("-- testCodecThroughput");
+
+        int RUNS = 200;
+
+        byte[] input = genAdjacencyList(10000).getBytes(StandardCharsets.UTF_8);
+
+        for (Codec codec : new Codec[] { new GzipCodec(), new LzCodec() }) {
+
+            //Warm up
+            for (int i = 0; i < RUNS; i++) {
+
+                codec.decompress(codec.compress(input));
+            }
+
+            byte[] compressed = null;
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < RUNS; i++) {
+
+                compressed = codec.compress(input);
+            }
+
+            long compressTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+
+            for (int i = 0; i < RUNS; i++) {
+
+                codec.decompress(compressed);
+            }
+
+            long decompressTime = System.nanoTime() - start;
+
+            double mb = (double) input.length * RUNS / (1024 * 1024);
+
+            System.out.println(String.format("%s : compress %.1f MB/s, decompress %.1f MB/s, ratio %.2f",
+                    codec.getName(), mb / (compressTime / 1e9), mb / (decompressTime / 1e9), (double) input.length / compressed.length));
+        }
+    }
+
+    @Test
+    public void testAdjacencyLog() throws IOException {
+
+        System.out.println("-- testAdjacencyLog");
+
+        ByteBuf base = Unpooled.wrappedBuffer("base".getBytes(StandardCharsets.UTF_8));
+
+        ByteBuf buffer = Unpooled.wrappedBuffer(
+                AdjacencyLog.frame(base),
+                AdjacencyLog.delta(true, Direction.OUT, "knows", "e_1->|knows|->2"),
+                AdjacencyLog.delta(false, Direction.BOTH, "likes", "e_1->|likes|->1"));
+
+        assertTrue(AdjacencyLog.isFramed(buffer));
+        assertEquals("base", AdjacencyLog.readBase(buffer).toString(StandardCharsets.UTF_8));
+
+        List<String> deltas = new ArrayList<>();
+
+        int count = AdjacencyLog.replay(buffer, (add, drctn, label, edgeKey) -> deltas.add((add ? "+" : "-") + drctn + " " + label + " " + edgeKey));
+
+        assertEquals(2, count);
+        assertEquals(Arrays.asList("+OUT knows e_1->|knows|->2", "-BOTH likes e_1->|likes|->1"), deltas);
+    }
+
+    @Test
+    public void testDecompressJson() throws Exception {
+
+        System.out.println("-- testDecompressJson");
+
+        String edges = genAdjacencyList(1000);
+
+        for (Codec codec : new Codec[] { new GzipCodec(), new LzCodec() }) {
+
+            ByteBuf buffer = Unpooled.wrappedBuffer(codec.compress(edges.getBytes(StandardCharsets.UTF_8)));
+
+            assertEquals(JsonObject.fromJson(edges), ZipHelper.decompressJson(buffer));
+        }
+    }
+
+    @Test
+    @RunIf(value = PerfEnabledChecker.class)
+    public void testRefreshAllocation() throws Exception {
+
+        System.out.println("-- testRefreshAllocation");
+
+        int RUNS = 100;
+
+        String edges = genAdjacencyList(10000);
+        byte[] compr = new GzipCodec().compress(edges.getBytes(StandardCharsets.UTF_8));
+        ByteBuf binary = BinaryAdjacencyList.encode(1, JsonObject.fromJson(edges));
+
+        ThreadMXBean mx = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        for (int mode = 0; mode < 3; mode++) {
+
+            long allocated = 0;
+
+            for (int i = 0; i < RUNS * 2; i++) {
+
+                ByteBuf buffer = mode == 2 ? binary.duplicate().retain() : Unpooled.wrappedBuffer(compr);
+
+                //The first half is the warm up
+                long before = mx.getThreadAllocatedBytes(tid);
+
+                if (mode == 0) {
+
+                    //The copy, string and parse path which was used before
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+                    for (int j = 0; j < buffer.capacity(); j++) baos.write(buffer.getByte(j));
+
+                    JsonObject.fromJson(ZipHelper.decompress(baos.toByteArray()));
+
+                } else if (mode == 1) {
+
+                    ZipHelper.decompressJson(buffer);
+
+                } else {
+
+                    BinaryAdjacencyList.decode(1, buffer);
+                }
+
+                buffer.release();
+
+                if (i >= RUNS) allocated += mx.getThreadAllocatedBytes(tid) - before;
+            }
+
+            String[] names = { "copy + string", "streaming json", "binary" };
+
+            System.out.println(String.format("%s : %d KB allocated per refresh", names[mode], allocated / RUNS / 1024));
+        }
+    }
+
+    /**
+     * To generate a realistic adjacency list
+     *
+     * @param numOfEdges
+     * @return
+     */
+    private static String genAdjacencyList(int numOfEdges) {
+
+        Random random = new Random(42);
+
+        JsonArray knows = JsonArray.empty();
+        JsonArray likes = JsonArray.empty();
+
+        for (int i = 0; i < numOfEdges; i++) {
+
+            int to = random.nextInt(1000000);
+
+            if (i % 3 == 0) likes.add("e_1->|likes|->" + to);
+            else knows.add("e_1->|knows|->" + to);
+        }
+
+        JsonObject out = JsonObject.create().put("knows", knows).put("likes", likes);
+
+        return JsonObject.create().put("out", out).put("in", JsonObject.empty()).toString();
+    }
+}
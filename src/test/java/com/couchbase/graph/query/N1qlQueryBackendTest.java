@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.graph.query;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.tinkerpop.blueprints.Compare;
+import com.tinkerpop.blueprints.Contains;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the generated N1QL statements, no cluster is required
+ *
+ * @author David Maier <david.maier at couchbase.com>
+ */
+public class N1qlQueryBackendTest {
+
+    @Test
+    public void testGenSelectIds() {
+
+        System.out.println("-- testGenSelectIds");
+
+        String statement = N1qlQueryBackend.genSelectIds("graph", "name", Compare.EQUAL, "Homer", 10);
+
+        System.out.println(statement);
+
+        assertEquals("SELECT META(g).id AS id FROM `graph` g WHERE g.type = $type AND g.props.`name` = $v LIMIT 10", statement);
+
+        statement = N1qlQueryBackend.genSelectIds("graph", "name", Compare.EQUAL, "Homer", Integer.MAX_VALUE);
+
+        assertFalse(statement.contains("LIMIT"));
+    }
+
+    @Test
+    public void testGenCondition() {
+
+        System.out.println("-- testGenCondition");
+
+        assertEquals("p IS VALUED", N1qlQueryBackend.genCondition("p", Compare.NOT_EQUAL, null));
+        assertEquals("p IS NOT VALUED", N1qlQueryBackend.genCondition("p", Compare.EQUAL, null));
+        assertEquals("(p IS NOT VALUED OR p != $v)", N1qlQueryBackend.genCondition("p", Compare.NOT_EQUAL, 1));
+        assertEquals("p IN $v", N1qlQueryBackend.genCondition("p", Contains.IN, Arrays.asList(1, 2)));
+
+        //Comparisons only match values of the same type
+        assertEquals("IS_NUMBER(p) AND p >= $v", N1qlQueryBackend.genCondition("p", Compare.GREATER_THAN_EQUAL, 9));
+        assertEquals("IS_STRING(p) AND p < $v", N1qlQueryBackend.genCondition("p", Compare.LESS_THAN, "b"));
+
+        //Not supported
+        assertNull(N1qlQueryBackend.genCondition("p", Contains.IN, "a"));
+    }
+
+    @Test
+    public void testEscape() {
+
+        System.out.println("-- testEscape");
+
+        assertEquals("props.`a``b`", N1qlQueryBackend.genPath("a`b"));
+
+        assertEquals("graph_vertex_name", N1qlQueryBackend.genIndexName("vertex", "name"));
+        assertTrue(N1qlQueryBackend.genIndexName("vertex", "first name").startsWith("graph_vertex_first_name_"));
+    }
+
+    @Test
+    public void testToParam() {
+
+        System.out.println("-- testToParam");
+
+        assertEquals(1.5, N1qlQueryBackend.toParam(1.5f));
+        assertEquals(JsonArray.from(1, "a"), N1qlQueryBackend.toParam(Arrays.asList(1, "a")));
+        assertEquals("[1]", N1qlQueryBackend.toParam(new StringBuilder("[1]")));
+    }
+}